@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The executor of a single invoker, which delegates to the executor of the transport.
+ * <p>
+ * This allows an invoker to be closed without shutting down an executor shared with other invokers.
+ * Once shut down, new tasks are rejected and periodic tasks are cancelled, matching the behavior of
+ * {@link java.util.concurrent.ScheduledThreadPoolExecutor}. Delayed tasks that have already been
+ * scheduled still run, as the underlying executor cannot distinguish them from those of other invokers.
+ * Termination is thus not tracked, and the executor is considered terminated once shut down.
+ */
+final class InvokerExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+  /**
+   * The underlying executor.
+   */
+  private final ScheduledExecutorService delegate;
+  /**
+   * The periodic tasks, which are cancelled on shutdown.
+   */
+  private final Set<ScheduledFuture<?>> periodicTasks = ConcurrentHashMap.newKeySet();
+  /**
+   * Whether this executor has been shut down.
+   */
+  private volatile boolean shutdown;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Creates an instance.
+   *
+   * @param delegate  the underlying executor
+   */
+  InvokerExecutor(ScheduledExecutorService delegate) {
+    this.delegate = delegate;
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public void execute(Runnable command) {
+    checkNotShutdown();
+    delegate.execute(command);
+  }
+
+  @Override
+  public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+    checkNotShutdown();
+    return delegate.schedule(command, delay, unit);
+  }
+
+  @Override
+  public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+    checkNotShutdown();
+    return delegate.schedule(callable, delay, unit);
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+    checkNotShutdown();
+    return periodic(delegate.scheduleAtFixedRate(command, initialDelay, period, unit));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+    checkNotShutdown();
+    return periodic(delegate.scheduleWithFixedDelay(command, initialDelay, delay, unit));
+  }
+
+  // rejects tasks once shut down
+  private void checkNotShutdown() {
+    if (shutdown || delegate.isShutdown()) {
+      throw new RejectedExecutionException("Executor has been shut down");
+    }
+  }
+
+  // tracks a periodic task, cancelling it if shut down concurrently
+  // tasks that have been cancelled by their owner are no longer tracked
+  private ScheduledFuture<?> periodic(ScheduledFuture<?> future) {
+    periodicTasks.removeIf(ScheduledFuture::isDone);
+    periodicTasks.add(future);
+    if (shutdown) {
+      future.cancel(false);
+    }
+    return future;
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public void shutdown() {
+    shutdown = true;
+    periodicTasks.forEach(future -> future.cancel(false));
+    periodicTasks.clear();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    shutdown();
+    return Collections.emptyList();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return shutdown || delegate.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return isShutdown();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) {
+    return isTerminated();
+  }
+
+}
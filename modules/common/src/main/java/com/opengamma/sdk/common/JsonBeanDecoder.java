@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import org.joda.beans.Bean;
+import org.joda.beans.ser.JodaBeanSer;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * Decoder of a bean from JSON, using a hand-written decoder with Joda-Beans as the fallback.
+ * <p>
+ * The generic Joda-Beans JSON reader looks up each property by name in the meta-bean,
+ * and creates the bean via a builder. A hand-written decoder instead dispatches on the
+ * property name using a switch, and creates the bean directly, which is much faster.
+ * <p>
+ * The hand-written decoder only handles the format that the service produces.
+ * If it fails, for example if the service adds type metadata that the decoder does not understand,
+ * the JSON is decoded again using the Joda-Beans JSON reader, which handles any valid input.
+ * For that reason, the JSON is buffered in full before decoding, as UTF-8 bytes.
+ * <p>
+ * Instances are immutable and thread-safe if the decoder is.
+ *
+ * @param <T>  the type of the bean
+ */
+public final class JsonBeanDecoder<T extends Bean> {
+
+  /**
+   * The type of the bean.
+   */
+  private final Class<T> type;
+  /**
+   * The hand-written decoder.
+   */
+  private final Decoder<T> decoder;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance.
+   *
+   * @param <T>  the type of the bean
+   * @param type  the type of the bean, used by the fallback
+   * @param decoder  the hand-written decoder
+   * @return the decoder
+   */
+  public static <T extends Bean> JsonBeanDecoder<T> of(Class<T> type, Decoder<T> decoder) {
+    return new JsonBeanDecoder<>(type, decoder);
+  }
+
+  private JsonBeanDecoder(Class<T> type, Decoder<T> decoder) {
+    this.type = Objects.requireNonNull(type, "type must not be null");
+    this.decoder = Objects.requireNonNull(decoder, "decoder must not be null");
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Decodes the bean from the source, such as the body of an HTTP response.
+   * <p>
+   * The source is read in full.
+   *
+   * @param source  the source of JSON
+   * @return the bean
+   * @throws IOException if the source cannot be read
+   * @throws RuntimeException if the JSON does not represent a valid bean
+   */
+  public T decode(BufferedSource source) throws IOException {
+    Buffer buffer = new Buffer();
+    source.readAll(buffer);
+    return decode(buffer);
+  }
+
+  /**
+   * Decodes the bean from a string.
+   *
+   * @param json  the JSON
+   * @return the bean
+   * @throws RuntimeException if the JSON does not represent a valid bean
+   */
+  public T decode(String json) {
+    return decode(new Buffer().writeUtf8(json));
+  }
+
+  // decodes the bean, falling back to Joda-Beans
+  // the buffer is cloned, which shares the underlying segments rather than copying
+  private T decode(Buffer buffer) {
+    try {
+      JsonReader reader = JsonReader.of(buffer.clone());
+      T bean = decoder.decode(reader);
+      if (reader.peek() == JsonReader.Token.END_DOCUMENT) {
+        return bean;
+      }
+    } catch (IOException | RuntimeException ex) {
+      // fallback below
+    }
+    return JodaBeanSer.COMPACT.jsonReader().read(buffer.readUtf8(), type);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Hand-written decoder of a bean.
+   *
+   * @param <T>  the type of the bean
+   */
+  @FunctionalInterface
+  public interface Decoder<T> {
+
+    /**
+     * Decodes the bean.
+     * <p>
+     * The reader is positioned before the bean, which should be read in full.
+     *
+     * @param reader  the reader of JSON
+     * @return the bean
+     * @throws IOException if the JSON is malformed or cannot be read
+     * @throws RuntimeException if the JSON is not as expected
+     */
+    public abstract T decode(JsonReader reader) throws IOException;
+  }
+
+}
@@ -0,0 +1,594 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Streaming reader of JSON.
+ * <p>
+ * This reads JSON incrementally from a {@link BufferedSource}, such as the body of an HTTP response.
+ * Only the current token is held in memory, thus very large documents can be processed
+ * without buffering the whole text. The caller pulls each token in turn, typically by
+ * calling {@link #beginObject()}, then {@link #nextName()} and a value method
+ * while {@link #hasNext()} is true, and then {@link #endObject()}.
+ * <p>
+ * The JSON must be well-formed. A malformed document results in an {@link IOException}.
+ * Calling a method that does not match the next token results in an {@link IllegalStateException}.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class JsonReader implements Closeable {
+
+  /**
+   * The characters that end a run of plain characters in a string.
+   */
+  private static final ByteString STRING_END = ByteString.encodeUtf8("\"\\");
+  /**
+   * The JSON literal.
+   */
+  private static final ByteString TRUE = ByteString.encodeUtf8("true");
+  /**
+   * The JSON literal.
+   */
+  private static final ByteString FALSE = ByteString.encodeUtf8("false");
+  /**
+   * The JSON literal.
+   */
+  private static final ByteString NULL = ByteString.encodeUtf8("null");
+
+  // the scopes, held on a stack
+  private static final int EMPTY_DOCUMENT = 0;
+  private static final int NONEMPTY_DOCUMENT = 1;
+  private static final int EMPTY_ARRAY = 2;
+  private static final int NONEMPTY_ARRAY = 3;
+  private static final int EMPTY_OBJECT = 4;
+  private static final int NONEMPTY_OBJECT = 5;
+  private static final int DANGLING_NAME = 6;
+
+  /**
+   * The source.
+   */
+  private final BufferedSource source;
+  /**
+   * The buffer of the source.
+   */
+  private final Buffer buffer;
+  /**
+   * The stack of scopes.
+   */
+  private int[] stack = new int[32];
+  /**
+   * The size of the stack.
+   */
+  private int stackSize = 1;
+  /**
+   * The next token, null if not yet peeked.
+   * When a structural token or string has been peeked, its first character has been consumed.
+   */
+  private Token peeked;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Creates an instance.
+   *
+   * @param source  the source of JSON
+   * @return the reader
+   */
+  public static JsonReader of(BufferedSource source) {
+    return new JsonReader(source);
+  }
+
+  private JsonReader(BufferedSource source) {
+    this.source = source;
+    this.buffer = source.buffer();
+    this.stack[0] = EMPTY_DOCUMENT;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Peeks at the next token, without consuming it.
+   *
+   * @return the next token
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public Token peek() throws IOException {
+    if (peeked == null) {
+      peeked = readToken();
+    }
+    return peeked;
+  }
+
+  // reads the next token, consuming the first character of a structural token or string
+  private Token readToken() throws IOException {
+    int scope = stack[stackSize - 1];
+    switch (scope) {
+      case EMPTY_ARRAY:
+      case NONEMPTY_ARRAY: {
+        stack[stackSize - 1] = NONEMPTY_ARRAY;
+        int c = nextNonWhitespace();
+        if (c == ']') {
+          buffer.skip(1);
+          return Token.END_ARRAY;
+        }
+        if (scope == NONEMPTY_ARRAY) {
+          expect(c, ',');
+        }
+        return peekValue();
+      }
+      case EMPTY_OBJECT:
+      case NONEMPTY_OBJECT: {
+        int c = nextNonWhitespace();
+        if (c == '}') {
+          buffer.skip(1);
+          return Token.END_OBJECT;
+        }
+        if (scope == NONEMPTY_OBJECT) {
+          expect(c, ',');
+          c = nextNonWhitespace();
+        }
+        expect(c, '"');
+        stack[stackSize - 1] = DANGLING_NAME;
+        return Token.NAME;
+      }
+      case DANGLING_NAME:
+        expect(nextNonWhitespace(), ':');
+        stack[stackSize - 1] = NONEMPTY_OBJECT;
+        return peekValue();
+      case EMPTY_DOCUMENT:
+        stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+        return peekValue();
+      default:
+        skipWhitespace();
+        if (!source.exhausted()) {
+          throw syntaxError("Unexpected content after end of document");
+        }
+        return Token.END_DOCUMENT;
+    }
+  }
+
+  // peeks at a value, consuming the first character of a structural token or string
+  private Token peekValue() throws IOException {
+    int c = nextNonWhitespace();
+    switch (c) {
+      case '{':
+        buffer.skip(1);
+        return Token.BEGIN_OBJECT;
+      case '[':
+        buffer.skip(1);
+        return Token.BEGIN_ARRAY;
+      case '"':
+        buffer.skip(1);
+        return Token.STRING;
+      case 't':
+      case 'f':
+        return Token.BOOLEAN;
+      case 'n':
+        return Token.NULL;
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return Token.NUMBER;
+        }
+        throw syntaxError("Unexpected character '" + (char) c + "'");
+    }
+  }
+
+  /**
+   * Checks if the current array or object has another element.
+   *
+   * @return true if there is another element
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public boolean hasNext() throws IOException {
+    Token token = peek();
+    return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Consumes the start of an object.
+   *
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public void beginObject() throws IOException {
+    consume(Token.BEGIN_OBJECT);
+    push(EMPTY_OBJECT);
+  }
+
+  /**
+   * Consumes the end of an object.
+   *
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public void endObject() throws IOException {
+    consume(Token.END_OBJECT);
+    stackSize--;
+  }
+
+  /**
+   * Consumes the start of an array.
+   *
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public void beginArray() throws IOException {
+    consume(Token.BEGIN_ARRAY);
+    push(EMPTY_ARRAY);
+  }
+
+  /**
+   * Consumes the end of an array.
+   *
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public void endArray() throws IOException {
+    consume(Token.END_ARRAY);
+    stackSize--;
+  }
+
+  /**
+   * Consumes the name of the next property in an object.
+   *
+   * @return the name
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public String nextName() throws IOException {
+    consume(Token.NAME);
+    return readString();
+  }
+
+  /**
+   * Consumes a string value.
+   * <p>
+   * A number is returned as its text.
+   *
+   * @return the string
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public String nextString() throws IOException {
+    Token token = peek();
+    if (token == Token.NUMBER) {
+      peeked = null;
+      return readNumber();
+    }
+    consume(Token.STRING);
+    return readString();
+  }
+
+  /**
+   * Consumes a number value.
+   * <p>
+   * A string is parsed as a number, allowing values such as {@code "NaN"}.
+   *
+   * @return the number
+   * @throws IOException if the JSON is malformed or cannot be read
+   * @throws NumberFormatException if a string is not a valid number
+   */
+  public double nextDouble() throws IOException {
+    Token token = peek();
+    if (token == Token.STRING) {
+      peeked = null;
+      return Double.parseDouble(readString());
+    }
+    consume(Token.NUMBER);
+    return Double.parseDouble(readNumber());
+  }
+
+  /**
+   * Consumes an integral number value.
+   * <p>
+   * A string is parsed as a number.
+   *
+   * @return the number
+   * @throws IOException if the JSON is malformed or cannot be read
+   * @throws NumberFormatException if the value is not a valid long
+   */
+  public long nextLong() throws IOException {
+    Token token = peek();
+    if (token == Token.STRING) {
+      peeked = null;
+      return Long.parseLong(readString());
+    }
+    consume(Token.NUMBER);
+    return Long.parseLong(readNumber());
+  }
+
+  /**
+   * Consumes an integral number value that fits in an {@code int}.
+   * <p>
+   * A string is parsed as a number.
+   *
+   * @return the number
+   * @throws IOException if the JSON is malformed or cannot be read
+   * @throws NumberFormatException if the value is not a valid int
+   */
+  public int nextInt() throws IOException {
+    long value = nextLong();
+    if (value != (int) value) {
+      throw new NumberFormatException("Value out of range for int: " + value);
+    }
+    return (int) value;
+  }
+
+  /**
+   * Consumes a boolean value.
+   *
+   * @return the boolean
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public boolean nextBoolean() throws IOException {
+    consume(Token.BOOLEAN);
+    if (source.rangeEquals(0, TRUE)) {
+      buffer.skip(TRUE.size());
+      return true;
+    }
+    if (source.rangeEquals(0, FALSE)) {
+      buffer.skip(FALSE.size());
+      return false;
+    }
+    throw syntaxError("Invalid literal");
+  }
+
+  /**
+   * Consumes a null value.
+   *
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public void nextNull() throws IOException {
+    consume(Token.NULL);
+    if (!source.rangeEquals(0, NULL)) {
+      throw syntaxError("Invalid literal");
+    }
+    buffer.skip(NULL.size());
+  }
+
+  /**
+   * Consumes a string value, returning null if the value is null.
+   *
+   * @return the string, null if the value is null
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public String nextStringOrNull() throws IOException {
+    if (peek() == Token.NULL) {
+      nextNull();
+      return null;
+    }
+    return nextString();
+  }
+
+  /**
+   * Skips the next value, including any nested arrays and objects.
+   *
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  public void skipValue() throws IOException {
+    int depth = 0;
+    do {
+      Token token = peek();
+      switch (token) {
+        case BEGIN_OBJECT:
+          beginObject();
+          depth++;
+          break;
+        case BEGIN_ARRAY:
+          beginArray();
+          depth++;
+          break;
+        case END_OBJECT:
+          endObject();
+          depth--;
+          break;
+        case END_ARRAY:
+          endArray();
+          depth--;
+          break;
+        case NAME:
+          nextName();
+          break;
+        case STRING:
+        case NUMBER:
+          nextString();
+          break;
+        case BOOLEAN:
+          nextBoolean();
+          break;
+        case NULL:
+          nextNull();
+          break;
+        default:
+          throw new IllegalStateException("Expected a value but was " + token);
+      }
+    } while (depth > 0);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Closes the underlying source.
+   *
+   * @throws IOException if an error occurs
+   */
+  @Override
+  public void close() throws IOException {
+    source.close();
+  }
+
+  //-------------------------------------------------------------------------
+  // consumes the next token, which must be the specified token
+  private void consume(Token expected) throws IOException {
+    Token token = peek();
+    if (token != expected) {
+      throw new IllegalStateException("Expected " + expected + " but was " + token);
+    }
+    peeked = null;
+  }
+
+  // pushes a scope onto the stack
+  private void push(int scope) {
+    if (stackSize == stack.length) {
+      stack = Arrays.copyOf(stack, stackSize * 2);
+    }
+    stack[stackSize++] = scope;
+  }
+
+  // returns the next non-whitespace character, without consuming it
+  private int nextNonWhitespace() throws IOException {
+    skipWhitespace();
+    if (!source.request(1)) {
+      throw new EOFException("Unexpected end of JSON");
+    }
+    return buffer.getByte(0);
+  }
+
+  // skips whitespace
+  private void skipWhitespace() throws IOException {
+    while (source.request(1)) {
+      byte b = buffer.getByte(0);
+      if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+        return;
+      }
+      buffer.skip(1);
+    }
+  }
+
+  // checks the character, consuming it
+  private void expect(int actual, char expected) throws IOException {
+    if (actual != expected) {
+      throw syntaxError("Expected '" + expected + "' but was '" + (char) actual + "'");
+    }
+    buffer.skip(1);
+  }
+
+  // reads the rest of a string, the opening quote having been consumed
+  // plain runs of characters are decoded in bulk, only escapes are handled individually
+  private String readString() throws IOException {
+    StringBuilder builder = null;
+    while (true) {
+      long index = source.indexOfElement(STRING_END);
+      if (index == -1) {
+        throw new EOFException("Unterminated string");
+      }
+      if (buffer.getByte(index) == '"') {
+        String run = buffer.readUtf8(index);
+        buffer.skip(1);
+        return builder == null ? run : builder.append(run).toString();
+      }
+      if (builder == null) {
+        builder = new StringBuilder();
+      }
+      builder.append(buffer.readUtf8(index));
+      buffer.skip(1);
+      builder.append(readEscape());
+    }
+  }
+
+  // reads an escape sequence, the backslash having been consumed
+  private char readEscape() throws IOException {
+    if (!source.request(1)) {
+      throw new EOFException("Unterminated escape sequence");
+    }
+    byte escaped = buffer.readByte();
+    switch (escaped) {
+      case 'u':
+        if (!source.request(4)) {
+          throw new EOFException("Unterminated escape sequence");
+        }
+        String hex = buffer.readUtf8(4);
+        try {
+          return (char) Integer.parseInt(hex, 16);
+        } catch (NumberFormatException ex) {
+          throw syntaxError("Invalid escape sequence '\\u" + hex + "'");
+        }
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case '"':
+      case '\\':
+      case '/':
+        return (char) escaped;
+      default:
+        throw syntaxError("Invalid escape sequence '\\" + (char) escaped + "'");
+    }
+  }
+
+  // reads a number, returning its text
+  private String readNumber() throws IOException {
+    long length = 0;
+    while (source.request(length + 1)) {
+      byte b = buffer.getByte(length);
+      if ((b < '0' || b > '9') && b != '-' && b != '+' && b != '.' && b != 'e' && b != 'E') {
+        break;
+      }
+      length++;
+    }
+    return buffer.readUtf8(length);
+  }
+
+  // creates an exception for malformed JSON
+  private static IOException syntaxError(String message) {
+    return new IOException("Malformed JSON: " + message);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * The type of a JSON token.
+   */
+  public enum Token {
+    /**
+     * The start of an array.
+     */
+    BEGIN_ARRAY,
+    /**
+     * The end of an array.
+     */
+    END_ARRAY,
+    /**
+     * The start of an object.
+     */
+    BEGIN_OBJECT,
+    /**
+     * The end of an object.
+     */
+    END_OBJECT,
+    /**
+     * The name of a property.
+     */
+    NAME,
+    /**
+     * A string value.
+     */
+    STRING,
+    /**
+     * A number value.
+     */
+    NUMBER,
+    /**
+     * A boolean value.
+     */
+    BOOLEAN,
+    /**
+     * A null value.
+     */
+    NULL,
+    /**
+     * The end of the document.
+     */
+    END_DOCUMENT,
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+/**
+ * Limit on the rate and concurrency of requests to part of the service.
+ * <p>
+ * The rate is enforced using a token bucket, which allows a burst of requests up to the bucket size,
+ * and then admits requests at the specified rate. The concurrency limit bounds the number of requests
+ * awaiting a response at any one time. Requests that exceed either limit wait until they are admitted.
+ * Synchronous requests wait on the calling thread, while asynchronous requests sent using
+ * {@link ServiceInvoker#invokeAsync(okhttp3.Request)} are enqueued once admitted, without holding any thread.
+ * <p>
+ * The limits adapt to the service. When the service responds with 429 (Too Many Requests),
+ * both the rate and the concurrency are halved, and no requests are sent until the time specified
+ * by any {@code Retry-After} header has passed. Successful responses then increase the rate and
+ * the concurrency gradually, back up to the specified maximums.
+ * This is known as additive-increase/multiplicative-decrease.
+ * <p>
+ * Instances are immutable and thread-safe.
+ *
+ * @see ServiceInvoker.Builder#rateLimit(String, RateLimit)
+ */
+public final class RateLimit {
+
+  /** The maximum number of requests per second. */
+  private final double permitsPerSecond;
+  /** The maximum number of requests sent in a burst. */
+  private final int burst;
+  /** The maximum number of requests in flight. */
+  private final int maxConcurrency;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance limiting the rate and concurrency of requests.
+   *
+   * @param permitsPerSecond  the maximum number of requests per second
+   * @param burst  the maximum number of requests sent in a burst, at least one
+   * @param maxConcurrency  the maximum number of requests in flight, at least one
+   * @return the limit
+   * @throws IllegalArgumentException if any value is invalid
+   */
+  public static RateLimit of(double permitsPerSecond, int burst, int maxConcurrency) {
+    return new RateLimit(permitsPerSecond, burst, maxConcurrency);
+  }
+
+  /**
+   * Obtains an instance limiting the rate of requests.
+   * <p>
+   * The burst is one second's worth of requests, and the concurrency is not limited.
+   *
+   * @param permitsPerSecond  the maximum number of requests per second
+   * @return the limit
+   * @throws IllegalArgumentException if the rate is invalid
+   */
+  public static RateLimit ofRate(double permitsPerSecond) {
+    return new RateLimit(permitsPerSecond, (int) Math.max(1, Math.ceil(permitsPerSecond)), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Obtains an instance limiting the concurrency of requests.
+   * <p>
+   * The rate is not limited. A 429 response halves the concurrency, down to a single request,
+   * and pauses requests as per {@code Retry-After}.
+   *
+   * @param maxConcurrency  the maximum number of requests in flight, at least one
+   * @return the limit
+   * @throws IllegalArgumentException if the concurrency is invalid
+   */
+  public static RateLimit ofConcurrency(int maxConcurrency) {
+    return new RateLimit(Double.POSITIVE_INFINITY, Integer.MAX_VALUE, maxConcurrency);
+  }
+
+  // creates an instance
+  private RateLimit(double permitsPerSecond, int burst, int maxConcurrency) {
+    if (!(permitsPerSecond > 0)) {
+      throw new IllegalArgumentException("Permits per second must be positive");
+    }
+    if (burst < 1) {
+      throw new IllegalArgumentException("Burst must be at least one");
+    }
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("Maximum concurrency must be at least one");
+    }
+    this.permitsPerSecond = permitsPerSecond;
+    this.burst = burst;
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the maximum number of requests per second, infinite if not limited.
+   *
+   * @return the maximum rate
+   */
+  public double getPermitsPerSecond() {
+    return permitsPerSecond;
+  }
+
+  /**
+   * Gets the maximum number of requests sent in a burst.
+   *
+   * @return the burst size
+   */
+  public int getBurst() {
+    return burst;
+  }
+
+  /**
+   * Gets the maximum number of requests in flight.
+   *
+   * @return the maximum concurrency
+   */
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public String toString() {
+    return "RateLimit[permitsPerSecond=" + permitsPerSecond + ", burst=" + burst +
+        ", maxConcurrency=" + maxConcurrency + "]";
+  }
+
+}
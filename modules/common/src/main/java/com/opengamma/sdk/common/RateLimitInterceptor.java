@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Interceptor that limits the rate and concurrency of requests, as per a set of {@link RateLimit} rules.
+ * <p>
+ * Each rule applies to a path pattern, such as {@code /margin/v1/ccps/{ccp}}.
+ * A segment in braces matches any single path segment, and each distinct match has its own limiter,
+ * thus the example limits each CCP separately. A request uses the rule with the longest matching pattern.
+ * <p>
+ * Requests are admitted in order by completing a future, with any wait for the rate scheduled on the executor.
+ * The interceptor waits on the calling thread until admitted, thus it is only used for synchronous calls.
+ * Asynchronous calls made by {@link ServiceInvoker#invokeAsync(Request)} are admitted by the invoker
+ * before being enqueued, such that no thread waits.
+ * This interceptor follows the retry interceptor, so that each attempt is limited.
+ */
+final class RateLimitInterceptor implements Interceptor {
+
+  /** Log. */
+  private static final Logger log = LoggerFactory.getLogger(RateLimitInterceptor.class);
+  /**
+   * The status code indicating that the service is throttling requests.
+   */
+  private static final int TOO_MANY_REQUESTS = 429;
+
+  /**
+   * The rules, longest pattern first.
+   */
+  private final List<Rule> rules = new ArrayList<>();
+  /**
+   * The limiters, keyed by rule and matched path.
+   */
+  private final ConcurrentMap<String, Limiter> limiters = new ConcurrentHashMap<>();
+  /**
+   * The executor used to wait for the rate.
+   */
+  private final ScheduledExecutorService executor;
+
+  /**
+   * Creates an instance.
+   *
+   * @param limits  the limits, keyed by path pattern
+   * @param executor  the executor used to wait for the rate
+   */
+  RateLimitInterceptor(Map<String, RateLimit> limits, ScheduledExecutorService executor) {
+    limits.forEach((pattern, limit) -> rules.add(new Rule(pattern, limit)));
+    rules.sort((a, b) -> Integer.compare(b.segments.size(), a.segments.size()));
+    this.executor = executor;
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    CompletableFuture<Limiter> admission = acquireAsync(request);
+    Limiter limiter;
+    try {
+      limiter = admission.get();
+    } catch (InterruptedException ex) {
+      // release the permit once it is granted
+      admission.thenAccept(Limiter::release);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for rate limit");
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new IOException(ex.getCause());
+    }
+    Response response;
+    try {
+      response = chain.proceed(request);
+    } catch (IOException | RuntimeException ex) {
+      completed(limiter, request, null);
+      throw ex;
+    }
+    completed(limiter, request, response);
+    return response;
+  }
+
+  /**
+   * Admits a request, without blocking.
+   * <p>
+   * The future completes with the limiter once the request may be sent, or with null if no rule applies.
+   * The limiter must be passed to {@link #completed(Limiter, Request, Response)} once the request completes.
+   *
+   * @param request  the request
+   * @return the future that completes when the request is admitted
+   */
+  CompletableFuture<Limiter> acquireAsync(Request request) {
+    Limiter limiter = findLimiter(request.url().pathSegments());
+    return (limiter != null ? limiter.acquire(executor) : CompletableFuture.completedFuture(null));
+  }
+
+  /**
+   * Records the completion of a request, releasing its permit and adapting the limits.
+   *
+   * @param limiter  the limiter that admitted the request, null if none
+   * @param request  the request
+   * @param response  the response, null if the request failed
+   */
+  void completed(Limiter limiter, Request request, Response response) {
+    if (limiter == null) {
+      return;
+    }
+    limiter.release();
+    if (response == null) {
+      return;
+    }
+    if (response.code() == TOO_MANY_REQUESTS) {
+      limiter.throttled(RetryInterceptor.retryAfter(response));
+      log.debug("Throttled by service, reduced limits for {}", request.url().encodedPath());
+    } else if (response.isSuccessful()) {
+      limiter.succeeded();
+    }
+  }
+
+  // finds the limiter for the path, null if no rule matches
+  private Limiter findLimiter(List<String> pathSegments) {
+    for (int i = 0; i < rules.size(); i++) {
+      Rule rule = rules.get(i);
+      if (rule.matches(pathSegments)) {
+        String key = i + ":" + String.join("/", pathSegments.subList(0, rule.segments.size()));
+        return limiters.computeIfAbsent(key, k -> new Limiter(rule.limit));
+      }
+    }
+    return null;
+  }
+
+  //-------------------------------------------------------------------------
+  // a path pattern and its limit
+  private static final class Rule {
+    private final List<String> segments;
+    private final RateLimit limit;
+
+    private Rule(String pattern, RateLimit limit) {
+      if (!pattern.startsWith("/")) {
+        throw new IllegalArgumentException("Path pattern must start with '/': " + pattern);
+      }
+      String trimmed = pattern.substring(1);
+      this.segments = trimmed.isEmpty() ? new ArrayList<>() : Arrays.asList(trimmed.split("/"));
+      this.limit = limit;
+    }
+
+    // checks if the pattern is a prefix of the path
+    private boolean matches(List<String> pathSegments) {
+      if (pathSegments.size() < segments.size()) {
+        return false;
+      }
+      for (int i = 0; i < segments.size(); i++) {
+        String segment = segments.get(i);
+        boolean wildcard = segment.startsWith("{") && segment.endsWith("}");
+        if (!wildcard && !segment.equals(pathSegments.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * A token bucket with an adaptive rate, combined with an adaptive concurrency limit.
+   * <p>
+   * Both the rate and the concurrency follow additive-increase/multiplicative-decrease.
+   * Requests waiting for a concurrency permit are admitted in order as permits are released.
+   */
+  static final class Limiter {
+    // the fraction of the maximum rate added per second of successful requests
+    private static final double ADDITIVE_INCREASE = 0.05;
+    // the fraction of the maximum rate below which the rate is not reduced
+    private static final double MIN_RATE = 0.01;
+
+    private final double maxRate;
+    private final double burst;
+    private final int maxConcurrency;
+    // the following are guarded by this
+    private double rate;
+    private double tokens;
+    private long lastNanos = System.nanoTime();
+    private long pausedUntilNanos = lastNanos;
+    private double concurrency;
+    private int inFlight;
+    private final Deque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+    private Limiter(RateLimit limit) {
+      this.maxRate = limit.getPermitsPerSecond();
+      this.burst = limit.getBurst();
+      this.maxConcurrency = limit.getMaxConcurrency();
+      this.rate = maxRate;
+      this.tokens = burst;
+      this.concurrency = maxConcurrency;
+    }
+
+    // admits the request once a concurrency permit is granted and a token is available
+    private CompletableFuture<Limiter> acquire(ScheduledExecutorService executor) {
+      CompletableFuture<Void> permit = new CompletableFuture<>();
+      synchronized (this) {
+        if (waiting.isEmpty() && inFlight < concurrencyLimit()) {
+          inFlight++;
+          permit.complete(null);
+        } else {
+          waiting.add(permit);
+        }
+      }
+      return permit.thenCompose(granted -> delay(executor, reserve(System.nanoTime())));
+    }
+
+    // completes once the delay has passed, releasing the permit if the delay cannot be scheduled
+    private CompletableFuture<Limiter> delay(ScheduledExecutorService executor, long delayNanos) {
+      if (delayNanos <= 0) {
+        return CompletableFuture.completedFuture(this);
+      }
+      CompletableFuture<Limiter> future = new CompletableFuture<>();
+      try {
+        executor.schedule(() -> future.complete(this), delayNanos, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException ex) {
+        release();
+        future.completeExceptionally(new IllegalStateException("ServiceInvoker has been closed", ex));
+      }
+      return future;
+    }
+
+    // releases the concurrency permit, granting permits to waiting requests while the limit allows
+    private void release() {
+      List<CompletableFuture<Void>> granted = new ArrayList<>();
+      synchronized (this) {
+        inFlight--;
+        grant(granted);
+      }
+      granted.forEach(permit -> permit.complete(null));
+    }
+
+    // grants permits to waiting requests, which are completed by the caller outside the lock
+    private void grant(List<CompletableFuture<Void>> granted) {
+      while (!waiting.isEmpty() && inFlight < concurrencyLimit()) {
+        inFlight++;
+        granted.add(waiting.poll());
+      }
+    }
+
+    // the current number of requests allowed in flight
+    private int concurrencyLimit() {
+      return (int) Math.max(1, concurrency);
+    }
+
+    // reserves a token, returning the time to wait before it is available
+    private synchronized long reserve(long nowNanos) {
+      long waitNanos = Math.max(pausedUntilNanos - nowNanos, 0);
+      if (Double.isInfinite(rate)) {
+        return waitNanos;
+      }
+      tokens = Math.min(burst, tokens + (nowNanos - lastNanos) * rate / 1e9);
+      lastNanos = nowNanos;
+      tokens -= 1;
+      if (tokens < 0) {
+        waitNanos = Math.max(waitNanos, (long) (-tokens / rate * 1e9));
+      }
+      return waitNanos;
+    }
+
+    // halves the rate and concurrency, and pauses as requested by the service
+    private synchronized void throttled(Duration retryAfter) {
+      long nowNanos = System.nanoTime();
+      if (!Double.isInfinite(rate)) {
+        rate = Math.max(maxRate * MIN_RATE, rate / 2);
+        tokens = Math.min(tokens, 0);
+      }
+      if (maxConcurrency != Integer.MAX_VALUE) {
+        concurrency = Math.max(1, Math.min(concurrency, inFlight + 1) / 2);
+      }
+      if (retryAfter != null) {
+        long untilNanos = nowNanos + retryAfter.toNanos();
+        if (untilNanos - pausedUntilNanos > 0) {
+          pausedUntilNanos = untilNanos;
+        }
+      }
+    }
+
+    // increases the rate, such that a second of successful requests adds a fraction of the maximum rate
+    // increases the concurrency by one for each window of successful requests
+    private void succeeded() {
+      List<CompletableFuture<Void>> granted = new ArrayList<>();
+      synchronized (this) {
+        if (rate < maxRate) {
+          rate = Math.min(maxRate, rate + maxRate * ADDITIVE_INCREASE / rate);
+        }
+        if (concurrency < maxConcurrency) {
+          concurrency = Math.min(maxConcurrency, concurrency + 1 / concurrency);
+          grant(granted);
+        }
+      }
+      granted.forEach(permit -> permit.complete(null));
+    }
+  }
+
+}
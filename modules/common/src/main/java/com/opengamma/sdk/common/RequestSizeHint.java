@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+/**
+ * Estimate of the size of a request body whose exact length is unknown.
+ * <p>
+ * A request body that is streamed, such as one escaping a file as it is written, cannot report its
+ * content length without writing it. Implementing this interface on such a body provides an
+ * estimate that is known up front, such as the size of the file, which is used to decide
+ * whether to compress the body, see {@link ServiceInvoker.Builder#requestCompression(long)}.
+ */
+public interface RequestSizeHint {
+
+  /**
+   * Gets the estimated size of the request body in bytes.
+   *
+   * @return the estimated size, at least zero
+   */
+  public abstract long sizeHint();
+
+}
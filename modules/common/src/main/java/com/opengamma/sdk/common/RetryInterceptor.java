@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Interceptor that retries requests after a transient failure, as per a {@link RetryPolicy}.
+ * <p>
+ * The interceptor waits on the calling thread between attempts, thus it is only used for
+ * synchronous calls. Asynchronous calls made by {@link ServiceInvoker#invokeAsync(Request)} are
+ * retried by the invoker, which schedules each attempt rather than waiting.
+ * Each attempt passes through the interceptors that follow this one, such as authentication.
+ * <p>
+ * A call that has been cancelled is not retried. This interceptor must be the first in the chain,
+ * such that the request it is passed is the request of the call.
+ */
+final class RetryInterceptor implements Interceptor {
+
+  /** Log. */
+  private static final Logger log = LoggerFactory.getLogger(RetryInterceptor.class);
+  /**
+   * HTTP header.
+   */
+  private static final String RETRY_AFTER = "Retry-After";
+  /**
+   * The HTTP methods that are safe to repeat.
+   */
+  private static final Set<String> IDEMPOTENT_METHODS =
+      new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS", "PUT", "DELETE"));
+
+  /**
+   * The policy.
+   */
+  private final RetryPolicy policy;
+  /**
+   * The dispatcher of the HTTP client, used to find the call that sent a request.
+   */
+  private final Dispatcher dispatcher;
+
+  /**
+   * Creates an instance.
+   *
+   * @param policy  the retry policy
+   * @param dispatcher  the dispatcher of the HTTP client
+   */
+  RetryInterceptor(RetryPolicy policy, Dispatcher dispatcher) {
+    this.policy = policy;
+    this.dispatcher = dispatcher;
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    if (!isRetryable(request)) {
+      return chain.proceed(request);
+    }
+    int attempt = 0;
+    while (true) {
+      attempt++;
+      Response response;
+      try {
+        response = chain.proceed(request);
+      } catch (IOException ex) {
+        // a cancelled call must not be retried
+        Duration delay = delayAfter(request, ex, attempt);
+        if (delay == null || isCanceled(request)) {
+          throw ex;
+        }
+        sleep(delay);
+        continue;
+      }
+      Duration delay = delayAfter(response, attempt);
+      if (delay == null || isCanceled(request)) {
+        return response;
+      }
+      response.close();
+      sleep(delay);
+    }
+  }
+
+  // checks if the call that sent the request has been cancelled
+  // the request passed to the first interceptor is the same instance as the request of the call
+  private boolean isCanceled(Request request) {
+    for (Call call : dispatcher.runningCalls()) {
+      if (call.request() == request) {
+        return call.isCanceled();
+      }
+    }
+    return false;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Checks if the request is safe to repeat, and the policy allows more than one attempt.
+   * <p>
+   * A request with a non-idempotent method is only safe to repeat if it has an idempotency key
+   * and the policy is configured to retry such requests.
+   *
+   * @param request  the request
+   * @return true if the request may be retried
+   */
+  boolean isRetryable(Request request) {
+    return policy.getMaxAttempts() > 1 &&
+        (IDEMPOTENT_METHODS.contains(request.method()) ||
+            (policy.isRetryIdempotencyKeyed() && request.header(RetryPolicy.IDEMPOTENCY_KEY_HEADER) != null));
+  }
+
+  /**
+   * Gets the delay before the next attempt, after an attempt failed.
+   *
+   * @param request  the request
+   * @param ex  the failure
+   * @param attempt  the number of the attempt that failed, from one
+   * @return the delay, null if not to be retried
+   */
+  Duration delayAfter(Request request, IOException ex, int attempt) {
+    if (attempt >= policy.getMaxAttempts()) {
+      return null;
+    }
+    log.debug("Retrying {} {} after failure: {}", request.method(), request.url(), ex.toString());
+    return policy.delay(attempt);
+  }
+
+  /**
+   * Gets the delay before the next attempt, after an attempt received a response.
+   * <p>
+   * The response is not closed.
+   *
+   * @param response  the response
+   * @param attempt  the number of the attempt, from one
+   * @return the delay, null if the response is to be returned
+   */
+  Duration delayAfter(Response response, int attempt) {
+    if (attempt >= policy.getMaxAttempts() || !policy.isRetryable(response.code())) {
+      return null;
+    }
+    Duration delay = retryAfter(response);
+    if (delay == null) {
+      delay = policy.delay(attempt);
+    } else if (delay.compareTo(policy.getMaxDelay()) > 0) {
+      // the service asked to wait longer than allowed
+      return null;
+    }
+    Request request = response.request();
+    log.debug("Retrying {} {} after status {}", request.method(), request.url(), response.code());
+    return delay;
+  }
+
+  /**
+   * Parses the {@code Retry-After} header, which is either a number of seconds or a date.
+   *
+   * @param response  the response
+   * @return the delay, null if the header is absent or invalid
+   */
+  static Duration retryAfter(Response response) {
+    String header = response.header(RETRY_AFTER);
+    if (header == null) {
+      return null;
+    }
+    try {
+      return Duration.ofSeconds(Math.max(Long.parseLong(header.trim()), 0));
+    } catch (NumberFormatException ex) {
+      // try as a date
+    }
+    try {
+      Instant retryAt = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+      Duration delay = Duration.between(Instant.now(), retryAt);
+      return delay.isNegative() ? Duration.ZERO : delay;
+    } catch (DateTimeParseException ex) {
+      return null;
+    }
+  }
+
+  // waits before the next attempt
+  private static void sleep(Duration delay) throws IOException {
+    try {
+      TimeUnit.NANOSECONDS.sleep(delay.toNanos());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to retry");
+    }
+  }
+
+}
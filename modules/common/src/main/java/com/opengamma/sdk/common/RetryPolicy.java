@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Policy controlling how requests to the service are retried after a transient failure.
+ * <p>
+ * A request is retried if it fails with an I/O error, such as a connection reset,
+ * or if the service responds with a retryable status code, such as 503.
+ * Only requests that are safe to repeat are retried, which are those using an idempotent
+ * HTTP method, such as GET or DELETE. Requests using other methods, such as POST, are only
+ * retried if they have an {@code Idempotency-Key} header and the policy is
+ * {@linkplain Builder#retryIdempotencyKeyed(boolean) configured} to retry them, which is only
+ * safe if the service uses the key to avoid processing a request twice.
+ * <p>
+ * The delay before each retry grows exponentially, with random jitter to avoid many
+ * clients retrying at the same time. If the service specifies a {@code Retry-After} header,
+ * that delay is used instead, unless it exceeds the maximum delay, in which case the
+ * failure is returned without retrying.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public final class RetryPolicy {
+
+  /**
+   * The HTTP header used to mark a non-idempotent request as safe to retry.
+   * <p>
+   * The value is a unique key, typically a random UUID, that the service uses
+   * to recognize repeated attempts of the same request.
+   */
+  public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+  /**
+   * The standard policy.
+   */
+  private static final RetryPolicy STANDARD = builder().build();
+  /**
+   * The policy that never retries.
+   */
+  private static final RetryPolicy NONE = builder().maxAttempts(1).build();
+
+  /** The maximum number of attempts, including the first. */
+  private final int maxAttempts;
+  /** The delay before the first retry. */
+  private final Duration initialDelay;
+  /** The maximum delay before a retry. */
+  private final Duration maxDelay;
+  /** The factor applied to the delay after each retry. */
+  private final double multiplier;
+  /** The fraction of the delay that is randomized. */
+  private final double jitter;
+  /** The status codes that are retried. */
+  private final Set<Integer> retryableStatusCodes;
+  /** Whether non-idempotent requests with an idempotency key are retried. */
+  private final boolean retryIdempotencyKeyed;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains the standard policy.
+   * <p>
+   * This makes up to 3 attempts, with a delay starting at 200 milliseconds, doubling on each retry,
+   * up to a maximum of 10 seconds, with 50% jitter. The retryable status codes are
+   * 408, 429, 502, 503 and 504. Non-idempotent requests, such as POST, are not retried.
+   *
+   * @return the standard policy
+   */
+  public static RetryPolicy standard() {
+    return STANDARD;
+  }
+
+  /**
+   * Obtains a policy that never retries.
+   *
+   * @return the policy
+   */
+  public static RetryPolicy none() {
+    return NONE;
+  }
+
+  /**
+   * Returns a builder, initialized with the settings of the standard policy.
+   *
+   * @return the builder
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  // creates an instance
+  private RetryPolicy(Builder builder) {
+    this.maxAttempts = builder.maxAttempts;
+    this.initialDelay = builder.initialDelay;
+    this.maxDelay = builder.maxDelay;
+    this.multiplier = builder.multiplier;
+    this.jitter = builder.jitter;
+    this.retryableStatusCodes = Collections.unmodifiableSet(new HashSet<>(builder.retryableStatusCodes));
+    this.retryIdempotencyKeyed = builder.retryIdempotencyKeyed;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the maximum number of attempts, including the first.
+   *
+   * @return the maximum number of attempts
+   */
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Gets the maximum delay before a retry.
+   *
+   * @return the maximum delay
+   */
+  public Duration getMaxDelay() {
+    return maxDelay;
+  }
+
+  /**
+   * Checks if the status code is retryable.
+   *
+   * @param statusCode  the HTTP status code
+   * @return true if the status code is retryable
+   */
+  public boolean isRetryable(int statusCode) {
+    return retryableStatusCodes.contains(statusCode);
+  }
+
+  /**
+   * Checks if non-idempotent requests with an {@code Idempotency-Key} header are retried.
+   *
+   * @return true if requests with an idempotency key are retried
+   */
+  public boolean isRetryIdempotencyKeyed() {
+    return retryIdempotencyKeyed;
+  }
+
+  /**
+   * Calculates the delay before a retry.
+   * <p>
+   * The delay is the initial delay multiplied by the multiplier once for each earlier retry,
+   * limited to the maximum delay, and then reduced by a random amount up to the jitter fraction.
+   *
+   * @param retry  the retry number, one for the first retry
+   * @return the delay
+   */
+  public Duration delay(int retry) {
+    double delayNanos = initialDelay.toNanos() * Math.pow(multiplier, retry - 1);
+    delayNanos = Math.min(delayNanos, maxDelay.toNanos());
+    delayNanos *= 1 - jitter * ThreadLocalRandom.current().nextDouble();
+    return Duration.ofNanos((long) delayNanos);
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public String toString() {
+    return "RetryPolicy[maxAttempts=" + maxAttempts + ", initialDelay=" + initialDelay +
+        ", maxDelay=" + maxDelay + ", multiplier=" + multiplier + ", jitter=" + jitter +
+        ", retryableStatusCodes=" + retryableStatusCodes + ", retryIdempotencyKeyed=" + retryIdempotencyKeyed + "]";
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Builder for {@code RetryPolicy}.
+   * <p>
+   * The builder is initialized with the settings of the standard policy.
+   */
+  public static final class Builder {
+
+    /** The maximum number of attempts, including the first. */
+    private int maxAttempts = 3;
+    /** The delay before the first retry. */
+    private Duration initialDelay = Duration.ofMillis(200);
+    /** The maximum delay before a retry. */
+    private Duration maxDelay = Duration.ofSeconds(10);
+    /** The factor applied to the delay after each retry. */
+    private double multiplier = 2;
+    /** The fraction of the delay that is randomized. */
+    private double jitter = 0.5;
+    /** The status codes that are retried. */
+    private Set<Integer> retryableStatusCodes = new HashSet<>(Arrays.asList(408, 429, 502, 503, 504));
+    /** Whether non-idempotent requests with an idempotency key are retried. */
+    private boolean retryIdempotencyKeyed;
+
+    // creates an instance
+    private Builder() {
+    }
+
+    /**
+     * Sets the maximum number of attempts, including the first.
+     *
+     * @param maxAttempts  the maximum number of attempts, one to disable retries
+     * @return this builder
+     * @throws IllegalArgumentException if the number of attempts is less than one
+     */
+    public Builder maxAttempts(int maxAttempts) {
+      if (maxAttempts < 1) {
+        throw new IllegalArgumentException("Maximum attempts must be at least one");
+      }
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    /**
+     * Sets the delay before the first retry, and the factor applied to the delay after each retry.
+     *
+     * @param initialDelay  the delay before the first retry
+     * @param multiplier  the factor applied to the delay after each retry, at least one
+     * @return this builder
+     * @throws IllegalArgumentException if the delay is negative or the multiplier is less than one
+     */
+    public Builder backoff(Duration initialDelay, double multiplier) {
+      Objects.requireNonNull(initialDelay, "initialDelay must not be null");
+      if (initialDelay.isNegative()) {
+        throw new IllegalArgumentException("Initial delay must not be negative");
+      }
+      if (!(multiplier >= 1)) {
+        throw new IllegalArgumentException("Multiplier must be at least one");
+      }
+      this.initialDelay = initialDelay;
+      this.multiplier = multiplier;
+      return this;
+    }
+
+    /**
+     * Sets the maximum delay before a retry.
+     * <p>
+     * This also limits the delay requested by the service using {@code Retry-After}.
+     *
+     * @param maxDelay  the maximum delay
+     * @return this builder
+     * @throws IllegalArgumentException if the delay is negative
+     */
+    public Builder maxDelay(Duration maxDelay) {
+      Objects.requireNonNull(maxDelay, "maxDelay must not be null");
+      if (maxDelay.isNegative()) {
+        throw new IllegalArgumentException("Maximum delay must not be negative");
+      }
+      this.maxDelay = maxDelay;
+      return this;
+    }
+
+    /**
+     * Sets the fraction of the delay that is randomized.
+     * <p>
+     * A jitter of 0.5 means that each delay is between 50% and 100% of the calculated delay.
+     *
+     * @param jitter  the jitter, from zero to one inclusive
+     * @return this builder
+     * @throws IllegalArgumentException if the jitter is outside the valid range
+     */
+    public Builder jitter(double jitter) {
+      if (!(jitter >= 0 && jitter <= 1)) {
+        throw new IllegalArgumentException("Jitter must be between zero and one");
+      }
+      this.jitter = jitter;
+      return this;
+    }
+
+    /**
+     * Sets the HTTP status codes that are retried.
+     *
+     * @param statusCodes  the status codes
+     * @return this builder
+     */
+    public Builder retryableStatusCodes(Integer... statusCodes) {
+      this.retryableStatusCodes = new HashSet<>(Arrays.asList(statusCodes));
+      return this;
+    }
+
+    /**
+     * Sets whether non-idempotent requests with an {@code Idempotency-Key} header are retried.
+     * <p>
+     * By default, requests using a non-idempotent method, such as POST, are never retried,
+     * as a retry after a lost response could cause the request to be processed twice.
+     * Only enable this if the service is known to use the key to recognize repeated attempts.
+     *
+     * @param retryIdempotencyKeyed  true to retry requests with an idempotency key
+     * @return this builder
+     */
+    public Builder retryIdempotencyKeyed(boolean retryIdempotencyKeyed) {
+      this.retryIdempotencyKeyed = retryIdempotencyKeyed;
+      return this;
+    }
+
+    /**
+     * Builds the policy.
+     *
+     * @return the policy
+     */
+    public RetryPolicy build() {
+      return new RetryPolicy(this);
+    }
+  }
+
+}
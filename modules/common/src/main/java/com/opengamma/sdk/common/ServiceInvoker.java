@@ -6,14 +6,19 @@
 package com.opengamma.sdk.common;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Properties;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,13 +26,21 @@ import org.slf4j.LoggerFactory;
 import com.opengamma.sdk.common.auth.AccessTokenResult;
 import com.opengamma.sdk.common.auth.AuthClient;
 import com.opengamma.sdk.common.auth.Credentials;
+import com.opengamma.sdk.common.auth.TokenStore;
 
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.GzipSink;
+import okio.Okio;
 
 /**
  * Invoker used to call the OpenGamma service.
@@ -38,8 +51,22 @@ import okhttp3.Response;
  * which take an instance of this class when they are created.
  * <p>
  * The invoker is responsible for authentication, which happens using the specified {@link Credentials}.
+ * The access token is refreshed in the background shortly before it expires, and before sending
+ * a request if the token has expired, thus requests are not rejected due to an expired token.
+ * Requests that fail due to a transient error are retried as per a {@link RetryPolicy},
+ * and requests may be limited in rate and concurrency as per a {@link RateLimit}.
+ * By default, authentication happens when the invoker is created. Alternatively, authentication
+ * can be deferred until first use or started in the background, in which case requests issued
+ * before authentication completes wait for it to complete before being sent.
+ * Synchronous requests wait on the calling thread, while asynchronous requests sent using
+ * {@link #invokeAsync(Request)} wait for nothing, with retries scheduled on the executor.
  * The invoker also produces log files, if desired.
  * <p>
+ * Simple instances can be obtained using the {@code of} factory methods.
+ * Use {@link #builder(Credentials)} for additional control, such as compression of request bodies,
+ * tuning of the connection pool for high-throughput use, or sharing a {@link ServiceTransport}
+ * between invokers with different credentials.
+ * <p>
  * This class implements {@link AutoCloseable} and should be closed when no longer needed,
  * such as via the try-with-resources statement.
  */
@@ -89,17 +116,45 @@ public final class ServiceInvoker implements AutoCloseable {
    * HTTP header.
    */
   private static final String AUTHORIZATION = "Authorization";
+  /**
+   * HTTP header.
+   */
+  private static final String CONTENT_ENCODING = "Content-Encoding";
+  /**
+   * The maximum time before expiry that the access token is refreshed in the background.
+   */
+  private static final Duration TOKEN_REFRESH_MARGIN = Duration.ofSeconds(60);
+  /**
+   * The time before expiry that the access token is considered expired when sending a request.
+   */
+  private static final Duration TOKEN_EXPIRY_MARGIN = Duration.ofSeconds(5);
 
   /** URL to call. */
   private final HttpUrl serviceUrl;
   /** HTTP client. */
   private final OkHttpClient httpClient;
-  /** Executor. */
+  /** HTTP client for asynchronous calls, without the retry and rate limit interceptors. */
+  private final OkHttpClient asyncHttpClient;
+  /** The retry interceptor, also used to decide when to retry asynchronous calls. */
+  private final RetryInterceptor retryInterceptor;
+  /** The rate limit interceptor, also used to admit asynchronous calls, null if not limited. */
+  private final RateLimitInterceptor rateLimitInterceptor;
+  /** Executor, specific to this invoker. */
   private final ScheduledExecutorService executor;
+  /** Transport owned by this invoker, null if shared. */
+  private final ServiceTransport ownedTransport;
   /** Auth client. */
   private final AuthClient authClient;
-  /** Current token. */
-  private volatile AccessTokenResult token;
+  /** Token store, null if tokens are not stored. */
+  private final TokenStore tokenStore;
+  /** Key of the token in the store. */
+  private final String tokenStoreKey;
+  /** Credentials. */
+  private final Credentials credentials;
+  /** Current token state, replaced atomically, null until authenticated. */
+  private final AtomicReference<TokenState> tokenState = new AtomicReference<>();
+  /** The authentication in progress or completed, null if not started. */
+  private final AtomicReference<CompletableFuture<TokenState>> authentication = new AtomicReference<>();
 
   //-------------------------------------------------------------------------
   /**
@@ -109,7 +164,7 @@ public final class ServiceInvoker implements AutoCloseable {
    * @return the invoker
    */
   public static ServiceInvoker of(Credentials credentials) {
-    return new ServiceInvoker(credentials, SERVICE_URL, createExecutor(), null);
+    return builder(credentials).build();
   }
 
   /**
@@ -120,7 +175,7 @@ public final class ServiceInvoker implements AutoCloseable {
    * @return the invoker
    */
   public static ServiceInvoker of(Credentials credentials, HttpUrl serviceUrl) {
-    return new ServiceInvoker(credentials, serviceUrl, createExecutor(), null);
+    return builder(credentials).serviceUrl(serviceUrl).build();
   }
 
   /**
@@ -134,42 +189,304 @@ public final class ServiceInvoker implements AutoCloseable {
    * @return the invoker
    */
   public static ServiceInvoker of(Credentials credentials, HttpUrl serviceUrl, AuthClient authClient) {
-    return new ServiceInvoker(credentials, serviceUrl, createExecutor(), authClient);
-  }
-
-  // creates a simple executor for polling
-  private static ScheduledExecutorService createExecutor() {
-    ThreadFactory threadFactory = r -> {
-      Thread t = Executors.defaultThreadFactory().newThread(r);
-      t.setName("ServiceInvoker-" + t.getName());
-      t.setDaemon(true);
-      return t;
-    };
-    ScheduledExecutorService executor = Executors.newScheduledThreadPool(1, threadFactory);
-    return executor;
+    return builder(credentials).serviceUrl(serviceUrl).authClient(authClient).build();
+  }
+
+  /**
+   * Returns a builder for an instance using the specified credentials.
+   *
+   * @param credentials  the credentials to use for authentication
+   * @return the builder
+   */
+  public static Builder builder(Credentials credentials) {
+    return new Builder(credentials);
   }
 
   // creates an instance
-  private ServiceInvoker(
-      Credentials credentials,
-      HttpUrl serviceUrl,
-      ScheduledExecutorService executor,
-      AuthClient authClient) {
-
-    Objects.requireNonNull(credentials, "credentials must not be null");
-    Objects.requireNonNull(serviceUrl, "serviceUrl must not be null");
-    Objects.requireNonNull(executor, "executor must not be null");
-    this.serviceUrl = serviceUrl;
-    this.httpClient = new OkHttpClient.Builder()
+  private ServiceInvoker(Builder builder) {
+    Objects.requireNonNull(builder.credentials, "credentials must not be null");
+    Objects.requireNonNull(builder.serviceUrl, "serviceUrl must not be null");
+    if (builder.transport != null && builder.transportBuilder != null) {
+      throw new IllegalStateException("Connection settings must not be used with a shared transport");
+    }
+    this.serviceUrl = builder.serviceUrl;
+    this.ownedTransport = (builder.transport == null ?
+        (builder.transportBuilder != null ? builder.transportBuilder.build() : ServiceTransport.of()) :
+        null);
+    ServiceTransport transport = (builder.transport != null ? builder.transport : ownedTransport);
+    this.executor = new InvokerExecutor(transport.getExecutor());
+    OkHttpClient.Builder httpClientBuilder = transport.getHttpClient().newBuilder()
         .addInterceptor(new LoggingInterceptor())
         .addInterceptor(new TokenInterceptor())
-        .addInterceptor(new UserAgentHeaderInterceptor())
-        .readTimeout(30, TimeUnit.SECONDS)
-        .writeTimeout(10, TimeUnit.SECONDS)
-        .build();
-    this.executor = executor;
-    this.authClient = (authClient != null ? authClient : AuthClient.of(this));
-    this.token = credentials.authenticate(this.authClient);
+        .addInterceptor(new UserAgentHeaderInterceptor());
+    if (builder.compressionThreshold >= 0) {
+      httpClientBuilder.addInterceptor(new GzipRequestInterceptor(builder.compressionThreshold));
+    }
+    // asynchronous calls are retried and rate limited by the invoker, synchronous calls by the first interceptors
+    this.asyncHttpClient = httpClientBuilder.build();
+    this.retryInterceptor = new RetryInterceptor(builder.retryPolicy, asyncHttpClient.dispatcher());
+    this.rateLimitInterceptor = (builder.rateLimits.isEmpty() ? null : new RateLimitInterceptor(builder.rateLimits, executor));
+    if (rateLimitInterceptor != null) {
+      httpClientBuilder.interceptors().add(0, rateLimitInterceptor);
+    }
+    httpClientBuilder.interceptors().add(0, retryInterceptor);
+    this.httpClient = httpClientBuilder.build();
+    this.authClient = (builder.authClient != null ? builder.authClient : AuthClient.of(this));
+    this.tokenStore = builder.tokenStore;
+    this.tokenStoreKey = ByteString.encodeUtf8(serviceUrl + "\n" + builder.credentials.getAccountId()).sha256().hex();
+    this.credentials = builder.credentials;
+    if (builder.authenticationMode == AuthenticationMode.EAGER) {
+      try {
+        await(startAuthentication(false));
+      } catch (RuntimeException ex) {
+        close();
+        throw ex;
+      }
+    } else if (builder.authenticationMode == AuthenticationMode.ASYNC) {
+      startAuthentication(true);
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Authenticates asynchronously, if not already authenticated.
+   * <p>
+   * If authentication has not been started, it is started in the background.
+   * If authentication is in progress, or has already completed, the same result is returned.
+   * If authentication previously failed, it is attempted again.
+   * <p>
+   * Requests issued before authentication completes wait for it to complete before being sent.
+   * Calling this method is optional, but allows an application to find out whether
+   * authentication has succeeded before issuing any requests.
+   *
+   * @return the future that completes when authentication completes
+   */
+  public CompletableFuture<Void> authenticateAsync() {
+    return startAuthentication(true).thenApply(state -> null);
+  }
+
+  /**
+   * Returns a future that completes when a request can be sent without waiting for the access token.
+   * <p>
+   * If not yet authenticated, authentication is started in the background.
+   * If the current token has expired, it is refreshed in the background.
+   * Otherwise, the future is already complete.
+   * <p>
+   * Requests that are enqueued directly on the {@linkplain #getHttpClient() HTTP client} should be
+   * enqueued once this future completes, as {@link #invokeAsync(Request)} does. The thread that sends
+   * a request otherwise waits for authentication, which for an enqueued request is a thread of the
+   * HTTP client that other requests could have used.
+   *
+   * @return the future that completes when the access token is available
+   */
+  public CompletableFuture<Void> readyAsync() {
+    TokenState state = tokenState.get();
+    if (state == null) {
+      return startAuthentication(true).thenApply(authenticated -> null);
+    }
+    if (!state.isExpired(System.nanoTime() + TOKEN_EXPIRY_MARGIN.toNanos())) {
+      return CompletableFuture.completedFuture(null);
+    }
+    if (state.refresh != null) {
+      return state.refresh.thenApply(refreshed -> null);
+    }
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        try {
+          refreshToken(state);
+          future.complete(null);
+        } catch (RuntimeException ex) {
+          future.completeExceptionally(ex);
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      future.completeExceptionally(new IllegalStateException("ServiceInvoker has been closed", ex));
+    }
+    return future;
+  }
+
+  /**
+   * Invokes the service asynchronously.
+   * <p>
+   * The request is enqueued once the access token is available, see {@link #readyAsync()},
+   * and once admitted by any {@linkplain Builder#rateLimit(String, RateLimit) rate limit}.
+   * Failed attempts are retried as per the retry policy, with each retry scheduled on the
+   * {@linkplain #getExecutor() executor}, thus no thread waits between attempts.
+   * Cancelling the returned future cancels the call, and no further attempt is made.
+   * <p>
+   * The future completes with the response, which the caller must close,
+   * or exceptionally with the {@code IOException} of the last attempt.
+   *
+   * @param request  the request
+   * @return the future response
+   */
+  public CompletableFuture<Response> invokeAsync(Request request) {
+    CompletableFuture<Response> future = new CompletableFuture<>();
+    AsyncAttempts attempts = new AsyncAttempts(request, future);
+    future.whenComplete((response, ex) -> {
+      if (future.isCancelled()) {
+        attempts.cancel();
+      }
+    });
+    attempts.send();
+    return future;
+  }
+
+  // gets the current token, authenticating and waiting if necessary
+  // this blocks the calling thread, thus enqueued requests should wait for readyAsync() first
+  private TokenState authenticated() {
+    TokenState state = tokenState.get();
+    return (state != null ? state : await(startAuthentication(false)));
+  }
+
+  // starts authentication, unless already started and not failed
+  // the caller that wins the compare-and-set authenticates, either directly or in the background
+  private CompletableFuture<TokenState> startAuthentication(boolean async) {
+    while (true) {
+      CompletableFuture<TokenState> current = authentication.get();
+      if (current != null && !current.isCompletedExceptionally()) {
+        return current;
+      }
+      CompletableFuture<TokenState> future = new CompletableFuture<>();
+      if (authentication.compareAndSet(current, future)) {
+        if (async) {
+          try {
+            executor.execute(() -> completeAuthentication(future));
+          } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(new IllegalStateException("ServiceInvoker has been closed", ex));
+          }
+        } else {
+          completeAuthentication(future);
+        }
+        return future;
+      }
+    }
+  }
+
+  // authenticates, completing the future
+  private void completeAuthentication(CompletableFuture<TokenState> future) {
+    try {
+      future.complete(setToken(authenticate(), 0));
+    } catch (RuntimeException ex) {
+      log.warn("Authentication failed: {}", ex.getMessage());
+      future.completeExceptionally(ex);
+    }
+  }
+
+  // authenticates, using a stored token if possible
+  private AccessTokenResult authenticate() {
+    if (tokenStore == null) {
+      return credentials.authenticate(authClient);
+    }
+    Optional<AccessTokenResult> stored = loadToken();
+    if (stored.isPresent()) {
+      // use the stored token, unless it is due to be refreshed
+      AccessTokenResult storedToken = stored.get();
+      if (storedToken.getExpiresIn() == 0 || storedToken.getExpiresIn() > TOKEN_REFRESH_MARGIN.getSeconds()) {
+        log.debug("Using stored access token");
+        return storedToken;
+      }
+      if (storedToken.getRefreshToken() != null) {
+        try {
+          AccessTokenResult refreshed = authClient.refreshToken(storedToken.getRefreshToken());
+          saveToken(refreshed);
+          return refreshed;
+        } catch (RuntimeException ex) {
+          log.debug("Unable to refresh stored access token: {}", ex.getMessage());
+        }
+      }
+    }
+    AccessTokenResult token = credentials.authenticate(authClient);
+    saveToken(token);
+    return token;
+  }
+
+  // loads the token from the store, a failure is treated as not found
+  private Optional<AccessTokenResult> loadToken() {
+    try {
+      return tokenStore.load(tokenStoreKey);
+    } catch (RuntimeException ex) {
+      log.warn("Unable to load access token from store: {}", ex.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  // saves the token to the store, if there is one
+  private void saveToken(AccessTokenResult token) {
+    if (tokenStore != null) {
+      try {
+        tokenStore.save(tokenStoreKey, token);
+      } catch (RuntimeException ex) {
+        log.warn("Unable to save access token to store: {}", ex.getMessage());
+      }
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // publishes a new token, scheduling a refresh shortly before it expires
+  private TokenState setToken(AccessTokenResult newToken, long version) {
+    TokenState state = TokenState.of(newToken, version);
+    tokenState.set(state);
+    long lifetimeNanos = TimeUnit.SECONDS.toNanos(newToken.getExpiresIn());
+    if (lifetimeNanos > 0) {
+      long delayNanos = lifetimeNanos - Math.min(TOKEN_REFRESH_MARGIN.toNanos(), lifetimeNanos / 2);
+      try {
+        executor.schedule(() -> refreshInBackground(state), delayNanos, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException ex) {
+        // closed, so no need to refresh
+      }
+    }
+    return state;
+  }
+
+  // refreshes the token in the background, a failure will be retried when the token is next used
+  private void refreshInBackground(TokenState staleState) {
+    try {
+      refreshToken(staleState);
+    } catch (RuntimeException ex) {
+      log.warn("Background refresh of access token failed: {}", ex.getMessage());
+    }
+  }
+
+  // refreshes the token, unless a newer version has already been published
+  // the caller that wins the compare-and-set performs the refresh, concurrent callers wait for the result
+  // no lock is held, and the current token remains available to other callers throughout
+  private TokenState refreshToken(TokenState staleState) {
+    while (true) {
+      TokenState current = tokenState.get();
+      if (current.version != staleState.version) {
+        return current;
+      }
+      if (current.refresh != null) {
+        return await(current.refresh);
+      }
+      CompletableFuture<TokenState> future = new CompletableFuture<>();
+      TokenState refreshing = current.withRefresh(future);
+      if (tokenState.compareAndSet(current, refreshing)) {
+        try {
+          String refreshToken = current.token.getRefreshToken();
+          log.debug("Refresh token: {}", refreshToken);
+          AccessTokenResult refreshed = authClient.refreshToken(refreshToken);
+          saveToken(refreshed);
+          future.complete(setToken(refreshed, current.version + 1));
+        } catch (RuntimeException ex) {
+          // restore the state so that a later caller can try again
+          tokenState.compareAndSet(refreshing, current);
+          future.completeExceptionally(ex);
+        }
+        return await(future);
+      }
+    }
+  }
+
+  // waits for authentication or a refresh to complete
+  private static TokenState await(CompletableFuture<TokenState> future) {
+    try {
+      return future.join();
+    } catch (CompletionException ex) {
+      throw (ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex);
+    }
   }
 
   // an interceptor that performs basic logging
@@ -196,49 +513,92 @@ public final class ServiceInvoker implements AutoCloseable {
     }
   }
 
+  // checks if the request is to the auth service
+  private static boolean isAuthRequest(Request request) {
+    return request.url().pathSegments().contains("auth");
+  }
+
+  // an interceptor that compresses request bodies using gzip
+  // the compressed body is streamed, thus its length is unknown and it is sent using chunked encoding
+  // OkHttp transparently decompresses gzip responses, so nothing is needed for responses
+  private static class GzipRequestInterceptor implements Interceptor {
+    private final long threshold;
+
+    private GzipRequestInterceptor(long threshold) {
+      this.threshold = threshold;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+      Request request = chain.request();
+      RequestBody body = request.body();
+      if (body == null || request.header(CONTENT_ENCODING) != null || isAuthRequest(request)) {
+        return chain.proceed(request);
+      }
+      // bodies of unknown length are streamed, so use the size hint if available
+      long length = body.contentLength();
+      if (length < 0 && body instanceof RequestSizeHint) {
+        length = ((RequestSizeHint) body).sizeHint();
+      }
+      if (length >= 0 && length < threshold) {
+        return chain.proceed(request);
+      }
+      Request compressedRequest = request.newBuilder()
+          .header(CONTENT_ENCODING, "gzip")
+          .method(request.method(), gzip(body))
+          .build();
+      return chain.proceed(compressedRequest);
+    }
+
+    // wraps the body such that it is compressed as it is written
+    private static RequestBody gzip(RequestBody body) {
+      return new RequestBody() {
+        @Override
+        public MediaType contentType() {
+          return body.contentType();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+          try (BufferedSink gzipSink = Okio.buffer(new GzipSink(sink))) {
+            body.writeTo(gzipSink);
+          }
+        }
+      };
+    }
+  }
+
   // an interceptor that adds the access token, and refreshes it when necessary
   private class TokenInterceptor implements Interceptor {
-    private final Lock lock = new ReentrantLock();
-
     @Override
     public Response intercept(Chain chain) throws IOException {
       // do nothing for auth
       Request initialRequest = chain.request();
-      if (initialRequest.url().pathSegments().contains("auth")) {
+      if (isAuthRequest(initialRequest)) {
         return chain.proceed(initialRequest);
       }
 
-      // try using the current access token, unless not present
-      AccessTokenResult copyOfToken = token;
-      if (copyOfToken != null) {
-        log.trace("Add token: {}", copyOfToken.getAccessToken());
-        Request modifiedRequest = initialRequest.newBuilder()
-            .header(AUTHORIZATION, "Bearer " + copyOfToken.getAccessToken())
-            .build();
-        Response response = chain.proceed(modifiedRequest);
-        if (response.code() != 401) {
-          return response;
-        }
+      // refresh before sending if the token has expired, avoiding sending the request twice
+      TokenState state = authenticated();
+      if (state.isExpired(System.nanoTime() + TOKEN_EXPIRY_MARGIN.toNanos())) {
+        state = refreshToken(state);
       }
-
-      // try to refresh the token
-      lock.lock();
-      try {
-        if (token == null) {
-          throw new IllegalStateException("Authentication failed: Unable to retry");
-        }
-        String refreshToken = token.getRefreshToken();
-        log.debug("Refresh token: {}", refreshToken);
-        token = null;
-        token = authClient.refreshToken(refreshToken);
-        Request modifiedRequest2 = initialRequest.newBuilder()
-            .header(AUTHORIZATION, "Bearer " + token.getAccessToken())
-            .build();
-        return chain.proceed(modifiedRequest2);
-
-      } finally {
-        lock.unlock();
+      Response response = chain.proceed(withToken(initialRequest, state.token));
+      if (response.code() != 401) {
+        return response;
       }
+
+      // the token was rejected before its expiry, so refresh and retry
+      response.close();
+      return chain.proceed(withToken(initialRequest, refreshToken(state).token));
+    }
+
+    // adds the token to the request
+    private Request withToken(Request request, AccessTokenResult accessToken) {
+      log.trace("Add token: {}", accessToken.getAccessToken());
+      return request.newBuilder()
+          .header(AUTHORIZATION, "Bearer " + accessToken.getAccessToken())
+          .build();
     }
   }
 
@@ -254,6 +614,11 @@ public final class ServiceInvoker implements AutoCloseable {
 
   /**
    * Gets the HTTP client.
+   * <p>
+   * Requests sent using the client are authenticated and retried, waiting on the thread that sends
+   * the request for the access token and between attempts. For an enqueued request, that is a thread
+   * of the client that other requests could have used, thus asynchronous requests should be sent
+   * using {@link #invokeAsync(Request)} instead.
    *
    * @return the HTTP client
    */
@@ -263,6 +628,9 @@ public final class ServiceInvoker implements AutoCloseable {
 
   /**
    * Gets the executor that can be used to poll.
+   * <p>
+   * If the transport is shared, the executor delegates to the executor of the transport.
+   * Shutting it down, or closing this invoker, does not affect other invokers.
    *
    * @return the executor
    */
@@ -274,10 +642,473 @@ public final class ServiceInvoker implements AutoCloseable {
   /**
    * Closes access to the remote service.
    * <p>
+   * The transport is closed, unless it is shared.
    * This instance must not be used once this method is called.
    */
   @Override
   public void close() {
     executor.shutdown();
+    if (ownedTransport != null) {
+      ownedTransport.close();
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // the attempts of an asynchronous call, each enqueued once the token is available
+  // the future is only completed by the callback of the latest attempt, or by cancellation
+  private final class AsyncAttempts implements Callback {
+    private final Request request;
+    private final CompletableFuture<Response> future;
+    private final boolean retryable;
+    // the number of attempts, only accessed by the latest attempt
+    private int attempt;
+    // the latest call, null until enqueued
+    private volatile Call call;
+    // the limiter that admitted the latest call, null if not limited
+    private volatile RateLimitInterceptor.Limiter limiter;
+
+    private AsyncAttempts(Request request, CompletableFuture<Response> future) {
+      this.request = request;
+      this.future = future;
+      this.retryable = retryInterceptor.isRetryable(request);
+    }
+
+    // sends the next attempt once the token is available and the request is admitted
+    private void send() {
+      readyAsync().thenCompose(ready -> admit()).whenComplete((admitted, ex) -> {
+        if (ex != null) {
+          future.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+        } else if (future.isDone()) {
+          completed(admitted, null);
+        } else {
+          limiter = admitted;
+          attempt++;
+          Call next = asyncHttpClient.newCall(request);
+          call = next;
+          next.enqueue(this);
+          if (future.isCancelled()) {
+            next.cancel();
+          }
+        }
+      });
+    }
+
+    // admits the request as per the rate limit
+    private CompletableFuture<RateLimitInterceptor.Limiter> admit() {
+      return (rateLimitInterceptor != null ?
+          rateLimitInterceptor.acquireAsync(request) :
+          CompletableFuture.completedFuture(null));
+    }
+
+    // records the completion of an attempt with the rate limit
+    private void completed(RateLimitInterceptor.Limiter admitted, Response response) {
+      if (rateLimitInterceptor != null) {
+        rateLimitInterceptor.completed(admitted, request, response);
+      }
+    }
+
+    // schedules the next attempt
+    private void retry(Duration delay) {
+      try {
+        executor.schedule(this::send, delay.toNanos(), TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException ex) {
+        future.completeExceptionally(new IllegalStateException("ServiceInvoker has been closed", ex));
+      }
+    }
+
+    private void cancel() {
+      Call current = call;
+      if (current != null) {
+        current.cancel();
+      }
+    }
+
+    @Override
+    public void onFailure(Call failed, IOException ex) {
+      completed(limiter, null);
+      Duration delay = (retryable && !future.isDone() ? retryInterceptor.delayAfter(request, ex, attempt) : null);
+      if (delay == null) {
+        future.completeExceptionally(ex);
+      } else {
+        retry(delay);
+      }
+    }
+
+    @Override
+    public void onResponse(Call succeeded, Response response) {
+      completed(limiter, response);
+      Duration delay = (retryable && !future.isDone() ? retryInterceptor.delayAfter(response, attempt) : null);
+      if (delay == null) {
+        if (!future.complete(response)) {
+          response.close();
+        }
+      } else {
+        response.close();
+        retry(delay);
+      }
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // an immutable snapshot of the token, with a version that increases on each refresh
+  private static final class TokenState {
+    private final AccessTokenResult token;
+    private final long version;
+    // the time at which the token expires, as per System.nanoTime(), zero if unknown
+    private final long expiryNanos;
+    // the refresh in progress, null if none
+    private final CompletableFuture<TokenState> refresh;
+
+    private static TokenState of(AccessTokenResult token, long version) {
+      long lifetimeNanos = TimeUnit.SECONDS.toNanos(token.getExpiresIn());
+      long expiryNanos = (lifetimeNanos > 0 ? System.nanoTime() + lifetimeNanos : 0);
+      return new TokenState(token, version, expiryNanos, null);
+    }
+
+    private TokenState(AccessTokenResult token, long version, long expiryNanos, CompletableFuture<TokenState> refresh) {
+      this.token = token;
+      this.version = version;
+      this.expiryNanos = expiryNanos;
+      this.refresh = refresh;
+    }
+
+    // checks if the token has expired at the specified time
+    // a token with no known expiry is only refreshed when rejected
+    private boolean isExpired(long nanos) {
+      return expiryNanos != 0 && nanos - expiryNanos >= 0;
+    }
+
+    private TokenState withRefresh(CompletableFuture<TokenState> refresh) {
+      return new TokenState(token, version, expiryNanos, refresh);
+    }
   }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Builder for {@code ServiceInvoker}.
+   * <p>
+   * Only the credentials are required, all other settings have sensible defaults.
+   */
+  public static final class Builder {
+
+    /** Credentials. */
+    private final Credentials credentials;
+    /** URL to call. */
+    private HttpUrl serviceUrl = SERVICE_URL;
+    /** Auth client, null to use the default. */
+    private AuthClient authClient;
+    /** The minimum size of request body to compress, negative to disable. */
+    private long compressionThreshold = -1;
+    /** Token store, null if tokens are not stored. */
+    private TokenStore tokenStore;
+    /** When authentication happens. */
+    private AuthenticationMode authenticationMode = AuthenticationMode.EAGER;
+    /** The policy for retrying requests. */
+    private RetryPolicy retryPolicy = RetryPolicy.standard();
+    /** The rate limits, keyed by path pattern. */
+    private final Map<String, RateLimit> rateLimits = new LinkedHashMap<>();
+    /** Shared transport, null if the invoker has its own transport. */
+    private ServiceTransport transport;
+    /** Builder for the transport of the invoker, null if not configured. */
+    private ServiceTransport.Builder transportBuilder;
+
+    // creates an instance
+    private Builder(Credentials credentials) {
+      this.credentials = credentials;
+    }
+
+    /**
+     * Sets the URL of the service.
+     * <p>
+     * The default is {@link ServiceInvoker#SERVICE_URL}.
+     *
+     * @param serviceUrl  the URL of the service
+     * @return this builder
+     */
+    public Builder serviceUrl(HttpUrl serviceUrl) {
+      this.serviceUrl = serviceUrl;
+      return this;
+    }
+
+    /**
+     * Sets the auth client.
+     * <p>
+     * This is primarily intended for testing scenarios, where a fake auth client is required.
+     *
+     * @param authClient  the auth client
+     * @return this builder
+     */
+    public Builder authClient(AuthClient authClient) {
+      this.authClient = authClient;
+      return this;
+    }
+
+    /**
+     * Enables gzip compression of request bodies.
+     * <p>
+     * Request bodies at least as large as the threshold are compressed and sent with a
+     * {@code Content-Encoding} of {@code gzip}. Compression happens as the body is written,
+     * so the compressed body is never held in memory. Bodies of unknown size, such as those
+     * streamed from a file, are compared using their {@link RequestSizeHint} if they have one,
+     * and are otherwise always compressed. Requests to the auth service are never compressed.
+     * <p>
+     * By default, request bodies are not compressed. The service must support compressed requests.
+     *
+     * @param threshold  the minimum size in bytes of request body to compress, zero to compress all
+     * @return this builder
+     * @throws IllegalArgumentException if the threshold is negative
+     */
+    public Builder requestCompression(long threshold) {
+      if (threshold < 0) {
+        throw new IllegalArgumentException("Compression threshold must not be negative");
+      }
+      this.compressionThreshold = threshold;
+      return this;
+    }
+
+    /**
+     * Sets the store used to share access tokens between processes.
+     * <p>
+     * When the invoker is built, a valid stored token is used instead of authenticating,
+     * and an expired stored token is refreshed if possible. New tokens are saved to the store.
+     * By default, tokens are not stored.
+     *
+     * @param tokenStore  the token store
+     * @return this builder
+     */
+    public Builder tokenStore(TokenStore tokenStore) {
+      this.tokenStore = tokenStore;
+      return this;
+    }
+
+    /**
+     * Sets the policy used to retry requests after a transient failure.
+     * <p>
+     * The default is the {@linkplain RetryPolicy#standard() standard} policy.
+     * Use {@link RetryPolicy#none()} to disable retries.
+     *
+     * @param retryPolicy  the retry policy
+     * @return this builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = Objects.requireNonNull(retryPolicy, "retryPolicy must not be null");
+      return this;
+    }
+
+    /**
+     * Limits the rate and concurrency of requests to paths matching a pattern.
+     * <p>
+     * The pattern is a path prefix, such as {@code /margin/v1/ccps}. A segment in braces, such as
+     * {@code /margin/v1/ccps/{ccp}}, matches any single path segment, and each distinct value is
+     * limited separately. A request uses the limit with the longest matching pattern.
+     * Requests wait until admitted by the limit, and the rate adapts when the service
+     * responds with 429 (Too Many Requests), see {@link RateLimit}.
+     * <p>
+     * By default, requests are not limited.
+     *
+     * @param pathPattern  the path pattern, starting with '/'
+     * @param limit  the limit
+     * @return this builder
+     * @throws IllegalArgumentException if the pattern does not start with '/'
+     */
+    public Builder rateLimit(String pathPattern, RateLimit limit) {
+      Objects.requireNonNull(pathPattern, "pathPattern must not be null");
+      Objects.requireNonNull(limit, "limit must not be null");
+      if (!pathPattern.startsWith("/")) {
+        throw new IllegalArgumentException("Path pattern must start with '/': " + pathPattern);
+      }
+      rateLimits.put(pathPattern, limit);
+      return this;
+    }
+
+    /**
+     * Sets the transport, allowing connections and threads to be shared with other invokers.
+     * <p>
+     * The invoker uses the connection pool, dispatcher and executor of the transport,
+     * but has its own access token. Closing the invoker does not close the transport.
+     * When a transport is set, the connection settings of this builder must not be used.
+     * By default, each invoker has its own transport, which is closed when the invoker is closed.
+     *
+     * @param transport  the transport
+     * @return this builder
+     */
+    public Builder transport(ServiceTransport transport) {
+      this.transport = Objects.requireNonNull(transport, "transport must not be null");
+      return this;
+    }
+
+    /**
+     * Sets the size of the connection pool and the time idle connections are kept alive.
+     *
+     * @param maxIdleConnections  the maximum number of idle connections to keep in the pool
+     * @param keepAlive  the time an idle connection is kept alive
+     * @return this builder
+     * @throws IllegalArgumentException if the number of connections is negative or the time is not positive
+     * @see ServiceTransport.Builder#connectionPool(int, Duration)
+     */
+    public Builder connectionPool(int maxIdleConnections, Duration keepAlive) {
+      transportBuilder().connectionPool(maxIdleConnections, keepAlive);
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of requests executed concurrently.
+     *
+     * @param maxRequests  the maximum number of concurrent requests
+     * @param maxRequestsPerHost  the maximum number of concurrent requests to each host
+     * @return this builder
+     * @throws IllegalArgumentException if either value is not positive
+     * @see ServiceTransport.Builder#maxRequests(int, int)
+     */
+    public Builder maxRequests(int maxRequests, int maxRequestsPerHost) {
+      transportBuilder().maxRequests(maxRequests, maxRequestsPerHost);
+      return this;
+    }
+
+    /**
+     * Sets whether HTTP/2 is preferred.
+     *
+     * @param preferHttp2  true to prefer HTTP/2
+     * @return this builder
+     * @see ServiceTransport.Builder#preferHttp2(boolean)
+     */
+    public Builder preferHttp2(boolean preferHttp2) {
+      transportBuilder().preferHttp2(preferHttp2);
+      return this;
+    }
+
+    /**
+     * Sets the connect timeout.
+     *
+     * @param timeout  the timeout
+     * @return this builder
+     * @throws IllegalArgumentException if the timeout is not positive
+     * @see ServiceTransport.Builder#connectTimeout(Duration)
+     */
+    public Builder connectTimeout(Duration timeout) {
+      transportBuilder().connectTimeout(timeout);
+      return this;
+    }
+
+    /**
+     * Sets the read timeout, which applies to each read from the connection.
+     *
+     * @param timeout  the timeout
+     * @return this builder
+     * @throws IllegalArgumentException if the timeout is not positive
+     * @see ServiceTransport.Builder#readTimeout(Duration)
+     */
+    public Builder readTimeout(Duration timeout) {
+      transportBuilder().readTimeout(timeout);
+      return this;
+    }
+
+    /**
+     * Sets the write timeout, which applies to each write to the connection.
+     *
+     * @param timeout  the timeout
+     * @return this builder
+     * @throws IllegalArgumentException if the timeout is not positive
+     * @see ServiceTransport.Builder#writeTimeout(Duration)
+     */
+    public Builder writeTimeout(Duration timeout) {
+      transportBuilder().writeTimeout(timeout);
+      return this;
+    }
+
+    /**
+     * Sets the executor used to run asynchronous requests.
+     *
+     * @param executor  the executor
+     * @return this builder
+     * @see ServiceTransport.Builder#dispatcherExecutor(ExecutorService)
+     */
+    public Builder dispatcherExecutor(ExecutorService executor) {
+      transportBuilder().dispatcherExecutor(executor);
+      return this;
+    }
+
+    /**
+     * Applies connection settings suitable for high-throughput batch use.
+     *
+     * @return this builder
+     * @see ServiceTransport.Builder#highThroughput()
+     */
+    public Builder highThroughput() {
+      transportBuilder().highThroughput();
+      return this;
+    }
+
+    /**
+     * Runs the transport on virtual threads, where supported by the JVM.
+     *
+     * @return this builder
+     * @see ServiceTransport.Builder#virtualThreads()
+     */
+    public Builder virtualThreads() {
+      transportBuilder().virtualThreads();
+      return this;
+    }
+
+    // the builder for the transport of this invoker, created when first needed
+    private ServiceTransport.Builder transportBuilder() {
+      if (transportBuilder == null) {
+        transportBuilder = ServiceTransport.builder();
+      }
+      return transportBuilder;
+    }
+
+    /**
+     * Defers authentication until the first request is issued.
+     * <p>
+     * The invoker is built without calling the service. The first request authenticates
+     * before being sent, and concurrent requests wait for that authentication to complete.
+     * If authentication fails, the requests waiting for it fail, and the next request tries again.
+     * By default, authentication happens when the invoker is built.
+     *
+     * @return this builder
+     */
+    public Builder lazyAuthentication() {
+      this.authenticationMode = AuthenticationMode.LAZY;
+      return this;
+    }
+
+    /**
+     * Starts authentication in the background when the invoker is built.
+     * <p>
+     * The invoker is built without waiting for the service. Requests issued before authentication
+     * completes wait for it to complete before being sent. Use {@link ServiceInvoker#authenticateAsync()}
+     * to obtain a future that completes when authentication completes.
+     * If authentication fails, the requests waiting for it fail, and the next request tries again.
+     * By default, authentication happens when the invoker is built.
+     *
+     * @return this builder
+     */
+    public Builder asyncAuthentication() {
+      this.authenticationMode = AuthenticationMode.ASYNC;
+      return this;
+    }
+
+    /**
+     * Builds the invoker, authenticating using the credentials unless authentication is deferred.
+     *
+     * @return the invoker
+     * @throws IllegalStateException if authentication fails
+     */
+    public ServiceInvoker build() {
+      return new ServiceInvoker(this);
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // when authentication happens
+  private enum AuthenticationMode {
+    // when the invoker is built
+    EAGER,
+    // when the first request is issued
+    LAZY,
+    // in the background, starting when the invoker is built
+    ASYNC,
+  }
+
 }
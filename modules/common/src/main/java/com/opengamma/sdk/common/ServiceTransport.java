@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Transport used to communicate with the OpenGamma service.
+ * <p>
+ * The transport consists of the connection pool, the dispatcher used to run asynchronous requests
+ * and the executor used to schedule polling. By default, each {@link ServiceInvoker} has its own transport.
+ * Where many invokers are used in one process, such as one per set of credentials, a single transport
+ * may be shared between them using {@link ServiceInvoker.Builder#transport(ServiceTransport)}.
+ * This allows connections and threads to be shared, while each invoker maintains its own access token.
+ * <p>
+ * On Java 21 and later, the transport can run on virtual threads, see {@link Builder#virtualThreads()}.
+ * <p>
+ * This class implements {@link AutoCloseable} and should be closed when no longer needed,
+ * after all the invokers using it have been closed.
+ */
+public final class ServiceTransport implements AutoCloseable {
+
+  /** Log. */
+  private static final Logger log = LoggerFactory.getLogger(ServiceTransport.class);
+  /**
+   * The factory of virtual threads, null if not supported by the JVM.
+   */
+  private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+
+  /** HTTP client, without any interceptors. */
+  private final OkHttpClient httpClient;
+  /** Executor. */
+  private final ScheduledExecutorService executor;
+  /** Executor of the dispatcher created by this transport, null if supplied by the caller or defaulted. */
+  private final ExecutorService ownedDispatcherExecutor;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance with default settings.
+   *
+   * @return the transport
+   */
+  public static ServiceTransport of() {
+    return builder().build();
+  }
+
+  /**
+   * Returns a builder for an instance.
+   *
+   * @return the builder
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Checks if virtual threads are supported by the JVM.
+   * <p>
+   * Virtual threads are available from Java 21.
+   *
+   * @return true if virtual threads are supported
+   */
+  public static boolean isVirtualThreadsSupported() {
+    return VIRTUAL_THREAD_FACTORY != null;
+  }
+
+  // creates the virtual thread factory, accessed via reflection as the SDK targets Java 8
+  private static ThreadFactory createVirtualThreadFactory() {
+    try {
+      Object threadBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      threadBuilder = builderClass.getMethod("name", String.class, long.class)
+          .invoke(threadBuilder, "ServiceInvoker-virtual-", 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(threadBuilder);
+    } catch (ReflectiveOperationException | RuntimeException | LinkageError ex) {
+      // not supported, or only available as a preview feature
+      return null;
+    }
+  }
+
+  // creates a simple executor for polling
+  private static ScheduledExecutorService createExecutor(ThreadFactory baseFactory) {
+    ThreadFactory threadFactory = r -> {
+      Thread t = baseFactory.newThread(r);
+      t.setName("ServiceInvoker-" + t.getName());
+      t.setDaemon(true);
+      return t;
+    };
+    ScheduledExecutorService executor = Executors.newScheduledThreadPool(1, threadFactory);
+    return executor;
+  }
+
+  // creates an executor that starts a new virtual thread for each task
+  private static ExecutorService createVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+          .invoke(null, VIRTUAL_THREAD_FACTORY);
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException("Unable to create virtual thread executor", ex);
+    }
+  }
+
+  // creates an instance
+  private ServiceTransport(Builder builder) {
+    boolean virtual = builder.virtualThreads && isVirtualThreadsSupported();
+    if (builder.virtualThreads && !virtual) {
+      log.info("Virtual threads are not supported by this JVM, using platform threads");
+    }
+    ExecutorService dispatcherExecutor = builder.dispatcherExecutor;
+    this.ownedDispatcherExecutor = (dispatcherExecutor == null && virtual ? createVirtualThreadExecutor() : null);
+    if (ownedDispatcherExecutor != null) {
+      dispatcherExecutor = ownedDispatcherExecutor;
+    }
+    Dispatcher dispatcher = (dispatcherExecutor != null ? new Dispatcher(dispatcherExecutor) : new Dispatcher());
+    dispatcher.setMaxRequests(builder.maxRequests);
+    dispatcher.setMaxRequestsPerHost(builder.maxRequestsPerHost);
+    this.httpClient = new OkHttpClient.Builder()
+        .connectionPool(new ConnectionPool(
+            builder.maxIdleConnections, builder.keepAlive.toNanos(), TimeUnit.NANOSECONDS))
+        .dispatcher(dispatcher)
+        .protocols(builder.preferHttp2 ?
+            Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) :
+            Collections.singletonList(Protocol.HTTP_1_1))
+        .connectTimeout(builder.connectTimeout.toMillis(), TimeUnit.MILLISECONDS)
+        .readTimeout(builder.readTimeout.toMillis(), TimeUnit.MILLISECONDS)
+        .writeTimeout(builder.writeTimeout.toMillis(), TimeUnit.MILLISECONDS)
+        .build();
+    this.executor = createExecutor(virtual ? VIRTUAL_THREAD_FACTORY : Executors.defaultThreadFactory());
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the HTTP client, which has no interceptors.
+   * <p>
+   * Each invoker derives its own client from this one, sharing the connection pool and dispatcher.
+   *
+   * @return the HTTP client
+   */
+  OkHttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  /**
+   * Gets the executor shared by the invokers.
+   *
+   * @return the executor
+   */
+  ScheduledExecutorService getExecutor() {
+    return executor;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Closes the transport.
+   * <p>
+   * The executor is shut down and idle connections are closed.
+   * If the transport created the executor of the dispatcher, such as when running on virtual threads,
+   * that is also shut down. An executor set using {@link Builder#dispatcherExecutor(ExecutorService)}
+   * is not shut down.
+   * The invokers using this transport must not be used once this method is called.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    if (ownedDispatcherExecutor != null) {
+      ownedDispatcherExecutor.shutdown();
+    }
+    httpClient.connectionPool().evictAll();
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Builder for {@code ServiceTransport}.
+   * <p>
+   * All settings have sensible defaults.
+   */
+  public static final class Builder {
+
+    /** The maximum number of idle connections in the pool. */
+    private int maxIdleConnections = 5;
+    /** The time an idle connection is kept alive. */
+    private Duration keepAlive = Duration.ofMinutes(5);
+    /** The maximum number of concurrent requests. */
+    private int maxRequests = 64;
+    /** The maximum number of concurrent requests to each host. */
+    private int maxRequestsPerHost = 5;
+    /** Whether HTTP/2 is preferred where the service supports it. */
+    private boolean preferHttp2 = true;
+    /** The connect timeout. */
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    /** The read timeout. */
+    private Duration readTimeout = Duration.ofSeconds(30);
+    /** The write timeout. */
+    private Duration writeTimeout = Duration.ofSeconds(10);
+    /** The executor used to run asynchronous calls, null to use the default. */
+    private ExecutorService dispatcherExecutor;
+    /** Whether to use virtual threads where supported. */
+    private boolean virtualThreads;
+
+    // creates an instance
+    private Builder() {
+    }
+
+    /**
+     * Sets the size of the connection pool and the time idle connections are kept alive.
+     * <p>
+     * The default is 5 idle connections, kept alive for 5 minutes.
+     *
+     * @param maxIdleConnections  the maximum number of idle connections to keep in the pool
+     * @param keepAlive  the time an idle connection is kept alive
+     * @return this builder
+     * @throws IllegalArgumentException if the number of connections is negative or the time is not positive
+     */
+    public Builder connectionPool(int maxIdleConnections, Duration keepAlive) {
+      if (maxIdleConnections < 0) {
+        throw new IllegalArgumentException("Maximum idle connections must not be negative");
+      }
+      this.keepAlive = positive(keepAlive, "Keep alive");
+      this.maxIdleConnections = maxIdleConnections;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of requests executed concurrently.
+     * <p>
+     * Asynchronous requests above these limits are queued until an earlier request completes.
+     * When calculations are polled asynchronously, the limit per host bounds the number of
+     * calculations that can be polled at once.
+     * The default is 64 requests, with at most 5 to each host.
+     *
+     * @param maxRequests  the maximum number of concurrent requests
+     * @param maxRequestsPerHost  the maximum number of concurrent requests to each host
+     * @return this builder
+     * @throws IllegalArgumentException if either value is not positive
+     */
+    public Builder maxRequests(int maxRequests, int maxRequestsPerHost) {
+      if (maxRequests < 1 || maxRequestsPerHost < 1) {
+        throw new IllegalArgumentException("Maximum requests must be positive");
+      }
+      this.maxRequests = maxRequests;
+      this.maxRequestsPerHost = maxRequestsPerHost;
+      return this;
+    }
+
+    /**
+     * Sets whether HTTP/2 is preferred.
+     * <p>
+     * When preferred, HTTP/2 is negotiated if the service supports it, allowing many
+     * concurrent requests to share a single connection. Otherwise, only HTTP/1.1 is used.
+     * The default is to prefer HTTP/2.
+     *
+     * @param preferHttp2  true to prefer HTTP/2
+     * @return this builder
+     */
+    public Builder preferHttp2(boolean preferHttp2) {
+      this.preferHttp2 = preferHttp2;
+      return this;
+    }
+
+    /**
+     * Sets the connect timeout.
+     * <p>
+     * The default is 10 seconds.
+     *
+     * @param timeout  the timeout
+     * @return this builder
+     * @throws IllegalArgumentException if the timeout is not positive
+     */
+    public Builder connectTimeout(Duration timeout) {
+      this.connectTimeout = positive(timeout, "Connect timeout");
+      return this;
+    }
+
+    /**
+     * Sets the read timeout, which applies to each read from the connection.
+     * <p>
+     * The default is 30 seconds.
+     *
+     * @param timeout  the timeout
+     * @return this builder
+     * @throws IllegalArgumentException if the timeout is not positive
+     */
+    public Builder readTimeout(Duration timeout) {
+      this.readTimeout = positive(timeout, "Read timeout");
+      return this;
+    }
+
+    /**
+     * Sets the write timeout, which applies to each write to the connection.
+     * <p>
+     * The default is 10 seconds.
+     *
+     * @param timeout  the timeout
+     * @return this builder
+     * @throws IllegalArgumentException if the timeout is not positive
+     */
+    public Builder writeTimeout(Duration timeout) {
+      this.writeTimeout = positive(timeout, "Write timeout");
+      return this;
+    }
+
+    /**
+     * Sets the executor used to run asynchronous requests.
+     * <p>
+     * The executor is not shut down when the transport is closed.
+     * By default, a cached thread pool is used.
+     *
+     * @param executor  the executor
+     * @return this builder
+     */
+    public Builder dispatcherExecutor(ExecutorService executor) {
+      this.dispatcherExecutor = Objects.requireNonNull(executor, "executor must not be null");
+      return this;
+    }
+
+    /**
+     * Applies settings suitable for high-throughput batch use.
+     * <p>
+     * This allows up to 256 concurrent requests to the service, keeps up to 32 idle connections
+     * alive for 5 minutes, and prefers HTTP/2. This suits submitting and polling large numbers
+     * of calculations at once. Individual settings may be changed after calling this method.
+     *
+     * @return this builder
+     */
+    public Builder highThroughput() {
+      this.maxIdleConnections = 32;
+      this.keepAlive = Duration.ofMinutes(5);
+      this.maxRequests = 256;
+      this.maxRequestsPerHost = 256;
+      this.preferHttp2 = true;
+      return this;
+    }
+
+    /**
+     * Runs the transport on virtual threads, where supported by the JVM.
+     * <p>
+     * Asynchronous requests and polling each run on a new virtual thread, rather than a pool
+     * of platform threads. This also makes it cheap to block on many synchronous calls at once,
+     * such as {@code MarginClient.calculate} issued from many virtual threads.
+     * Consider raising the {@linkplain #maxRequests(int, int) maximum requests} to match.
+     * <p>
+     * Virtual threads are available from Java 21. On earlier versions, this setting has no effect,
+     * and platform threads are used as normal. Use {@link ServiceTransport#isVirtualThreadsSupported()}
+     * to check for support. An executor set using {@link #dispatcherExecutor(ExecutorService)}
+     * takes precedence for asynchronous requests.
+     *
+     * @return this builder
+     */
+    public Builder virtualThreads() {
+      this.virtualThreads = true;
+      return this;
+    }
+
+    // checks that the duration is positive
+    private static Duration positive(Duration duration, String name) {
+      Objects.requireNonNull(duration, "duration must not be null");
+      if (duration.isNegative() || duration.isZero()) {
+        throw new IllegalArgumentException(name + " must be positive");
+      }
+      return duration;
+    }
+
+    /**
+     * Builds the transport.
+     *
+     * @return the transport
+     */
+    public ServiceTransport build() {
+      return new ServiceTransport(this);
+    }
+  }
+
+}
@@ -49,6 +49,11 @@ final class ApiKeyCredentials implements Credentials, ImmutableBean {
     return client.authenticateApiKey(apiKey, secret);
   }
 
+  @Override
+  public String getAccountId() {
+    return "apikey:" + apiKey;
+  }
+
   //------------------------- AUTOGENERATED START -------------------------
   ///CLOVER:OFF
   /**
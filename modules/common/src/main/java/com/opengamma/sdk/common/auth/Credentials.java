@@ -44,4 +44,22 @@ public interface Credentials {
    */
   public abstract AccessTokenResult authenticate(AuthClient client);
 
+  /**
+   * Gets an identifier for the account that these credentials authenticate.
+   * <p>
+   * This is used to find stored access tokens for the account, see {@link TokenStore}.
+   * It does not include any secret.
+   * <p>
+   * The default implementation is based on the class and the identity of this instance,
+   * thus a stored token is only found by invokers that share this instance, and never
+   * by another process. Implementations should override this method to return a stable
+   * identifier for the account, such as the user name or API key, so that a stored token
+   * is reused after a restart.
+   * 
+   * @return the account identifier
+   */
+  public default String getAccountId() {
+    return getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(this));
+  }
+
 }
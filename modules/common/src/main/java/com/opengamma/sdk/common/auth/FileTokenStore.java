@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common.auth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Token store backed by an encrypted file.
+ * <p>
+ * The file consists of a header, a random salt, a random IV and the encrypted content.
+ * The content is encrypted using AES-GCM, with a 256-bit key derived from the password using PBKDF2.
+ * A new IV is used each time the file is written.
+ * <p>
+ * The file is locked while it is read or written, using a shared lock to read and an exclusive lock to write.
+ * Within a single process, access to the file is also serialized, as file locks are held by the process.
+ * A file that cannot be decrypted is treated as empty, and is replaced when a token is next saved.
+ */
+final class FileTokenStore implements TokenStore {
+
+  /**
+   * The header identifying the file format.
+   */
+  private static final byte[] HEADER = "OGTOKENS1".getBytes(StandardCharsets.US_ASCII);
+  /**
+   * The salt length in bytes.
+   */
+  private static final int SALT_LENGTH = 16;
+  /**
+   * The IV length in bytes.
+   */
+  private static final int IV_LENGTH = 12;
+  /**
+   * The authentication tag length in bits.
+   */
+  private static final int TAG_LENGTH = 128;
+  /**
+   * The number of key derivation iterations.
+   */
+  private static final int ITERATIONS = 65_536;
+  /**
+   * The key length in bits.
+   */
+  private static final int KEY_LENGTH = 256;
+  /**
+   * Objects used to serialize access to each file within this process.
+   */
+  private static final ConcurrentMap<Path, Object> FILE_MONITORS = new ConcurrentHashMap<>();
+  /**
+   * The random number generator.
+   */
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  /**
+   * The file.
+   */
+  private final Path file;
+  /**
+   * The password.
+   */
+  private final char[] password;
+  /**
+   * The clock.
+   */
+  private final Clock clock;
+  /**
+   * The key derived for the last salt used, null if none.
+   */
+  private volatile DerivedKey derivedKey;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance.
+   *
+   * @param file  the file to store tokens in
+   * @param password  the password used to encrypt the file
+   * @return the store
+   */
+  static FileTokenStore of(Path file, char[] password) {
+    return new FileTokenStore(file, password, Clock.systemUTC());
+  }
+
+  /**
+   * Obtains an instance with a specific clock.
+   *
+   * @param file  the file to store tokens in
+   * @param password  the password used to encrypt the file
+   * @param clock  the clock
+   * @return the store
+   */
+  static FileTokenStore of(Path file, char[] password, Clock clock) {
+    return new FileTokenStore(file, password, clock);
+  }
+
+  private FileTokenStore(Path file, char[] password, Clock clock) {
+    Objects.requireNonNull(file, "file must not be null");
+    Objects.requireNonNull(password, "password must not be null");
+    if (password.length == 0) {
+      throw new IllegalArgumentException("Password must not be empty");
+    }
+    this.file = file.toAbsolutePath();
+    this.password = password.clone();
+    this.clock = clock;
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public Optional<AccessTokenResult> load(String key) {
+    Properties tokens;
+    synchronized (monitor()) {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+        try {
+          tokens = decrypt(readAll(channel));
+        } finally {
+          lock.release();
+        }
+      } catch (NoSuchFileException ex) {
+        return Optional.empty();
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+    String accessToken = tokens.getProperty(key + ".accessToken");
+    if (accessToken == null) {
+      return Optional.empty();
+    }
+    long expiry = Long.parseLong(tokens.getProperty(key + ".expiry", "0"));
+    long expiresIn = 0;
+    if (expiry != 0) {
+      long remaining = expiry - clock.instant().getEpochSecond();
+      expiresIn = (remaining > 0 ? remaining : -1);
+    }
+    return Optional.of(AccessTokenResult.of(
+        accessToken,
+        tokens.getProperty(key + ".tokenType", AccessTokenResult.BEARER),
+        expiresIn,
+        tokens.getProperty(key + ".refreshToken")));
+  }
+
+  @Override
+  public void save(String key, AccessTokenResult token) {
+    long expiry = (token.getExpiresIn() > 0 ? clock.instant().getEpochSecond() + token.getExpiresIn() : 0);
+    synchronized (monitor()) {
+      try (FileChannel channel = FileChannel.open(
+          file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+        FileLock lock = channel.lock();
+        try {
+          restrictPermissions();
+          byte[] existing = readAll(channel);
+          Properties tokens = decrypt(existing);
+          tokens.setProperty(key + ".accessToken", token.getAccessToken());
+          tokens.setProperty(key + ".tokenType", token.getTokenType());
+          tokens.setProperty(key + ".expiry", Long.toString(expiry));
+          if (token.getRefreshToken() != null) {
+            tokens.setProperty(key + ".refreshToken", token.getRefreshToken());
+          } else {
+            tokens.remove(key + ".refreshToken");
+          }
+          byte[] encrypted = encrypt(tokens, existing);
+          channel.truncate(0);
+          ByteBuffer buf = ByteBuffer.wrap(encrypted);
+          while (buf.hasRemaining()) {
+            channel.write(buf, buf.position());
+          }
+          channel.force(false);
+        } finally {
+          lock.release();
+        }
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // the object used to serialize access to the file within this process
+  private Object monitor() {
+    return FILE_MONITORS.computeIfAbsent(file, f -> new Object());
+  }
+
+  // restricts the file to the owner where supported
+  private void restrictPermissions() {
+    try {
+      Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+    } catch (IOException | UnsupportedOperationException | SecurityException ex) {
+      // not supported by the file system
+    }
+  }
+
+  // reads the whole file
+  private static byte[] readAll(FileChannel channel) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+    while (buf.hasRemaining() && channel.read(buf, buf.position()) >= 0) {
+      // keep reading
+    }
+    return buf.array();
+  }
+
+  // decrypts the file content, returning empty properties if the content cannot be decrypted
+  private Properties decrypt(byte[] content) {
+    Properties tokens = new Properties();
+    int dataStart = HEADER.length + SALT_LENGTH + IV_LENGTH;
+    if (content.length <= dataStart || !Arrays.equals(Arrays.copyOf(content, HEADER.length), HEADER)) {
+      return tokens;
+    }
+    byte[] salt = Arrays.copyOfRange(content, HEADER.length, HEADER.length + SALT_LENGTH);
+    byte[] iv = Arrays.copyOfRange(content, HEADER.length + SALT_LENGTH, dataStart);
+    try {
+      Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(Cipher.DECRYPT_MODE, key(salt), new GCMParameterSpec(TAG_LENGTH, iv));
+      byte[] plain = cipher.doFinal(content, dataStart, content.length - dataStart);
+      try (Reader reader = new InputStreamReader(new ByteArrayInputStream(plain), StandardCharsets.UTF_8)) {
+        tokens.load(reader);
+      }
+      return tokens;
+    } catch (GeneralSecurityException | IOException | IllegalArgumentException ex) {
+      // wrong password or corrupt file
+      return new Properties();
+    }
+  }
+
+  // encrypts the tokens, reusing the salt of the existing content if possible
+  private byte[] encrypt(Properties tokens, byte[] existing) throws IOException {
+    byte[] salt;
+    if (existing.length > HEADER.length + SALT_LENGTH && Arrays.equals(Arrays.copyOf(existing, HEADER.length), HEADER)) {
+      salt = Arrays.copyOfRange(existing, HEADER.length, HEADER.length + SALT_LENGTH);
+    } else {
+      salt = new byte[SALT_LENGTH];
+      RANDOM.nextBytes(salt);
+    }
+    byte[] iv = new byte[IV_LENGTH];
+    RANDOM.nextBytes(iv);
+    ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    try (Writer writer = new OutputStreamWriter(plain, StandardCharsets.UTF_8)) {
+      tokens.store(writer, null);
+    }
+    try {
+      Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, key(salt), new GCMParameterSpec(TAG_LENGTH, iv));
+      byte[] encrypted = cipher.doFinal(plain.toByteArray());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      out.write(HEADER);
+      out.write(salt);
+      out.write(iv);
+      out.write(encrypted);
+      return out.toByteArray();
+    } catch (GeneralSecurityException ex) {
+      throw new IllegalStateException("Unable to encrypt token store", ex);
+    }
+  }
+
+  // derives the key from the password and salt, caching the result as derivation is slow
+  private SecretKey key(byte[] salt) throws GeneralSecurityException {
+    DerivedKey cached = derivedKey;
+    if (cached != null && Arrays.equals(cached.salt, salt)) {
+      return cached.key;
+    }
+    PBEKeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, KEY_LENGTH);
+    try {
+      byte[] encoded = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+      SecretKey key = new SecretKeySpec(encoded, "AES");
+      derivedKey = new DerivedKey(salt, key);
+      return key;
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // a key derived from the password
+  private static final class DerivedKey {
+    private final byte[] salt;
+    private final SecretKey key;
+
+    private DerivedKey(byte[] salt, SecretKey key) {
+      this.salt = salt;
+      this.key = key;
+    }
+  }
+
+}
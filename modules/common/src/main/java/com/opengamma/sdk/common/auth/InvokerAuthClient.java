@@ -12,8 +12,8 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Objects;
 
-import org.joda.beans.ser.JodaBeanSer;
-
+import com.opengamma.sdk.common.JsonBeanDecoder;
+import com.opengamma.sdk.common.JsonReader;
 import com.opengamma.sdk.common.ServiceInvoker;
 
 import okhttp3.FormBody;
@@ -26,6 +26,12 @@ import okhttp3.Response;
  */
 final class InvokerAuthClient implements AuthClient {
 
+  /**
+   * The decoder of the token response.
+   */
+  private static final JsonBeanDecoder<AccessTokenResult> ACCESS_TOKEN_DECODER =
+      JsonBeanDecoder.of(AccessTokenResult.class, InvokerAuthClient::decodeAccessToken);
+
   /**
    * The service invoker.
    */
@@ -94,11 +100,42 @@ final class InvokerAuthClient implements AuthClient {
       if (!response.isSuccessful()) {
         throw new IllegalStateException("Authentication failed: " + response.code() + " for " + message);
       }
-      return JodaBeanSer.COMPACT.jsonReader().read(response.body().string(), AccessTokenResult.class);
+      return ACCESS_TOKEN_DECODER.decode(response.body().source());
 
     } catch (IOException ex) {
       throw new UncheckedIOException(ex);
     }
   }
 
+  //-------------------------------------------------------------------------
+  // decodes the token response
+  private static AccessTokenResult decodeAccessToken(JsonReader reader) throws IOException {
+    String accessToken = null;
+    String tokenType = null;
+    long expiresIn = 0;
+    String refreshToken = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "accessToken":
+          accessToken = reader.nextString();
+          break;
+        case "tokenType":
+          tokenType = reader.nextString();
+          break;
+        case "expiresIn":
+          expiresIn = reader.nextLong();
+          break;
+        case "refreshToken":
+          refreshToken = reader.nextStringOrNull();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    return AccessTokenResult.of(accessToken, tokenType, expiresIn, refreshToken);
+  }
+
 }
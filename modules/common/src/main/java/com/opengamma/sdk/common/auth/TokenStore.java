@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common.auth;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Store of access tokens, allowing tokens to be reused between processes.
+ * <p>
+ * When a {@code ServiceInvoker} is created with a store, it first looks for a stored token.
+ * A token that is still valid is used directly, and an expired token is refreshed using
+ * its refresh token, avoiding full authentication. New tokens are saved to the store.
+ * <p>
+ * Tokens are stored against a key, which identifies the service and the account.
+ * Implementations must be thread-safe.
+ */
+public interface TokenStore {
+
+  /**
+   * Obtains an instance that stores tokens in an encrypted file.
+   * <p>
+   * The file is encrypted using AES-GCM, with a key derived from the password.
+   * The file is locked while being read or written, thus it may be shared by multiple processes.
+   * The file is created if necessary.
+   *
+   * @param file  the file to store tokens in
+   * @param password  the password used to encrypt the file
+   * @return the store
+   */
+  public static TokenStore ofFile(Path file, char[] password) {
+    return FileTokenStore.of(file, password);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Loads the token stored against the key.
+   * <p>
+   * The {@code expiresIn} of the returned token is the remaining lifetime in seconds when loaded.
+   * It is negative if the token has expired, and zero if the lifetime is not known.
+   *
+   * @param key  the key
+   * @return the token, empty if not found
+   * @throws RuntimeException if the store cannot be read
+   */
+  public abstract Optional<AccessTokenResult> load(String key);
+
+  /**
+   * Saves a token against the key, replacing any existing token.
+   * <p>
+   * The {@code expiresIn} of the token is relative to the time this method is called.
+   *
+   * @param key  the key
+   * @param token  the token to store
+   * @throws RuntimeException if the store cannot be written
+   */
+  public abstract void save(String key, AccessTokenResult token);
+
+}
@@ -47,6 +47,11 @@ final class UserPasswordCredentials implements Credentials, ImmutableBean {
     return client.authenticatePassword(username, password);
   }
 
+  @Override
+  public String getAccountId() {
+    return "user:" + username;
+  }
+
   //------------------------- AUTOGENERATED START -------------------------
   ///CLOVER:OFF
   /**
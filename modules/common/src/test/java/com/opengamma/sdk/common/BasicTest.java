@@ -7,13 +7,23 @@ package com.opengamma.sdk.common;
 
 import static com.opengamma.sdk.common.ServiceInvoker.SERVICE_URL;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertThrows;
 
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.testng.annotations.Test;
 
 import com.opengamma.sdk.common.auth.AuthClient;
 import com.opengamma.sdk.common.auth.Credentials;
 
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
 /**
  * Test.
  */
@@ -33,12 +43,110 @@ public class BasicTest {
     @SuppressWarnings("resource")
     ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, SERVICE_URL, mockAuth);
     assertEquals(invoker.getServiceUrl(), SERVICE_URL);
-    assertEquals(invoker.getHttpClient().interceptors().size(), 3);
+    assertEquals(invoker.getHttpClient().interceptors().size(), 4);
     assertEquals(invoker.getExecutor().isShutdown(), false);
     invoker.close();
     assertEquals(invoker.getExecutor().isShutdown(), true);
   }
 
+  public void testBuilder() {
+    ServiceInvoker invoker = ServiceInvoker.builder(CREDENTIALS)
+        .authClient(new TestingAuthClient())
+        .requestCompression(1024)
+        .build();
+    assertEquals(invoker.getServiceUrl(), SERVICE_URL);
+    assertEquals(invoker.getHttpClient().interceptors().size(), 5);
+    invoker.close();
+    assertThrows(IllegalArgumentException.class, () -> ServiceInvoker.builder(CREDENTIALS).requestCompression(-1));
+  }
+
+  public void testBuilderTuning() {
+    ServiceInvoker invoker = ServiceInvoker.builder(CREDENTIALS)
+        .authClient(new TestingAuthClient())
+        .highThroughput()
+        .maxRequests(128, 100)
+        .preferHttp2(false)
+        .connectTimeout(Duration.ofSeconds(3))
+        .readTimeout(Duration.ofSeconds(4))
+        .writeTimeout(Duration.ofSeconds(5))
+        .build();
+    OkHttpClient httpClient = invoker.getHttpClient();
+    assertEquals(httpClient.dispatcher().getMaxRequests(), 128);
+    assertEquals(httpClient.dispatcher().getMaxRequestsPerHost(), 100);
+    assertEquals(httpClient.protocols(), Collections.singletonList(Protocol.HTTP_1_1));
+    assertEquals(httpClient.connectTimeoutMillis(), 3000);
+    assertEquals(httpClient.readTimeoutMillis(), 4000);
+    assertEquals(httpClient.writeTimeoutMillis(), 5000);
+    invoker.close();
+    assertThrows(IllegalArgumentException.class, () -> ServiceInvoker.builder(CREDENTIALS).maxRequests(0, 1));
+    assertThrows(IllegalArgumentException.class, () -> ServiceInvoker.builder(CREDENTIALS).readTimeout(Duration.ZERO));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ServiceInvoker.builder(CREDENTIALS).connectionPool(-1, Duration.ofMinutes(1)));
+  }
+
+  public void testSharedTransport() {
+    ServiceTransport transport = ServiceTransport.builder().highThroughput().build();
+    ServiceInvoker invoker1 = ServiceInvoker.builder(CREDENTIALS)
+        .authClient(new TestingAuthClient())
+        .transport(transport)
+        .build();
+    ServiceInvoker invoker2 = ServiceInvoker.builder(Credentials.ofUsernamePassword("user2", "pw"))
+        .authClient(new TestingAuthClient())
+        .transport(transport)
+        .build();
+    assertSame(invoker1.getHttpClient().connectionPool(), invoker2.getHttpClient().connectionPool());
+    assertSame(invoker1.getHttpClient().dispatcher(), invoker2.getHttpClient().dispatcher());
+    assertEquals(invoker1.getHttpClient().dispatcher().getMaxRequests(), 256);
+
+    // closing one invoker does not affect the other
+    invoker1.close();
+    assertEquals(invoker1.getExecutor().isShutdown(), true);
+    assertEquals(invoker2.getExecutor().isShutdown(), false);
+    assertThrows(RejectedExecutionException.class, () -> invoker1.getExecutor().execute(() -> { }));
+    invoker2.close();
+    assertEquals(transport.getExecutor().isShutdown(), false);
+    transport.close();
+    assertEquals(transport.getExecutor().isShutdown(), true);
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> ServiceInvoker.builder(CREDENTIALS)
+            .authClient(new TestingAuthClient())
+            .transport(ServiceTransport.of())
+            .highThroughput()
+            .build());
+  }
+
+  public void testVirtualThreads() throws Exception {
+    // virtual threads are used where supported, otherwise platform threads are used
+    ServiceInvoker invoker = ServiceInvoker.builder(CREDENTIALS)
+        .authClient(new TestingAuthClient())
+        .virtualThreads()
+        .build();
+    Thread thread = invoker.getExecutor().submit(Thread::currentThread).get();
+    boolean virtual = ServiceTransport.isVirtualThreadsSupported() &&
+        (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    assertEquals(virtual, ServiceTransport.isVirtualThreadsSupported());
+    assertEquals(thread.isDaemon(), true);
+    invoker.close();
+  }
+
+  public void testTransportClose() {
+    // an executor supplied by the caller is not shut down
+    ExecutorService supplied = Executors.newCachedThreadPool();
+    ServiceTransport transport = ServiceTransport.builder().dispatcherExecutor(supplied).virtualThreads().build();
+    transport.close();
+    assertEquals(supplied.isShutdown(), false);
+    supplied.shutdown();
+
+    // an executor created by the transport is shut down
+    ServiceTransport virtual = ServiceTransport.builder().virtualThreads().build();
+    ExecutorService created = virtual.getHttpClient().dispatcher().executorService();
+    virtual.close();
+    assertEquals(created.isShutdown(), ServiceTransport.isVirtualThreadsSupported());
+  }
+
   public void testAuthBad() {
     AuthClient mockAuth = new TestingAuthClient();
     assertThrows(IllegalStateException.class, () -> ServiceInvoker.of(BAD_CREDENTIALS, SERVICE_URL, mockAuth));
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertThrows;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.beans.ser.JodaBeanSer;
+import org.testng.annotations.Test;
+
+import com.opengamma.sdk.common.auth.AccessTokenResult;
+
+import okio.Buffer;
+
+/**
+ * Test {@link JsonBeanDecoder}.
+ */
+@Test
+public class JsonBeanDecoderTest {
+
+  private static final AccessTokenResult TOKEN = AccessTokenResult.of("abc", AccessTokenResult.BEARER, 3600, "def");
+
+  public void test_decode() throws IOException {
+    AtomicInteger calls = new AtomicInteger();
+    JsonBeanDecoder<AccessTokenResult> test = JsonBeanDecoder.of(AccessTokenResult.class, reader -> {
+      calls.incrementAndGet();
+      reader.skipValue();
+      return TOKEN;
+    });
+    String json = JodaBeanSer.COMPACT.jsonWriter().write(TOKEN);
+    assertEquals(test.decode(json), TOKEN);
+    assertEquals(test.decode(new Buffer().writeUtf8(json)), TOKEN);
+    assertEquals(calls.get(), 2);
+  }
+
+  public void test_decode_fallback() {
+    JsonBeanDecoder<AccessTokenResult> test = JsonBeanDecoder.of(AccessTokenResult.class, reader -> {
+      reader.beginArray();
+      return null;
+    });
+    assertEquals(test.decode(JodaBeanSer.COMPACT.jsonWriter().write(TOKEN)), TOKEN);
+  }
+
+  public void test_decode_fallbackIfNotFullyRead() {
+    JsonBeanDecoder<AccessTokenResult> test = JsonBeanDecoder.of(AccessTokenResult.class, reader -> {
+      reader.beginObject();
+      return AccessTokenResult.of("wrong", AccessTokenResult.BEARER, 0);
+    });
+    assertEquals(test.decode(JodaBeanSer.COMPACT.jsonWriter().write(TOKEN)), TOKEN);
+  }
+
+  public void test_decode_invalid() {
+    JsonBeanDecoder<AccessTokenResult> test = JsonBeanDecoder.of(AccessTokenResult.class, reader -> {
+      throw new IOException();
+    });
+    assertThrows(RuntimeException.class, () -> test.decode("{\"accessToken\":"));
+  }
+
+}
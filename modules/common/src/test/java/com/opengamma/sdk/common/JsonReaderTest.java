@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+import okio.Buffer;
+
+/**
+ * Test {@link JsonReader}.
+ */
+@Test
+public class JsonReaderTest {
+
+  public void test_object() throws IOException {
+    JsonReader reader = reader(" { \"a\" : \"x\", \"b\":-1.5e2,\"c\":true, \"d\":false, \"e\":null,\"f\":[]}\n");
+    reader.beginObject();
+    assertEquals(reader.nextName(), "a");
+    assertEquals(reader.nextString(), "x");
+    assertEquals(reader.nextName(), "b");
+    assertEquals(reader.peek(), JsonReader.Token.NUMBER);
+    assertEquals(reader.nextDouble(), -150d);
+    assertEquals(reader.nextName(), "c");
+    assertEquals(reader.nextBoolean(), true);
+    assertEquals(reader.nextName(), "d");
+    assertEquals(reader.nextBoolean(), false);
+    assertEquals(reader.nextName(), "e");
+    assertEquals(reader.nextStringOrNull(), null);
+    assertEquals(reader.nextName(), "f");
+    reader.beginArray();
+    assertFalse(reader.hasNext());
+    reader.endArray();
+    assertFalse(reader.hasNext());
+    reader.endObject();
+    assertEquals(reader.peek(), JsonReader.Token.END_DOCUMENT);
+  }
+
+  public void test_array() throws IOException {
+    JsonReader reader = reader("[1, \"2\", \"NaN\", {}]");
+    reader.beginArray();
+    assertTrue(reader.hasNext());
+    assertEquals(reader.nextString(), "1");
+    assertEquals(reader.nextDouble(), 2d);
+    assertEquals(reader.nextDouble(), Double.NaN);
+    reader.beginObject();
+    reader.endObject();
+    assertFalse(reader.hasNext());
+    reader.endArray();
+    assertEquals(reader.peek(), JsonReader.Token.END_DOCUMENT);
+  }
+
+  public void test_escapes() throws IOException {
+    JsonReader reader = reader("[\"a\\\"b\\\\c\\/d\\n\\t\\r\\b\\f\", \"\\u00e9\\u20ac\", \"\u00e9\u20ac\", \"\"]");
+    reader.beginArray();
+    assertEquals(reader.nextString(), "a\"b\\c/d\n\t\r\b\f");
+    assertEquals(reader.nextString(), "\u00e9\u20ac");
+    assertEquals(reader.nextString(), "\u00e9\u20ac");
+    assertEquals(reader.nextString(), "");
+    reader.endArray();
+  }
+
+  public void test_skipValue() throws IOException {
+    JsonReader reader = reader("{\"a\":{\"b\":[1,{\"c\":null},[true]],\"d\":\"}\"},\"e\":\"f\"}");
+    reader.beginObject();
+    assertEquals(reader.nextName(), "a");
+    reader.skipValue();
+    assertEquals(reader.nextName(), "e");
+    reader.skipValue();
+    reader.endObject();
+    assertEquals(reader.peek(), JsonReader.Token.END_DOCUMENT);
+  }
+
+  public void test_wrongToken() throws IOException {
+    JsonReader reader = reader("{\"a\":1}");
+    assertThrows(IllegalStateException.class, () -> reader.beginArray());
+    reader.beginObject();
+    assertThrows(IllegalStateException.class, () -> reader.nextString());
+    assertEquals(reader.nextName(), "a");
+    assertThrows(IllegalStateException.class, () -> reader.nextBoolean());
+  }
+
+  public void test_malformed() throws IOException {
+    JsonReader missingColon = reader("{\"a\" 1}");
+    missingColon.beginObject();
+    missingColon.nextName();
+    assertThrows(IOException.class, () -> missingColon.peek());
+    JsonReader unterminated = reader("[\"abc");
+    unterminated.beginArray();
+    assertThrows(IOException.class, () -> unterminated.nextString());
+    JsonReader trailing = reader("[] x");
+    trailing.beginArray();
+    trailing.endArray();
+    assertThrows(IOException.class, () -> trailing.peek());
+  }
+
+  //-------------------------------------------------------------------------
+  private static JsonReader reader(String json) {
+    return JsonReader.of(new Buffer().writeUtf8(json));
+  }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.opengamma.sdk.common.auth.Credentials;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Test {@link RateLimitInterceptor}.
+ */
+@Test
+public class RateLimitInterceptorTest {
+
+  private static final Credentials CREDENTIALS = Credentials.ofUsernamePassword("user", "pw");
+
+  private MockWebServer server;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  //-------------------------------------------------------------------------
+  public void test_rate() throws Exception {
+    try (ServiceInvoker invoker = invoker("/test", RateLimit.of(20, 1, 10))) {
+      long start = System.nanoTime();
+      for (int i = 0; i < 6; i++) {
+        server.enqueue(new MockResponse().setBody("OK"));
+        assertEquals(call(invoker, "/test"), 200);
+      }
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(240));
+    }
+  }
+
+  public void test_rate_perSegment() throws Exception {
+    // each CCP has its own bucket, so the first request to each is not delayed
+    try (ServiceInvoker invoker = invoker("/ccps/{ccp}", RateLimit.of(1, 1, 10))) {
+      long start = System.nanoTime();
+      server.enqueue(new MockResponse().setBody("OK"));
+      server.enqueue(new MockResponse().setBody("OK"));
+      server.enqueue(new MockResponse().setBody("OK"));
+      assertEquals(call(invoker, "/ccps/lch/calculations"), 200);
+      assertEquals(call(invoker, "/ccps/cme/calculations"), 200);
+      assertEquals(call(invoker, "/other"), 200);
+      assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+      server.enqueue(new MockResponse().setBody("OK"));
+      assertEquals(call(invoker, "/ccps/lch"), 200);
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+    }
+  }
+
+  public void test_concurrency() throws Exception {
+    AtomicInteger current = new AtomicInteger();
+    AtomicInteger max = new AtomicInteger();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        max.accumulateAndGet(current.incrementAndGet(), Math::max);
+        Thread.sleep(50);
+        current.decrementAndGet();
+        return new MockResponse().setBody("OK");
+      }
+    });
+    try (ServiceInvoker invoker = invoker("/", RateLimit.ofConcurrency(2))) {
+      List<CompletableFuture<Integer>> calls = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        calls.add(CompletableFuture.supplyAsync(() -> {
+          try {
+            return call(invoker, "/test");
+          } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+          }
+        }));
+      }
+      for (CompletableFuture<Integer> call : calls) {
+        assertEquals(call.get(5, TimeUnit.SECONDS).intValue(), 200);
+      }
+    }
+    assertEquals(max.get(), 2);
+  }
+
+  public void test_concurrency_throttled() throws Exception {
+    // a 429 halves the concurrency, which then increases by one per window of successful requests
+    AtomicInteger current = new AtomicInteger();
+    AtomicInteger max = new AtomicInteger();
+    AtomicInteger count = new AtomicInteger();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        if (count.getAndIncrement() == 0) {
+          return new MockResponse().setResponseCode(429);
+        }
+        max.accumulateAndGet(current.incrementAndGet(), Math::max);
+        Thread.sleep(50);
+        current.decrementAndGet();
+        return new MockResponse().setBody("OK");
+      }
+    });
+    try (ServiceInvoker invoker = invoker("/", RateLimit.ofConcurrency(4))) {
+      assertEquals(call(invoker, "/test"), 429);
+      List<CompletableFuture<Response>> calls = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        calls.add(invoker.invokeAsync(get("/test")));
+      }
+      for (CompletableFuture<Response> call : calls) {
+        try (Response response = call.get(5, TimeUnit.SECONDS)) {
+          assertEquals(response.code(), 200);
+        }
+      }
+    }
+    assertTrue(max.get() <= 3);
+  }
+
+  public void test_async_rate() throws Exception {
+    // waiting for the rate does not hold the only thread of the HTTP client
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        return new MockResponse().setBody("OK");
+      }
+    });
+    try (ServiceInvoker invoker = ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(new TestingAuthClient())
+        .retryPolicy(RetryPolicy.none())
+        .rateLimit("/slow", RateLimit.of(1, 1, 10))
+        .maxRequests(1, 1)
+        .build()) {
+      long start = System.nanoTime();
+      invoker.invokeAsync(get("/slow")).get(5, TimeUnit.SECONDS).close();
+      CompletableFuture<Response> slow = invoker.invokeAsync(get("/slow"));
+      invoker.invokeAsync(get("/other")).get(5, TimeUnit.SECONDS).close();
+      assertEquals(slow.isDone(), false);
+      slow.get(5, TimeUnit.SECONDS).close();
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+    }
+  }
+
+  public void test_throttled() throws Exception {
+    // a 429 pauses requests as per Retry-After
+    try (ServiceInvoker invoker = invoker("/test", RateLimit.of(100, 100, 10))) {
+      server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+      server.enqueue(new MockResponse().setBody("OK"));
+      assertEquals(call(invoker, "/test"), 429);
+      long start = System.nanoTime();
+      assertEquals(call(invoker, "/test"), 200);
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+    }
+  }
+
+  public void test_invalid() {
+    assertThrows(IllegalArgumentException.class, () -> RateLimit.of(0, 1, 1));
+    assertThrows(IllegalArgumentException.class, () -> RateLimit.of(1, 0, 1));
+    assertThrows(IllegalArgumentException.class, () -> RateLimit.ofConcurrency(0));
+    assertThrows(IllegalArgumentException.class, () -> ServiceInvoker.builder(CREDENTIALS).rateLimit("test", RateLimit.ofRate(1)));
+  }
+
+  //-------------------------------------------------------------------------
+  private ServiceInvoker invoker(String pathPattern, RateLimit limit) {
+    return ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(new TestingAuthClient())
+        .retryPolicy(RetryPolicy.none())
+        .rateLimit(pathPattern, limit)
+        .build();
+  }
+
+  private Request get(String path) {
+    return new Request.Builder().url(server.url(path)).get().build();
+  }
+
+  private int call(ServiceInvoker invoker, String path) throws IOException {
+    try (Response response = invoker.getHttpClient().newCall(get(path)).execute()) {
+      return response.code();
+    }
+  }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.opengamma.sdk.common.auth.Credentials;
+
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * Test {@link RetryInterceptor}.
+ */
+@Test
+public class RetryInterceptorTest {
+
+  private static final Credentials CREDENTIALS = Credentials.ofUsernamePassword("user", "pw");
+  private static final RetryPolicy POLICY = RetryPolicy.builder()
+      .maxAttempts(3)
+      .backoff(Duration.ofMillis(1), 2)
+      .maxDelay(Duration.ofSeconds(2))
+      .build();
+
+  private MockWebServer server;
+  private ServiceInvoker invoker;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    invoker = ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(new TestingAuthClient())
+        .retryPolicy(POLICY)
+        .build();
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    invoker.close();
+    server.shutdown();
+  }
+
+  //-------------------------------------------------------------------------
+  public void test_retryStatus() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setResponseCode(502));
+    server.enqueue(new MockResponse().setBody("OK"));
+    assertEquals(call(get()), 200);
+    assertEquals(server.getRequestCount(), 3);
+  }
+
+  public void test_retryStatus_maxAttempts() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setResponseCode(503));
+    assertEquals(call(get()), 503);
+    assertEquals(server.getRequestCount(), 3);
+  }
+
+  public void test_retryStatus_notRetryable() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(500));
+    assertEquals(call(get()), 500);
+    assertEquals(server.getRequestCount(), 1);
+  }
+
+  public void test_retryDisconnect() throws Exception {
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+    server.enqueue(new MockResponse().setBody("OK"));
+    assertEquals(call(get()), 200);
+    assertEquals(server.getRequestCount(), 2);
+  }
+
+  public void test_retryAfter() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+    server.enqueue(new MockResponse().setBody("OK"));
+    long start = System.nanoTime();
+    assertEquals(call(get()), 200);
+    assertTrue(System.nanoTime() - start >= 1_000_000_000L);
+  }
+
+  public void test_retryAfter_tooLong() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "60"));
+    assertEquals(call(get()), 503);
+    assertEquals(server.getRequestCount(), 1);
+  }
+
+  public void test_post() throws Exception {
+    // a POST is not retried by default, even with an idempotency key
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setResponseCode(503));
+    Request post = new Request.Builder()
+        .url(server.url("/test"))
+        .post(RequestBody.create(ServiceInvoker.MEDIA_JSON, "{}"))
+        .build();
+    Request keyed = post.newBuilder().header(RetryPolicy.IDEMPOTENCY_KEY_HEADER, "abc").build();
+    assertEquals(call(post), 503);
+    assertEquals(call(keyed), 503);
+    assertEquals(server.getRequestCount(), 2);
+  }
+
+  public void test_post_retryIdempotencyKeyed() throws Exception {
+    // a POST is only retried with an idempotency key, if enabled
+    invoker.close();
+    invoker = ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(new TestingAuthClient())
+        .retryPolicy(RetryPolicy.builder().backoff(Duration.ofMillis(1), 2).retryIdempotencyKeyed(true).build())
+        .build();
+    server.enqueue(new MockResponse().setResponseCode(503));
+    Request post = new Request.Builder()
+        .url(server.url("/test"))
+        .post(RequestBody.create(ServiceInvoker.MEDIA_JSON, "{}"))
+        .build();
+    assertEquals(call(post), 503);
+    assertEquals(server.getRequestCount(), 1);
+
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setBody("OK"));
+    Request keyed = post.newBuilder().header(RetryPolicy.IDEMPOTENCY_KEY_HEADER, "abc").build();
+    assertEquals(call(keyed), 200);
+    server.takeRequest();
+    assertEquals(server.takeRequest().getHeader(RetryPolicy.IDEMPOTENCY_KEY_HEADER), "abc");
+    assertEquals(server.takeRequest().getHeader(RetryPolicy.IDEMPOTENCY_KEY_HEADER), "abc");
+  }
+
+  public void test_cancel() throws Exception {
+    // a call cancelled while in flight is not retried
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+    Call call = invoker.getHttpClient().newCall(get());
+    invoker.getExecutor().schedule(call::cancel, 200, TimeUnit.MILLISECONDS);
+    assertThrows(IOException.class, call::execute);
+    assertEquals(server.getRequestCount(), 1);
+  }
+
+  //-------------------------------------------------------------------------
+  public void test_async_retryStatus() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setResponseCode(502));
+    server.enqueue(new MockResponse().setBody("OK"));
+    try (Response response = invoker.invokeAsync(get()).get(5, TimeUnit.SECONDS)) {
+      assertEquals(response.code(), 200);
+    }
+    assertEquals(server.getRequestCount(), 3);
+  }
+
+  public void test_async_retryAfter() throws Exception {
+    // the wait between attempts does not hold the only thread of the HTTP client
+    server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+    server.enqueue(new MockResponse().setBody("OK"));
+    server.enqueue(new MockResponse().setBody("OK"));
+    try (ServiceInvoker single = ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(new TestingAuthClient())
+        .retryPolicy(POLICY)
+        .maxRequests(1, 1)
+        .build()) {
+      CompletableFuture<Response> first = single.invokeAsync(get());
+      server.takeRequest();
+      long start = System.nanoTime();
+      try (Response response = single.invokeAsync(get()).get(5, TimeUnit.SECONDS)) {
+        assertEquals(response.code(), 200);
+      }
+      assertTrue(System.nanoTime() - start < 1_000_000_000L);
+      try (Response response = first.get(5, TimeUnit.SECONDS)) {
+        assertEquals(response.code(), 200);
+      }
+    }
+    assertEquals(server.getRequestCount(), 3);
+  }
+
+  public void test_async_cancel() throws Exception {
+    // a call cancelled while waiting to retry is not retried
+    server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+    CompletableFuture<Response> future = invoker.invokeAsync(get());
+    server.takeRequest();
+    future.cancel(false);
+    Thread.sleep(1500);
+    assertEquals(server.getRequestCount(), 1);
+  }
+
+  //-------------------------------------------------------------------------
+  public void test_policy() {
+    RetryPolicy policy = RetryPolicy.builder()
+        .backoff(Duration.ofMillis(100), 2)
+        .maxDelay(Duration.ofMillis(300))
+        .jitter(0.5)
+        .retryableStatusCodes(503)
+        .build();
+    for (int i = 0; i < 100; i++) {
+      long first = policy.delay(1).toMillis();
+      long third = policy.delay(3).toMillis();
+      assertTrue(first >= 50 && first <= 100);
+      assertTrue(third >= 150 && third <= 300);
+    }
+    assertTrue(policy.isRetryable(503));
+    assertEquals(policy.isRetryable(502), false);
+    assertEquals(policy.isRetryIdempotencyKeyed(), false);
+    assertEquals(RetryPolicy.none().getMaxAttempts(), 1);
+    assertThrows(IllegalArgumentException.class, () -> RetryPolicy.builder().maxAttempts(0));
+    assertThrows(IllegalArgumentException.class, () -> RetryPolicy.builder().jitter(1.5));
+    assertThrows(IllegalArgumentException.class, () -> RetryPolicy.builder().backoff(Duration.ofMillis(1), 0.5));
+  }
+
+  //-------------------------------------------------------------------------
+  private Request get() {
+    return new Request.Builder().url(server.url("/test")).get().build();
+  }
+
+  private int call(Request request) throws IOException {
+    try (Response response = invoker.getHttpClient().newCall(request).execute()) {
+      return response.code();
+    }
+  }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.opengamma.sdk.common.auth.AccessTokenResult;
+import com.opengamma.sdk.common.auth.AuthClient;
+import com.opengamma.sdk.common.auth.Credentials;
+import com.opengamma.sdk.common.auth.TokenStore;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Test {@link ServiceInvoker} authentication.
+ */
+@Test
+public class ServiceInvokerTest {
+
+  private static final Credentials CREDENTIALS = Credentials.ofApiKey("key", "secret");
+
+  private MockWebServer server;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  //-------------------------------------------------------------------------
+  public void test_refreshBeforeSendWhenExpired() throws Exception {
+    // a token that expires within the expiry margin is refreshed before sending
+    CountingAuthClient authClient = new CountingAuthClient(1);
+    server.enqueue(new MockResponse().setBody("OK"));
+
+    try (ServiceInvoker invoker = invoker(authClient)) {
+      call(invoker);
+    }
+    assertEquals(server.getRequestCount(), 1);
+    assertEquals(server.takeRequest().getHeader("Authorization"), "Bearer access1");
+    assertEquals(authClient.refreshes.get(), 1);
+  }
+
+  public void test_refreshAfterRejection() throws Exception {
+    // a token that is not due to expire is only refreshed if rejected
+    CountingAuthClient authClient = new CountingAuthClient(3600);
+    server.enqueue(new MockResponse().setResponseCode(401));
+    server.enqueue(new MockResponse().setBody("OK"));
+
+    try (ServiceInvoker invoker = invoker(authClient)) {
+      call(invoker);
+    }
+    assertEquals(server.takeRequest().getHeader("Authorization"), "Bearer access0");
+    assertEquals(server.takeRequest().getHeader("Authorization"), "Bearer access1");
+    assertEquals(authClient.refreshes.get(), 1);
+  }
+
+  public void test_refreshInBackground() throws Exception {
+    // the refresh is scheduled halfway through the lifetime of a short-lived token
+    CountingAuthClient authClient = new CountingAuthClient(1);
+    try (ServiceInvoker invoker = invoker(authClient)) {
+      long start = System.nanoTime();
+      while (authClient.refreshes.get() == 0 && System.nanoTime() - start < 5_000_000_000L) {
+        Thread.sleep(10);
+      }
+    }
+    assertTrue(authClient.refreshes.get() > 0);
+  }
+
+  public void test_concurrentRefresh() throws Exception {
+    // all threads find the initial token has expired, but only one refreshes it
+    int threads = 200;
+    CountingAuthClient authClient = new CountingAuthClient(1, 3600);
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        return new MockResponse().setBody(request.getHeader("Authorization"));
+      }
+    });
+
+    List<String> tokens = Collections.synchronizedList(new ArrayList<>());
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    try (ServiceInvoker invoker = invoker(authClient)) {
+      invoker.getHttpClient().dispatcher().setMaxRequests(threads);
+      invoker.getHttpClient().dispatcher().setMaxRequestsPerHost(threads);
+      CountDownLatch start = new CountDownLatch(1);
+      List<Thread> workers = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        Thread worker = new Thread(() -> {
+          try {
+            start.await();
+            Request request = new Request.Builder().url(server.url("/test")).get().build();
+            try (Response response = invoker.getHttpClient().newCall(request).execute()) {
+              tokens.add(response.body().string());
+            }
+          } catch (Throwable ex) {
+            failures.add(ex);
+          }
+        });
+        worker.start();
+        workers.add(worker);
+      }
+      start.countDown();
+      for (Thread worker : workers) {
+        worker.join();
+      }
+    }
+    assertEquals(failures, Collections.emptyList());
+    assertEquals(tokens.size(), threads);
+    assertEquals(new HashSet<>(tokens), Collections.singleton("Bearer access1"));
+    assertEquals(authClient.refreshes.get(), 1);
+  }
+
+  public void test_tokenStore() throws Exception {
+    Path file = Files.createTempFile("tokens", ".dat");
+    try {
+      TokenStore store = TokenStore.ofFile(file, "password".toCharArray());
+      CountingAuthClient authClient = new CountingAuthClient(3600);
+      invoker(CREDENTIALS, authClient, store).close();
+      invoker(CREDENTIALS, authClient, store).close();
+      assertEquals(authClient.authentications.get(), 1);
+
+      // a stored token that is about to expire is refreshed rather than authenticating
+      CountingAuthClient authClient2 = new CountingAuthClient(30);
+      Credentials credentials2 = Credentials.ofApiKey("key2", "secret");
+      invoker(credentials2, authClient2, store).close();
+      invoker(credentials2, authClient2, store).close();
+      assertEquals(authClient2.authentications.get(), 1);
+      assertEquals(authClient2.refreshes.get(), 1);
+
+      // by default, custom credentials only share a stored token with invokers using the same instance
+      CountingAuthClient authClient3 = new CountingAuthClient(3600);
+      Credentials credentials3 = client -> client.authenticateApiKey("key3", "secret");
+      Credentials credentials4 = client -> client.authenticateApiKey("key3", "secret");
+      invoker(credentials3, authClient3, store).close();
+      invoker(credentials3, authClient3, store).close();
+      invoker(credentials4, authClient3, store).close();
+      assertEquals(authClient3.authentications.get(), 2);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  public void test_lazyAuthentication() throws Exception {
+    // authentication happens on first use, and is retried after failure
+    CountingAuthClient authClient = new CountingAuthClient(3600);
+    authClient.failures.set(1);
+    server.enqueue(new MockResponse().setBody("OK"));
+
+    try (ServiceInvoker invoker = ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(authClient)
+        .lazyAuthentication()
+        .build()) {
+      assertEquals(authClient.authentications.get(), 0);
+      assertThrows(IllegalStateException.class, () -> call(invoker));
+      assertEquals(server.getRequestCount(), 0);
+      call(invoker);
+    }
+    assertEquals(authClient.authentications.get(), 2);
+    assertEquals(server.takeRequest().getHeader("Authorization"), "Bearer access0");
+  }
+
+  public void test_asyncAuthentication() throws Exception {
+    // requests issued before authentication completes wait for it
+    CountingAuthClient authClient = new CountingAuthClient(3600);
+    CountDownLatch latch = new CountDownLatch(1);
+    authClient.latch = latch;
+    server.enqueue(new MockResponse().setBody("OK"));
+
+    try (ServiceInvoker invoker = ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(authClient)
+        .asyncAuthentication()
+        .build()) {
+      CompletableFuture<Void> authenticated = invoker.authenticateAsync();
+      CompletableFuture<Void> called = CompletableFuture.runAsync(() -> {
+        try {
+          call(invoker);
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+      });
+      Thread.sleep(100);
+      assertFalse(authenticated.isDone());
+      assertEquals(server.getRequestCount(), 0);
+
+      latch.countDown();
+      authenticated.get(5, TimeUnit.SECONDS);
+      called.get(5, TimeUnit.SECONDS);
+    }
+    assertEquals(authClient.authentications.get(), 1);
+    assertEquals(server.takeRequest().getHeader("Authorization"), "Bearer access0");
+  }
+
+  public void test_readyAsync() throws Exception {
+    // no thread waits for authentication, which happens in the background
+    CountingAuthClient authClient = new CountingAuthClient(3600);
+    CountDownLatch latch = new CountDownLatch(1);
+    authClient.latch = latch;
+
+    try (ServiceInvoker invoker = ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(authClient)
+        .lazyAuthentication()
+        .build()) {
+      CompletableFuture<Void> ready = invoker.readyAsync();
+      Thread.sleep(100);
+      assertFalse(ready.isDone());
+      latch.countDown();
+      ready.get(5, TimeUnit.SECONDS);
+      assertTrue(invoker.readyAsync().isDone());
+    }
+    assertEquals(authClient.authentications.get(), 1);
+  }
+
+  public void test_readyAsync_refreshWhenExpired() throws Exception {
+    // a token that expires within the expiry margin is refreshed in the background
+    CountingAuthClient authClient = new CountingAuthClient(1, 3600);
+    server.enqueue(new MockResponse().setBody("OK"));
+
+    try (ServiceInvoker invoker = invoker(authClient)) {
+      invoker.readyAsync().get(5, TimeUnit.SECONDS);
+      assertEquals(authClient.refreshes.get(), 1);
+      assertTrue(invoker.readyAsync().isDone());
+      call(invoker);
+    }
+    assertEquals(server.takeRequest().getHeader("Authorization"), "Bearer access1");
+    assertEquals(authClient.refreshes.get(), 1);
+  }
+
+  //-------------------------------------------------------------------------
+  private ServiceInvoker invoker(AuthClient authClient) {
+    return ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(authClient)
+        .build();
+  }
+
+  private ServiceInvoker invoker(Credentials credentials, AuthClient authClient, TokenStore store) {
+    return ServiceInvoker.builder(credentials)
+        .serviceUrl(server.url("/"))
+        .authClient(authClient)
+        .tokenStore(store)
+        .build();
+  }
+
+  private void call(ServiceInvoker invoker) throws IOException {
+    Request request = new Request.Builder().url(server.url("/test")).get().build();
+    try (Response response = invoker.getHttpClient().newCall(request).execute()) {
+      assertEquals(response.code(), 200);
+    }
+  }
+
+  // an auth client that issues numbered tokens
+  private static final class CountingAuthClient implements AuthClient {
+    private final long expiresIn;
+    private final long refreshedExpiresIn;
+    private final AtomicInteger authentications = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile CountDownLatch latch;
+    private final AtomicInteger refreshes = new AtomicInteger();
+
+    private CountingAuthClient(long expiresIn) {
+      this(expiresIn, expiresIn);
+    }
+
+    private CountingAuthClient(long expiresIn, long refreshedExpiresIn) {
+      this.expiresIn = expiresIn;
+      this.refreshedExpiresIn = refreshedExpiresIn;
+    }
+
+    @Override
+    public AccessTokenResult authenticatePassword(String username, String password) {
+      return AccessTokenResult.of("access0", "bearer", expiresIn, "refresh");
+    }
+
+    @Override
+    public AccessTokenResult authenticateApiKey(String apiKey, String apiKeySecret) {
+      authentications.incrementAndGet();
+      if (latch != null) {
+        try {
+          latch.await();
+        } catch (InterruptedException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+      if (failures.getAndDecrement() > 0) {
+        throw new IllegalStateException("Authentication failed");
+      }
+      return AccessTokenResult.of("access0", "bearer", expiresIn, "refresh");
+    }
+
+    @Override
+    public AccessTokenResult refreshToken(String refreshToken) {
+      int count = refreshes.incrementAndGet();
+      try {
+        // widen the window in which other threads find the token expired
+        Thread.sleep(50);
+      } catch (InterruptedException ex) {
+        throw new IllegalStateException(ex);
+      }
+      return AccessTokenResult.of("access" + count, "bearer", refreshedExpiresIn, "refresh");
+    }
+  }
+
+}
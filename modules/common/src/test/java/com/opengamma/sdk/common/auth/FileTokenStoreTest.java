@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.common.auth;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test {@link FileTokenStore}.
+ */
+@Test
+public class FileTokenStoreTest {
+
+  private static final char[] PASSWORD = "password".toCharArray();
+  private static final Instant NOW = Instant.parse("2017-06-01T12:00:00Z");
+
+  private Path dir;
+  private Path file;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("tokens");
+    file = dir.resolve("tokens.dat");
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+    Files.delete(dir);
+  }
+
+  //-------------------------------------------------------------------------
+  public void test_saveLoad() throws IOException {
+    TokenStore test = FileTokenStore.of(file, PASSWORD, Clock.fixed(NOW, ZoneOffset.UTC));
+    assertFalse(test.load("key1").isPresent());
+    test.save("key1", AccessTokenResult.of("access1", "bearer", 3600, "refresh1"));
+    test.save("key2", AccessTokenResult.of("access2", "bearer", 0, null));
+
+    // content is encrypted
+    String content = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+    assertTrue(content.startsWith("OGTOKENS1"));
+    assertFalse(content.contains("access1"));
+
+    // remaining lifetime is adjusted, and shared with other instances
+    TokenStore later = FileTokenStore.of(file, PASSWORD, Clock.fixed(NOW.plusSeconds(600), ZoneOffset.UTC));
+    assertEquals(later.load("key1").get(), AccessTokenResult.of("access1", "bearer", 3000, "refresh1"));
+    assertEquals(later.load("key2").get(), AccessTokenResult.of("access2", "bearer", 0, null));
+    assertFalse(later.load("key3").isPresent());
+    TokenStore expired = FileTokenStore.of(file, PASSWORD, Clock.fixed(NOW.plusSeconds(3600), ZoneOffset.UTC));
+    assertEquals(expired.load("key1").get().getExpiresIn(), -1);
+  }
+
+  public void test_wrongPassword() {
+    TokenStore test = FileTokenStore.of(file, PASSWORD);
+    test.save("key1", AccessTokenResult.of("access1", "bearer", 3600, "refresh1"));
+
+    TokenStore other = FileTokenStore.of(file, "other".toCharArray());
+    assertFalse(other.load("key1").isPresent());
+    other.save("key2", AccessTokenResult.of("access2", "bearer", 3600, "refresh2"));
+    assertTrue(other.load("key2").isPresent());
+    assertFalse(test.load("key2").isPresent());
+  }
+
+  public void test_emptyPassword() {
+    assertThrows(IllegalArgumentException.class, () -> TokenStore.ofFile(file, new char[0]));
+  }
+
+}
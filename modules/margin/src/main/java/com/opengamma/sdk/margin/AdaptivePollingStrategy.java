@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Polling strategy that learns the expected time to complete from previous calculations.
+ * <p>
+ * History is kept for each combination of CCP, calculation type and portfolio size,
+ * where the size is bucketed by powers of two.
+ * The expected time is an exponentially weighted moving average of the observed times.
+ * <p>
+ * The first poll is made at a fraction of the expected time, as the observed time includes
+ * the delay between the calculation completing and the poll that finds it.
+ * Subsequent polls back off exponentially from a fraction of the expected time, with jitter.
+ */
+final class AdaptivePollingStrategy implements PollingStrategy {
+
+  /**
+   * The initial delay when there is no history.
+   */
+  private static final long DEFAULT_INITIAL_MILLIS = 500;
+  /**
+   * The minimum delay between polls.
+   */
+  private static final long MIN_DELAY_MILLIS = 50;
+  /**
+   * The maximum delay between polls.
+   */
+  private static final long MAX_DELAY_MILLIS = 10_000;
+  /**
+   * The maximum delay before the first poll.
+   */
+  private static final long MAX_INITIAL_MILLIS = 600_000;
+  /**
+   * The fraction of the expected time at which the first poll is made.
+   */
+  private static final double INITIAL_FRACTION = 0.9;
+  /**
+   * The fraction of the expected time used as the base of the back off.
+   */
+  private static final double BACKOFF_FRACTION = 0.1;
+  /**
+   * The weight given to the latest observation.
+   */
+  private static final double ALPHA = 0.3;
+  /**
+   * The maximum fraction of each delay that is removed at random.
+   */
+  private static final double JITTER = 0.2;
+
+  /**
+   * The expected time to complete in milliseconds, keyed by CCP, type and size.
+   */
+  private final ConcurrentMap<HistoryKey, Double> expectedMillis = new ConcurrentHashMap<>();
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance with no history.
+   *
+   * @return the strategy
+   */
+  static AdaptivePollingStrategy of() {
+    return new AdaptivePollingStrategy();
+  }
+
+  private AdaptivePollingStrategy() {
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public Duration initialDelay(Ccp ccp, MarginCalcRequest request) {
+    Double expected = expectedMillis.get(HistoryKey.of(ccp, request));
+    if (expected == null) {
+      return Duration.ofMillis(DEFAULT_INITIAL_MILLIS);
+    }
+    long initial = (long) (expected * INITIAL_FRACTION);
+    return Duration.ofMillis(Math.max(MIN_DELAY_MILLIS, Math.min(MAX_INITIAL_MILLIS, initial)));
+  }
+
+  @Override
+  public Duration nextDelay(Ccp ccp, MarginCalcRequest request, int pollCount, Duration elapsed) {
+    Double expected = expectedMillis.get(HistoryKey.of(ccp, request));
+    double base = (expected == null ? DEFAULT_INITIAL_MILLIS : expected * BACKOFF_FRACTION);
+    double backoff = base * Math.pow(2, Math.min(pollCount - 1, 30));
+    double jittered = Math.min(backoff, MAX_DELAY_MILLIS) * (1 - JITTER * ThreadLocalRandom.current().nextDouble());
+    return Duration.ofMillis(Math.max(MIN_DELAY_MILLIS, (long) jittered));
+  }
+
+  @Override
+  public void completed(Ccp ccp, MarginCalcRequest request, Duration elapsed) {
+    double observed = elapsed.toMillis();
+    expectedMillis.merge(HistoryKey.of(ccp, request), observed, (old, obs) -> old + ALPHA * (obs - old));
+  }
+
+  @Override
+  public String toString() {
+    return "AdaptivePollingStrategy";
+  }
+
+  //-------------------------------------------------------------------------
+  // the key used to look up history
+  private static final class HistoryKey {
+    private final Ccp ccp;
+    private final MarginCalcRequestType type;
+    private final int sizeBucket;
+
+    private static HistoryKey of(Ccp ccp, MarginCalcRequest request) {
+      long size = 0;
+      for (PortfolioDataFile file : request.getPortfolioData()) {
+        size += file.getDataSize();
+      }
+      return new HistoryKey(ccp, request.getType(), 64 - Long.numberOfLeadingZeros(size));
+    }
+
+    private HistoryKey(Ccp ccp, MarginCalcRequestType type, int sizeBucket) {
+      this.ccp = ccp;
+      this.type = type;
+      this.sizeBucket = sizeBucket;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (obj instanceof HistoryKey) {
+        HistoryKey other = (HistoryKey) obj;
+        return ccp == other.ccp && type == other.type && sizeBucket == other.sizeBucket;
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(ccp, type, sizeBucket);
+    }
+  }
+
+}
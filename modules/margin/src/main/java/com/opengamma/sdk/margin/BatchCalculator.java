@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Submits a batch of margin calculations with bounded concurrency.
+ * <p>
+ * At most {@code maxConcurrency} calculations are in flight at any one time.
+ * When a calculation completes, successfully or not, the next queued item is submitted.
+ * A failure only completes the future of the item that failed.
+ */
+final class BatchCalculator {
+
+  /**
+   * The client used to perform each calculation.
+   */
+  private final MarginClient client;
+  /**
+   * The maximum number of calculations in flight.
+   */
+  private final int maxConcurrency;
+  /**
+   * The items waiting to be submitted.
+   */
+  private final Queue<MarginCalcBatchItem> queue = new ConcurrentLinkedQueue<>();
+  /**
+   * The result futures, keyed by item identifier.
+   */
+  private final Map<String, CompletableFuture<MarginCalcResult>> results = new LinkedHashMap<>();
+  /**
+   * The number of calculations in flight.
+   */
+  private final AtomicInteger inFlight = new AtomicInteger();
+  /**
+   * The number of pending requests to drain the queue, ensuring only one thread drains at a time.
+   */
+  private final AtomicInteger drainRequests = new AtomicInteger();
+
+  //-------------------------------------------------------------------------
+  /**
+   * Submits the batch.
+   *
+   * @param client  the client used to perform each calculation
+   * @param items  the items to calculate
+   * @param maxConcurrency  the maximum number of calculations in flight
+   * @return the result futures, keyed by item identifier, in the order of the items
+   * @throws IllegalArgumentException if the identifiers are not unique or the concurrency is invalid
+   */
+  static Map<String, CompletableFuture<MarginCalcResult>> submit(
+      MarginClient client,
+      List<MarginCalcBatchItem> items,
+      int maxConcurrency) {
+
+    BatchCalculator batch = new BatchCalculator(client, items, maxConcurrency);
+    batch.drain();
+    return Collections.unmodifiableMap(batch.results);
+  }
+
+  private BatchCalculator(MarginClient client, List<MarginCalcBatchItem> items, int maxConcurrency) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("maxConcurrency must be at least one: " + maxConcurrency);
+    }
+    this.client = client;
+    this.maxConcurrency = maxConcurrency;
+    for (MarginCalcBatchItem item : items) {
+      if (results.put(item.getId(), new CompletableFuture<>()) != null) {
+        throw new IllegalArgumentException("Batch item identifiers must be unique: " + item.getId());
+      }
+      queue.add(item);
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // submits queued items until the concurrency limit is reached
+  // a callback completing on the submitting thread re-enters here, so loop rather than recurse
+  private void drain() {
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+    do {
+      while (inFlight.get() < maxConcurrency) {
+        MarginCalcBatchItem item = queue.poll();
+        if (item == null) {
+          break;
+        }
+        inFlight.incrementAndGet();
+        start(item);
+      }
+    } while (drainRequests.decrementAndGet() != 0);
+  }
+
+  // starts a single item, isolating any failure to that item
+  private void start(MarginCalcBatchItem item) {
+    CompletableFuture<MarginCalcResult> resultPromise = results.get(item.getId());
+    if (resultPromise.isDone()) {
+      // cancelled by the caller before being started
+      inFlight.decrementAndGet();
+      return;
+    }
+    CompletableFuture<MarginCalcResult> calc = calculateAsync(item);
+    resultPromise.whenComplete((result, ex) -> {
+      if (resultPromise.isCancelled()) {
+        calc.cancel(false);
+      }
+    });
+    calc.whenComplete((result, ex) -> {
+      if (ex != null) {
+        resultPromise.completeExceptionally(ex);
+      } else {
+        resultPromise.complete(result);
+      }
+      inFlight.decrementAndGet();
+      drain();
+    });
+  }
+
+  // starts the calculation, capturing any immediate failure in the future
+  private CompletableFuture<MarginCalcResult> calculateAsync(MarginCalcBatchItem item) {
+    try {
+      return client.calculateAsync(item.getCcp(), item.getRequest());
+    } catch (RuntimeException ex) {
+      CompletableFuture<MarginCalcResult> failed = new CompletableFuture<>();
+      failed.completeExceptionally(ex);
+      return failed;
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Margin client that returns cached results where possible.
+ * <p>
+ * The calculate methods check the cache before calling the underlying client,
+ * and store completed results in the cache. All other methods, including those streaming
+ * the result to a handler, call the underlying client directly.
+ */
+final class CachingMarginClient implements MarginClient {
+
+  /**
+   * The underlying client.
+   */
+  private final MarginClient underlying;
+  /**
+   * The cache.
+   */
+  private final MarginResultCache cache;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance.
+   *
+   * @param underlying  the underlying client
+   * @param cache  the cache
+   * @return the client
+   */
+  static CachingMarginClient of(MarginClient underlying, MarginResultCache cache) {
+    return new CachingMarginClient(underlying, cache);
+  }
+
+  private CachingMarginClient(MarginClient underlying, MarginResultCache cache) {
+    this.underlying = Objects.requireNonNull(underlying, "underlying must not be null");
+    this.cache = Objects.requireNonNull(cache, "cache must not be null");
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public CcpsResult listCcps() {
+    return underlying.listCcps();
+  }
+
+  @Override
+  public CcpsResult listCcpsCached() {
+    return underlying.listCcpsCached();
+  }
+
+  @Override
+  public String createCalculation(Ccp ccp, MarginCalcRequest request) {
+    return underlying.createCalculation(ccp, request);
+  }
+
+  @Override
+  public MarginCalcResult getCalculation(Ccp ccp, String calcId) {
+    return underlying.getCalculation(ccp, calcId);
+  }
+
+  @Override
+  public MarginCalcResult getCalculation(Ccp ccp, String calcId, MarginCalcResultHandler handler) {
+    return underlying.getCalculation(ccp, calcId, handler);
+  }
+
+  @Override
+  public void deleteCalculation(Ccp ccp, String calcId) {
+    underlying.deleteCalculation(ccp, calcId);
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public MarginCalcResult calculate(Ccp ccp, MarginCalcRequest request) {
+    String key = cache.key(ccp, request);
+    Optional<MarginCalcResult> cached = cache.find(key);
+    if (cached.isPresent()) {
+      return cached.get();
+    }
+    MarginCalcResult result = underlying.calculate(ccp, request);
+    cache.put(key, result);
+    return result;
+  }
+
+  @Override
+  public MarginCalcResult calculate(Ccp ccp, MarginCalcRequest request, MarginCalcResultHandler handler) {
+    // the result is not held, so cannot be cached
+    return underlying.calculate(ccp, request, handler);
+  }
+
+  @Override
+  public MarginCalcResultColumns calculateColumnar(Ccp ccp, MarginCalcRequest request) {
+    // a cached result is converted, but the columns are not cached as a result
+    Optional<MarginCalcResult> cached = cache.find(cache.key(ccp, request));
+    if (cached.isPresent()) {
+      return MarginCalcResultColumns.of(cached.get());
+    }
+    return underlying.calculateColumnar(ccp, request);
+  }
+
+  @Override
+  public CompletableFuture<MarginCalcResult> calculateAsync(Ccp ccp, MarginCalcRequest request) {
+    String key;
+    try {
+      key = cache.key(ccp, request);
+    } catch (RuntimeException ex) {
+      CompletableFuture<MarginCalcResult> failed = new CompletableFuture<>();
+      failed.completeExceptionally(ex);
+      return failed;
+    }
+    Optional<MarginCalcResult> cached = cache.find(key);
+    if (cached.isPresent()) {
+      return CompletableFuture.completedFuture(cached.get());
+    }
+    CompletableFuture<MarginCalcResult> future = underlying.calculateAsync(ccp, request);
+    future.thenAccept(result -> cache.put(key, result));
+    return future;
+  }
+
+}
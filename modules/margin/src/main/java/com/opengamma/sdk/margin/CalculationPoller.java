@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Polls all pending calculations of a client from a single loop.
+ * <p>
+ * Rather than each calculation having its own timer, pending calculations are queued by CCP.
+ * Each calculation has a time at which it is next due to be polled, as determined by the {@link PollingStrategy}.
+ * Each round takes at most {@code maxPollsPerRound} due calculations from each queue and polls them asynchronously.
+ * Calculations that are still pending go to the back of their queue,
+ * ensuring every calculation gets a turn when many are in flight.
+ * The loop only runs while there are pending calculations, with the next round
+ * scheduled for when the earliest calculation is due.
+ */
+final class CalculationPoller {
+
+  /**
+   * The executor used to trigger each round.
+   */
+  private final ScheduledExecutorService executor;
+  /**
+   * The function used to fetch the calculation result, completing with null while pending.
+   */
+  private final BiFunction<Ccp, String, CompletableFuture<MarginCalcResult>> fetcher;
+  /**
+   * The strategy used to decide when to poll.
+   */
+  private final PollingStrategy strategy;
+  /**
+   * The minimum time between the start of each round, in nanoseconds.
+   */
+  private final long minRoundIntervalNanos;
+  /**
+   * The maximum number of calculations to poll for each CCP in a round.
+   */
+  private final int maxPollsPerRound;
+  /**
+   * The pending calculations, keyed by CCP.
+   */
+  private final Map<Ccp, Deque<Pending>> pending = new EnumMap<>(Ccp.class);
+  /**
+   * The next round, null if not scheduled, guarded by this.
+   */
+  private ScheduledFuture<?> nextRound;
+  /**
+   * The time of the next round, guarded by this.
+   */
+  private long nextRoundNanos;
+  /**
+   * The time of the start of the last round, guarded by this.
+   */
+  private long lastRoundNanos;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Creates an instance.
+   *
+   * @param executor  the executor used to trigger each round
+   * @param fetcher  the function used to fetch the calculation result, completing with null while pending
+   * @param strategy  the strategy used to decide when to poll
+   * @param minRoundInterval  the minimum time between the start of each round, in milliseconds
+   * @param maxPollsPerRound  the maximum number of calculations to poll for each CCP in a round
+   */
+  CalculationPoller(
+      ScheduledExecutorService executor,
+      BiFunction<Ccp, String, CompletableFuture<MarginCalcResult>> fetcher,
+      PollingStrategy strategy,
+      long minRoundInterval,
+      int maxPollsPerRound) {
+
+    this.executor = executor;
+    this.fetcher = fetcher;
+    this.strategy = strategy;
+    this.minRoundIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minRoundInterval);
+    this.maxPollsPerRound = maxPollsPerRound;
+    this.lastRoundNanos = System.nanoTime() - minRoundIntervalNanos;
+    for (Ccp ccp : Ccp.values()) {
+      pending.put(ccp, new ConcurrentLinkedDeque<>());
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Registers a calculation to be polled until it completes.
+   * <p>
+   * The future is completed when the calculation completes, fails or times out.
+   * If the future is completed by the caller, polling stops.
+   *
+   * @param ccp  the CCP
+   * @param calcId  the calculation identifier
+   * @param request  the calculation request
+   * @param timeout  the instant after which polling fails
+   * @param resultPromise  the future to complete
+   */
+  void register(
+      Ccp ccp,
+      String calcId,
+      MarginCalcRequest request,
+      Instant timeout,
+      CompletableFuture<MarginCalcResult> resultPromise) {
+
+    Pending calc = new Pending(ccp, calcId, request, timeout, resultPromise);
+    calc.dueNanos = calc.startNanos + strategy.initialDelay(ccp, request).toNanos();
+    enqueue(calc);
+  }
+
+  // adds the calculation to the back of its queue
+  private void enqueue(Pending calc) {
+    pending.get(calc.ccp).addLast(calc);
+    scheduleRound(calc.dueNanos);
+  }
+
+  // schedules a round at the specified time, unless one is already scheduled before then
+  private synchronized void scheduleRound(long dueNanos) {
+    long roundNanos = Math.max(dueNanos, lastRoundNanos + minRoundIntervalNanos);
+    if (nextRound != null) {
+      if (nextRoundNanos - roundNanos <= 0) {
+        return;
+      }
+      nextRound.cancel(false);
+    }
+    try {
+      nextRound = executor.schedule(this::round, roundNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+      nextRoundNanos = roundNanos;
+    } catch (RejectedExecutionException ex) {
+      nextRound = null;
+      failAll(ex);
+    }
+  }
+
+  // polls up to the maximum number of due calculations for each CCP
+  private void round() {
+    long now = System.nanoTime();
+    synchronized (this) {
+      nextRound = null;
+      lastRoundNanos = now;
+    }
+    boolean remaining = false;
+    long earliestDueNanos = Long.MAX_VALUE;
+    for (Deque<Pending> queue : pending.values()) {
+      int polled = 0;
+      for (int i = queue.size(); i > 0; i--) {
+        Pending calc = queue.pollFirst();
+        if (calc == null) {
+          break;
+        }
+        if (calc.resultPromise.isDone()) {
+          continue;
+        }
+        if (polled < maxPollsPerRound && calc.dueNanos - now <= 0) {
+          polled++;
+          poll(calc);
+        } else {
+          queue.addLast(calc);
+          earliestDueNanos = remaining ? Math.min(earliestDueNanos, calc.dueNanos) : calc.dueNanos;
+          remaining = true;
+        }
+      }
+    }
+    // calculations left in the queues need another round
+    // calculations being polled will schedule a round when they are re-queued
+    if (remaining) {
+      scheduleRound(earliestDueNanos);
+    }
+  }
+
+  // polls a single calculation asynchronously
+  private void poll(Pending calc) {
+    CompletableFuture<MarginCalcResult> fetched;
+    try {
+      fetched = fetcher.apply(calc.ccp, calc.calcId);
+    } catch (RuntimeException ex) {
+      calc.resultPromise.completeExceptionally(ex);
+      return;
+    }
+    fetched.whenComplete((calcResult, ex) -> {
+      calc.pollCount++;
+      long now = System.nanoTime();
+      Duration elapsed = Duration.ofNanos(now - calc.startNanos);
+      if (ex != null) {
+        calc.resultPromise.completeExceptionally(ex);
+      } else if (calcResult != null) {
+        strategy.completed(calc.ccp, calc.request, elapsed);
+        calc.resultPromise.complete(calcResult);
+      } else if (Instant.now().isAfter(calc.timeout)) {
+        calc.resultPromise.completeExceptionally(new IllegalStateException("Timed out while polling margin service"));
+      } else if (!calc.resultPromise.isDone()) {
+        calc.dueNanos = now + strategy.nextDelay(calc.ccp, calc.request, calc.pollCount, elapsed).toNanos();
+        enqueue(calc);
+      }
+    });
+  }
+
+  // fails all pending calculations
+  private void failAll(Throwable ex) {
+    for (Deque<Pending> queue : pending.values()) {
+      Pending calc;
+      while ((calc = queue.pollFirst()) != null) {
+        calc.resultPromise.completeExceptionally(ex);
+      }
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // a calculation that is being polled
+  // the mutable state is only accessed by one thread at a time, with hand-off via the queue
+  private static final class Pending {
+    private final Ccp ccp;
+    private final String calcId;
+    private final MarginCalcRequest request;
+    private final Instant timeout;
+    private final CompletableFuture<MarginCalcResult> resultPromise;
+    private final long startNanos = System.nanoTime();
+    private long dueNanos;
+    private int pollCount;
+
+    private Pending(
+        Ccp ccp,
+        String calcId,
+        MarginCalcRequest request,
+        Instant timeout,
+        CompletableFuture<MarginCalcResult> resultPromise) {
+
+      this.ccp = ccp;
+      this.calcId = calcId;
+      this.request = request;
+      this.timeout = timeout;
+      this.resultPromise = resultPromise;
+    }
+  }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Cache of the available CCPs, refreshed in the background.
+ * <p>
+ * The first call to {@link #get()} loads the CCPs, blocking until they are available.
+ * Thereafter, {@code get()} returns the latest known CCPs without blocking,
+ * while a background task periodically revalidates them with the service.
+ * The fetcher is expected to make a conditional request, using the validators
+ * of the current snapshot, so that revalidation is cheap when nothing has changed.
+ * If revalidation fails, the last known CCPs continue to be returned.
+ * <p>
+ * The background task only holds a weak reference to the cache, and cancels itself
+ * once the cache, and thus the client that owns it, is no longer in use.
+ */
+final class CcpsCache {
+
+  /**
+   * The executor used to trigger refreshes.
+   */
+  private final ScheduledExecutorService executor;
+  /**
+   * The function used to fetch the CCPs, passed the current snapshot, which is null on first load.
+   * It returns the current snapshot if unchanged.
+   */
+  private final Function<Snapshot, CompletableFuture<Snapshot>> fetcher;
+  /**
+   * The time between refreshes.
+   */
+  private final Duration refreshInterval;
+  /**
+   * The latest snapshot, null until loaded.
+   */
+  private volatile Snapshot current;
+  /**
+   * The first load, null if not started, guarded by this.
+   */
+  private CompletableFuture<Snapshot> loading;
+  /**
+   * Whether a refresh is in progress.
+   */
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+
+  //-------------------------------------------------------------------------
+  /**
+   * Creates an instance.
+   *
+   * @param executor  the executor used to trigger refreshes
+   * @param fetcher  the function used to fetch the CCPs
+   * @param refreshInterval  the time between refreshes
+   */
+  CcpsCache(
+      ScheduledExecutorService executor,
+      Function<Snapshot, CompletableFuture<Snapshot>> fetcher,
+      Duration refreshInterval) {
+
+    this.executor = executor;
+    this.fetcher = fetcher;
+    this.refreshInterval = refreshInterval;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the latest known CCPs, loading them if necessary.
+   *
+   * @return the CCPs
+   * @throws RuntimeException if the CCPs could not be loaded
+   */
+  CcpsResult get() {
+    Snapshot snapshot = current;
+    if (snapshot != null) {
+      return snapshot.getResult();
+    }
+    try {
+      return load().join().getResult();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  // loads the CCPs, sharing the load between concurrent callers
+  private synchronized CompletableFuture<Snapshot> load() {
+    if (current != null) {
+      return CompletableFuture.completedFuture(current);
+    }
+    if (loading != null) {
+      return loading;
+    }
+    // the fetch may complete immediately, in which case loaded() has run before this returns
+    CompletableFuture<Snapshot> future = fetcher.apply(null);
+    loading = future;
+    future.whenComplete((snapshot, ex) -> loaded(future, snapshot));
+    return future;
+  }
+
+  // handles completion of the first load
+  private synchronized void loaded(CompletableFuture<Snapshot> future, Snapshot snapshot) {
+    if (loading != future) {
+      return;
+    }
+    loading = null;
+    if (snapshot != null) {
+      current = snapshot;
+      try {
+        long intervalNanos = refreshInterval.toNanos();
+        RefreshTask task = new RefreshTask(this);
+        task.scheduled = executor.scheduleWithFixedDelay(task, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException ex) {
+        // the client is closed, so there is no need to refresh
+      }
+    }
+  }
+
+  /**
+   * Refreshes the CCPs asynchronously.
+   * <p>
+   * If the CCPs have not been loaded, this loads them.
+   * If a refresh is already in progress, no additional refresh occurs.
+   *
+   * @return the future that completes when the refresh completes
+   */
+  CompletableFuture<CcpsResult> refresh() {
+    Snapshot snapshot = current;
+    if (snapshot == null) {
+      return load().thenApply(Snapshot::getResult);
+    }
+    if (!refreshing.compareAndSet(false, true)) {
+      return CompletableFuture.completedFuture(snapshot.getResult());
+    }
+    CompletableFuture<Snapshot> future;
+    try {
+      future = fetcher.apply(snapshot);
+    } catch (RuntimeException ex) {
+      refreshing.set(false);
+      CompletableFuture<CcpsResult> failed = new CompletableFuture<>();
+      failed.completeExceptionally(ex);
+      return failed;
+    }
+    return future
+        .whenComplete((refreshed, ex) -> {
+          if (refreshed != null) {
+            current = refreshed;
+          }
+          refreshing.set(false);
+        })
+        .thenApply(Snapshot::getResult);
+  }
+
+  //-------------------------------------------------------------------------
+  // the periodic refresh, which must not prevent the cache from being garbage collected
+  private static final class RefreshTask implements Runnable {
+    private final WeakReference<CcpsCache> cache;
+    private volatile ScheduledFuture<?> scheduled;
+
+    private RefreshTask(CcpsCache cache) {
+      this.cache = new WeakReference<>(cache);
+    }
+
+    @Override
+    public void run() {
+      CcpsCache target = cache.get();
+      if (target != null) {
+        target.refresh();
+      } else if (scheduled != null) {
+        scheduled.cancel(false);
+      }
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * A snapshot of the CCPs, with the validators used to check if they have changed.
+   */
+  static final class Snapshot {
+    private final CcpsResult result;
+    private final String etag;
+    private final String lastModified;
+
+    /**
+     * Creates an instance.
+     *
+     * @param result  the CCPs
+     * @param etag  the entity tag, null if not known
+     * @param lastModified  the last modified date, null if not known
+     */
+    Snapshot(CcpsResult result, String etag, String lastModified) {
+      this.result = result;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+
+    CcpsResult getResult() {
+      return result;
+    }
+
+    String getEtag() {
+      return etag;
+    }
+
+    String getLastModified() {
+      return lastModified;
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Polling strategy that polls at a fixed interval.
+ */
+final class FixedPollingStrategy implements PollingStrategy {
+
+  /**
+   * The interval between polls.
+   */
+  private final Duration interval;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance.
+   *
+   * @param interval  the interval between polls
+   * @return the strategy
+   */
+  static FixedPollingStrategy of(Duration interval) {
+    return new FixedPollingStrategy(interval);
+  }
+
+  private FixedPollingStrategy(Duration interval) {
+    Objects.requireNonNull(interval, "interval must not be null");
+    if (interval.isNegative()) {
+      throw new IllegalArgumentException("interval must not be negative: " + interval);
+    }
+    this.interval = interval;
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public Duration initialDelay(Ccp ccp, MarginCalcRequest request) {
+    return interval;
+  }
+
+  @Override
+  public Duration nextDelay(Ccp ccp, MarginCalcRequest request, int pollCount, Duration elapsed) {
+    return interval;
+  }
+
+  @Override
+  public void completed(Ccp ccp, MarginCalcRequest request, Duration elapsed) {
+    // no history needed
+  }
+
+  @Override
+  public String toString() {
+    return "FixedPollingStrategy[" + interval + "]";
+  }
+
+}
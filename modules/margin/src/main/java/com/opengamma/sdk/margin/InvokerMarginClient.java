@@ -12,18 +12,20 @@ import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-
-import org.joda.beans.ser.JodaBeanSer;
+import java.util.function.Function;
 
+import com.opengamma.sdk.common.JsonReader;
+import com.opengamma.sdk.common.RetryPolicy;
 import com.opengamma.sdk.common.ServiceInvoker;
 
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
 /**
@@ -32,9 +34,13 @@ import okhttp3.Response;
 final class InvokerMarginClient implements MarginClient {
 
   /**
-   * Sleep for 500ms between polls.
+   * Minimum time between the start of each polling round, in milliseconds.
+   */
+  private static final long POLL_ROUND_INTERVAL = 100;
+  /**
+   * Maximum number of calculations polled for each CCP in a single polling round.
    */
-  private static final long POLL_WAIT = 500;
+  private static final int MAX_POLLS_PER_ROUND = 25;
   /**
    * Timeout for polling the result.
    */
@@ -43,11 +49,47 @@ final class InvokerMarginClient implements MarginClient {
    * HTTP header.
    */
   private static final String LOCATION = "Location";
+  /**
+   * Time between background refreshes of the available CCPs.
+   */
+  private static final Duration CCPS_REFRESH_INTERVAL = Duration.ofMinutes(5);
+  /**
+   * HTTP header.
+   */
+  private static final String ETAG = "ETag";
+  /**
+   * HTTP header.
+   */
+  private static final String LAST_MODIFIED = "Last-Modified";
+  /**
+   * HTTP header, listing the hashes of portfolio data that the service has stored.
+   */
+  private static final String PORTFOLIO_DATA_STORED = "Portfolio-Data-Stored";
+  /**
+   * Maximum number of portfolio data hashes to remember.
+   */
+  private static final int UPLOAD_CACHE_SIZE = 1000;
 
   /**
    * The service invoker.
    */
   private final ServiceInvoker invoker;
+  /**
+   * The strategy used to decide when to poll.
+   */
+  private final PollingStrategy pollingStrategy;
+  /**
+   * The poller, shared by all pending asynchronous calculations.
+   */
+  private final CalculationPoller poller;
+  /**
+   * The hashes of portfolio data held by the service, avoiding repeated uploads.
+   */
+  private final PortfolioDataCache uploadCache = PortfolioDataCache.of(UPLOAD_CACHE_SIZE);
+  /**
+   * The available CCPs, refreshed in the background.
+   */
+  private final CcpsCache ccpsCache;
 
   //-------------------------------------------------------------------------
   /**
@@ -57,116 +99,130 @@ final class InvokerMarginClient implements MarginClient {
    * @return the client
    */
   static InvokerMarginClient of(ServiceInvoker invoker) {
-    return new InvokerMarginClient(invoker);
+    return new InvokerMarginClient(invoker, PollingStrategy.adaptive());
+  }
+
+  /**
+   * Obtains an instance.
+   * 
+   * @param invoker  the service invoker
+   * @param pollingStrategy  the strategy used to decide when to poll
+   * @return the client
+   */
+  static InvokerMarginClient of(ServiceInvoker invoker, PollingStrategy pollingStrategy) {
+    return new InvokerMarginClient(invoker, pollingStrategy);
   }
 
-  private InvokerMarginClient(ServiceInvoker invoker) {
+  private InvokerMarginClient(ServiceInvoker invoker, PollingStrategy pollingStrategy) {
     this.invoker = Objects.requireNonNull(invoker, "invoker must not be null");
+    this.pollingStrategy = Objects.requireNonNull(pollingStrategy, "pollingStrategy must not be null");
+    this.poller = new CalculationPoller(
+        invoker.getExecutor(),
+        (ccp, calcId) -> invokeAsync(getCalculationRequest(ccp, calcId), this::handlePollCalculation),
+        pollingStrategy,
+        POLL_ROUND_INTERVAL,
+        MAX_POLLS_PER_ROUND);
+    this.ccpsCache = new CcpsCache(
+        invoker.getExecutor(),
+        current -> invokeAsync(listCcpsRequest(current), response -> handleListCcps(response, current)),
+        CCPS_REFRESH_INTERVAL);
   }
 
   //-------------------------------------------------------------------------
   @Override
   public CcpsResult listCcps() {
-    Request request = new Request.Builder()
-        .url(invoker.getServiceUrl().resolve("/margin/v1/ccps"))
-        .get()
-        .header("Accept", MEDIA_JSON.toString())
-        .build();
+    return invoke(listCcpsRequest(null), response -> handleListCcps(response, null).getResult());
+  }
 
-    try (Response response = invoker.getHttpClient().newCall(request).execute()) {
-      if (!response.isSuccessful()) {
-        ErrorMessage errorMessage = parseError(response);
-        throw new IllegalStateException("Request failed. Reason: " + errorMessage.getReason() + ", status code: " +
-            response.code() + ", message: " + errorMessage.getMessage());
-      }
-      return JodaBeanSer.COMPACT.jsonReader().read(response.body().string(), CcpsResult.class);
+  @Override
+  public CcpsResult listCcpsCached() {
+    return ccpsCache.get();
+  }
 
-    } catch (IOException ex) {
-      throw new UncheckedIOException(ex);
-    }
+  /**
+   * Refreshes the available CCPs, revalidating them with the service.
+   * <p>
+   * This is normally performed periodically in the background.
+   *
+   * @return the future that completes when the refresh completes
+   */
+  CompletableFuture<CcpsResult> refreshCcps() {
+    return ccpsCache.refresh();
   }
 
   @Override
   public String createCalculation(Ccp ccp, MarginCalcRequest calcRequest) {
-    String text = JodaBeanSer.COMPACT.jsonWriter().write(calcRequest, false);
-    RequestBody body = RequestBody.create(MEDIA_JSON, text);
-    Request request = new Request.Builder()
-        .url(invoker.getServiceUrl().resolve("/margin/v1/ccps/" + ccp.name().toLowerCase(Locale.ENGLISH) + "/calculations"))
-        .post(body)
-        .header("Content-Type", MEDIA_JSON.toString())
-        .header("Accept", MEDIA_JSON.toString())
-        .build();
-
-    try (Response response = invoker.getHttpClient().newCall(request).execute()) {
-      if (response.code() != 202) {
-        ErrorMessage errorMessage = parseError(response);
-        throw new IllegalStateException("Request failed. Reason: " + errorMessage.getReason() + ", status code: " +
-            response.code() + ", message: " + errorMessage.getMessage());
-      }
-      String location = response.header(LOCATION);
-      return location.substring(location.lastIndexOf('/') + 1);
-
-    } catch (IOException ex) {
-      throw new UncheckedIOException(ex);
+    MarginCalcRequestBody body = MarginCalcRequestBody.of(calcRequest, uploadCache);
+    List<String> referenced = body.getReferencedHashes();
+    String calcId = invoke(createCalculationRequest(ccp, body), response -> handleCreateCalculation(response, referenced));
+    if (calcId != null) {
+      return calcId;
     }
+    // the service no longer holds referenced data, so send all the data
+    return invoke(
+        createCalculationRequest(ccp, MarginCalcRequestBody.of(calcRequest)),
+        response -> handleCreateCalculation(response, Collections.emptyList()));
   }
 
   @Override
   public MarginCalcResult getCalculation(Ccp ccp, String calcId) {
-    Request request = new Request.Builder()
-        .url(invoker.getServiceUrl()
-            .resolve("/margin/v1/ccps/" + ccp.name().toLowerCase(Locale.ENGLISH) + "/calculations/" + calcId))
-        .get()
-        .header("Accept", MEDIA_JSON.toString())
-        .build();
-
-    try (Response response = invoker.getHttpClient().newCall(request).execute()) {
-      if (!response.isSuccessful()) {
-        ErrorMessage errorMessage = parseError(response);
-        throw new IllegalStateException("Request failed. Reason: " + errorMessage.getReason() + ", status code: " +
-            response.code() + ", message: " + errorMessage.getMessage());
-      }
-      return JodaBeanSer.COMPACT.jsonReader().read(response.body().string(), MarginCalcResult.class);
+    return invoke(getCalculationRequest(ccp, calcId), this::handleGetCalculation);
+  }
 
-    } catch (IOException ex) {
-      throw new UncheckedIOException(ex);
-    }
+  @Override
+  public MarginCalcResult getCalculation(Ccp ccp, String calcId, MarginCalcResultHandler handler) {
+    Objects.requireNonNull(handler, "handler must not be null");
+    return invoke(getCalculationRequest(ccp, calcId), response -> handleGetCalculation(response, handler));
   }
 
   @Override
   public void deleteCalculation(Ccp ccp, String calcId) {
-    Request request = new Request.Builder()
-        .url(invoker.getServiceUrl()
-            .resolve("/margin/v1/ccps/" + ccp.name().toLowerCase(Locale.ENGLISH) + "/calculations/" + calcId))
-        .delete()
-        .header("Accept", MEDIA_JSON.toString())
-        .build();
-
-    try (Response response = invoker.getHttpClient().newCall(request).execute()) {
-      if (!response.isSuccessful()) {
-        ErrorMessage errorMessage = parseError(response);
-        throw new IllegalStateException("Request failed. Reason: " + errorMessage.getReason() + ", status code: " +
-            response.code() + ", message: " + errorMessage.getMessage());
-      }
-
-    } catch (IOException ex) {
-      throw new UncheckedIOException(ex);
-    }
+    invoke(deleteCalculationRequest(ccp, calcId), this::handleDeleteCalculation);
   }
 
   //-------------------------------------------------------------------------
   @Override
   public MarginCalcResult calculate(Ccp ccp, MarginCalcRequest request) {
+    return calculate(ccp, request, calcId -> invoke(getCalculationRequest(ccp, calcId), this::handlePollCalculation));
+  }
+
+  @Override
+  public MarginCalcResult calculate(Ccp ccp, MarginCalcRequest request, MarginCalcResultHandler handler) {
+    Objects.requireNonNull(handler, "handler must not be null");
+    return calculate(
+        ccp,
+        request,
+        calcId -> invoke(getCalculationRequest(ccp, calcId), response -> handlePollCalculation(response, handler)));
+  }
+
+  @Override
+  public MarginCalcResultColumns calculateColumnar(Ccp ccp, MarginCalcRequest request) {
+    return calculate(ccp, request, calcId -> invoke(getCalculationRequest(ccp, calcId), this::handlePollColumns));
+  }
+
+  // creates the calculation, polls until complete using the function, and then deletes the calculation
+  // the function returns null while the calculation is pending
+  private <T> T calculate(Ccp ccp, MarginCalcRequest request, Function<String, T> pollFn) {
     String calcId = createCalculation(ccp, request);
-    MarginCalcResult result = getCalculation(ccp, calcId);
-    while (result.getStatus() == MarginCalcResultStatus.PENDING) {
+    long startNanos = System.nanoTime();
+    Duration delay = pollingStrategy.initialDelay(ccp, request);
+    int pollCount = 0;
+    T result;
+    do {
       try {
-        Thread.sleep(POLL_WAIT);
+        Thread.sleep(delay.toMillis());
       } catch (InterruptedException ex) {
         throw new RuntimeException(ex);
       }
-      result = getCalculation(ccp, calcId);
-    }
+      result = pollFn.apply(calcId);
+      pollCount++;
+      Duration elapsed = Duration.ofNanos(System.nanoTime() - startNanos);
+      if (result == null) {
+        delay = pollingStrategy.nextDelay(ccp, request, pollCount, elapsed);
+      } else {
+        pollingStrategy.completed(ccp, request, elapsed);
+      }
+    } while (result == null);
     // cleanup server state quietly
     try {
       deleteCalculation(ccp, calcId);
@@ -179,43 +235,204 @@ final class InvokerMarginClient implements MarginClient {
   @Override
   public CompletableFuture<MarginCalcResult> calculateAsync(Ccp ccp, MarginCalcRequest request) {
     CompletableFuture<MarginCalcResult> resultPromise = new CompletableFuture<>();
+    Instant timeout = Instant.now().plus(POLL_TIMEOUT);
 
-    Runnable r = () -> {
-      String calcId = createCalculation(ccp, request);
-      Instant timeout = Instant.now().plus(POLL_TIMEOUT);
-      Runnable pollTask = () -> {
-        MarginCalcResult calcResult = getCalculation(ccp, calcId);
-        if (calcResult.getStatus() == MarginCalcResultStatus.COMPLETED) {
-          resultPromise.complete(calcResult);
-          return;
-        }
-        if (Instant.now().isAfter(timeout)) {
-          resultPromise.completeExceptionally(new IllegalStateException("Timed out while polling margin service"));
-          return;
-        }
-      };
-      ScheduledFuture<?> scheduledTask =
-          invoker.getExecutor().scheduleWithFixedDelay(pollTask, POLL_WAIT, POLL_WAIT, TimeUnit.MILLISECONDS);
-      resultPromise.whenComplete((res, ex) -> {
-        scheduledTask.cancel(true);
-        // cleanup server state quietly
-        try {
-          deleteCalculation(ccp, calcId);
-        } catch (RuntimeException ex2) {
-          // ignore
+    // each stage is a callback on completion of an HTTP call, so no thread is held while waiting
+    // polling is shared with all other pending calculations of this client
+    createCalculationAsync(ccp, request)
+        .whenComplete((calcId, ex) -> {
+          if (ex != null) {
+            resultPromise.completeExceptionally(ex);
+            return;
+          }
+          resultPromise.whenComplete((res, ex2) -> {
+            // cleanup server state quietly
+            invokeAsync(deleteCalculationRequest(ccp, calcId), this::handleDeleteCalculation);
+          });
+          poller.register(ccp, calcId, request, timeout, resultPromise);
+        });
+    return resultPromise;
+  }
+
+  // creates the calculation asynchronously, sending all the data if the service no longer holds referenced data
+  private CompletableFuture<String> createCalculationAsync(Ccp ccp, MarginCalcRequest request) {
+    MarginCalcRequestBody body = MarginCalcRequestBody.of(request, uploadCache);
+    List<String> referenced = body.getReferencedHashes();
+    return invokeAsync(createCalculationRequest(ccp, body), response -> handleCreateCalculation(response, referenced))
+        .thenCompose(calcId -> calcId != null ?
+            CompletableFuture.completedFuture(calcId) :
+            invokeAsync(
+                createCalculationRequest(ccp, MarginCalcRequestBody.of(request)),
+                response -> handleCreateCalculation(response, Collections.emptyList())));
+  }
+
+  //-------------------------------------------------------------------------
+  private Request listCcpsRequest(CcpsCache.Snapshot current) {
+    Request.Builder builder = new Request.Builder()
+        .url(invoker.getServiceUrl().resolve("/margin/v1/ccps"))
+        .get()
+        .header("Accept", MEDIA_JSON.toString());
+    // revalidate the current result, preferring the entity tag
+    if (current != null && current.getEtag() != null) {
+      builder.header("If-None-Match", current.getEtag());
+    } else if (current != null && current.getLastModified() != null) {
+      builder.header("If-Modified-Since", current.getLastModified());
+    }
+    return builder.build();
+  }
+
+  private Request createCalculationRequest(Ccp ccp, MarginCalcRequestBody body) {
+    return new Request.Builder()
+        .url(invoker.getServiceUrl().resolve("/margin/v1/ccps/" + ccp.name().toLowerCase(Locale.ENGLISH) + "/calculations"))
+        .post(body)
+        .header("Content-Type", MEDIA_JSON.toString())
+        .header("Accept", MEDIA_JSON.toString())
+        // allows the request to be retried without creating the calculation twice, if enabled by the retry policy
+        .header(RetryPolicy.IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString())
+        .build();
+  }
+
+  private Request getCalculationRequest(Ccp ccp, String calcId) {
+    return new Request.Builder()
+        .url(invoker.getServiceUrl()
+            .resolve("/margin/v1/ccps/" + ccp.name().toLowerCase(Locale.ENGLISH) + "/calculations/" + calcId))
+        .get()
+        .header("Accept", MEDIA_JSON.toString())
+        .build();
+  }
+
+  private Request deleteCalculationRequest(Ccp ccp, String calcId) {
+    return new Request.Builder()
+        .url(invoker.getServiceUrl()
+            .resolve("/margin/v1/ccps/" + ccp.name().toLowerCase(Locale.ENGLISH) + "/calculations/" + calcId))
+        .delete()
+        .header("Accept", MEDIA_JSON.toString())
+        .build();
+  }
+
+  //-------------------------------------------------------------------------
+  private CcpsCache.Snapshot handleListCcps(Response response, CcpsCache.Snapshot current) throws IOException {
+    if (response.code() == 304 && current != null) {
+      return current;
+    }
+    checkStatus(response, response.isSuccessful());
+    CcpsResult result = MarginDecoders.CCPS_RESULT.decode(response.body().source());
+    return new CcpsCache.Snapshot(result, response.header(ETAG), response.header(LAST_MODIFIED));
+  }
+
+  // returns null if the service rejected the request as it no longer holds referenced data
+  private String handleCreateCalculation(Response response, List<String> referenced) throws IOException {
+    if (response.code() == 412 && !referenced.isEmpty()) {
+      uploadCache.evict(referenced);
+      return null;
+    }
+    checkStatus(response, response.code() == 202);
+    String stored = response.header(PORTFOLIO_DATA_STORED);
+    if (stored != null) {
+      List<String> hashes = new ArrayList<>();
+      for (String hash : stored.split(",")) {
+        if (!hash.trim().isEmpty()) {
+          hashes.add(hash.trim());
         }
+      }
+      uploadCache.confirmed(hashes);
+    }
+    String location = response.header(LOCATION);
+    return location.substring(location.lastIndexOf('/') + 1);
+  }
 
-      });
-    };
-    invoker.getExecutor().execute(r);
+  private MarginCalcResult handleGetCalculation(Response response) throws IOException {
+    checkStatus(response, response.isSuccessful());
+    return MarginDecoders.MARGIN_CALC_RESULT.decode(response.body().source());
+  }
 
-    return resultPromise;
+  // parses the response incrementally, without reading the whole body
+  private MarginCalcResult handleGetCalculation(Response response, MarginCalcResultHandler handler) throws IOException {
+    checkStatus(response, response.isSuccessful());
+    return MarginCalcResultReader.read(JsonReader.of(response.body().source()), handler);
+  }
+
+  // returns null if pending, parsing only as far as the status, otherwise parses the whole result once
+  private MarginCalcResult handlePollCalculation(Response response) throws IOException {
+    checkStatus(response, response.isSuccessful());
+    return MarginDecoders.decodeResultUnlessPending(response.body().source());
+  }
+
+  // returns null if pending, reading only as far as the status, otherwise streams the result to the handler
+  // the body is not buffered, so there is no fallback to Joda-Beans
+  private MarginCalcResult handlePollCalculation(Response response, MarginCalcResultHandler handler) throws IOException {
+    checkStatus(response, response.isSuccessful());
+    return MarginCalcResultReader.readUnlessPending(JsonReader.of(response.body().source()), handler);
+  }
+
+  // returns null if pending, parsing only as far as the status, otherwise reads the result into columns
+  private MarginCalcResultColumns handlePollColumns(Response response) throws IOException {
+    checkStatus(response, response.isSuccessful());
+    return MarginDecoders.decodeColumnsUnlessPending(response.body().source());
+  }
+
+  private Void handleDeleteCalculation(Response response) throws IOException {
+    checkStatus(response, response.isSuccessful());
+    return null;
+  }
+
+  // throws an exception if the response is not as expected
+  private void checkStatus(Response response, boolean expected) throws IOException {
+    if (!expected) {
+      ErrorMessage errorMessage = parseError(response);
+      throw new IllegalStateException("Request failed. Reason: " + errorMessage.getReason() + ", status code: " +
+          response.code() + ", message: " + errorMessage.getMessage());
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // invokes the service synchronously, blocking the calling thread
+  private <T> T invoke(Request request, ResponseHandler<T> handler) {
+    try (Response response = invoker.getHttpClient().newCall(request).execute()) {
+      return handler.handle(response);
+
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  // invokes the service asynchronously, completing the future from the HTTP client callback
+  // the invoker waits for the access token and between retries without holding any thread
+  private <T> CompletableFuture<T> invokeAsync(Request request, ResponseHandler<T> handler) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    CompletableFuture<Response> responseFuture = invoker.invokeAsync(request);
+    responseFuture.whenComplete((response, failure) -> {
+      if (failure != null) {
+        future.completeExceptionally(
+            failure instanceof IOException ? new UncheckedIOException((IOException) failure) : failure);
+        return;
+      }
+      try (Response closeable = response) {
+        future.complete(handler.handle(closeable));
+      } catch (IOException ex) {
+        future.completeExceptionally(new UncheckedIOException(ex));
+      } catch (RuntimeException ex) {
+        future.completeExceptionally(ex);
+      }
+    });
+    future.whenComplete((res, ex) -> {
+      if (future.isCancelled()) {
+        responseFuture.cancel(false);
+      }
+    });
+    return future;
+  }
+
+  // handles the HTTP response
+  @FunctionalInterface
+  private interface ResponseHandler<T> {
+    T handle(Response response) throws IOException;
   }
 
   // avoid errors when processing errors
   private ErrorMessage parseError(Response response) throws IOException {
     try {
-      return JodaBeanSer.COMPACT.jsonReader().read(response.body().string(), ErrorMessage.class);
+      return MarginDecoders.ERROR_MESSAGE.decode(response.body().source());
     } catch (RuntimeException ex) {
       return ErrorMessage.of(response.code(), "Unexpected JSON error", ex.getMessage());
     }
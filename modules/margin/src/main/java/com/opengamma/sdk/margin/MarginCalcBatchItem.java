@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.joda.beans.Bean;
+import org.joda.beans.BeanBuilder;
+import org.joda.beans.BeanDefinition;
+import org.joda.beans.ImmutableBean;
+import org.joda.beans.JodaBeanUtils;
+import org.joda.beans.MetaBean;
+import org.joda.beans.MetaProperty;
+import org.joda.beans.Property;
+import org.joda.beans.PropertyDefinition;
+import org.joda.beans.impl.direct.DirectMetaBean;
+import org.joda.beans.impl.direct.DirectMetaProperty;
+import org.joda.beans.impl.direct.DirectMetaPropertyMap;
+import org.joda.beans.impl.direct.DirectPrivateBeanBuilder;
+
+/**
+ * An item in a batch of margin calculations.
+ * <p>
+ * Each item combines the CCP and request with an identifier chosen by the caller.
+ * The identifier is used to key the results of the batch.
+ */
+@BeanDefinition(builderScope = "private", metaScope = "private", factoryName = "of")
+public final class MarginCalcBatchItem implements ImmutableBean {
+
+  /**
+   * The identifier of the item, chosen by the caller and unique within the batch.
+   */
+  @PropertyDefinition(validate = "notEmpty")
+  private final String id;
+  /**
+   * The CCP to use.
+   */
+  @PropertyDefinition(validate = "notNull")
+  private final Ccp ccp;
+  /**
+   * The calculation request.
+   */
+  @PropertyDefinition(validate = "notNull")
+  private final MarginCalcRequest request;
+
+  //------------------------- AUTOGENERATED START -------------------------
+  ///CLOVER:OFF
+  /**
+   * The meta-bean for {@code MarginCalcBatchItem}.
+   * @return the meta-bean, not null
+   */
+  public static MetaBean meta() {
+    return MarginCalcBatchItem.Meta.INSTANCE;
+  }
+
+  static {
+    JodaBeanUtils.registerMetaBean(MarginCalcBatchItem.Meta.INSTANCE);
+  }
+
+  /**
+   * Obtains an instance.
+   * @param id  the value of the property, not empty
+   * @param ccp  the value of the property, not null
+   * @param request  the value of the property, not null
+   * @return the instance
+   */
+  public static MarginCalcBatchItem of(
+      String id,
+      Ccp ccp,
+      MarginCalcRequest request) {
+    return new MarginCalcBatchItem(
+      id,
+      ccp,
+      request);
+  }
+
+  private MarginCalcBatchItem(
+      String id,
+      Ccp ccp,
+      MarginCalcRequest request) {
+    JodaBeanUtils.notEmpty(id, "id");
+    JodaBeanUtils.notNull(ccp, "ccp");
+    JodaBeanUtils.notNull(request, "request");
+    this.id = id;
+    this.ccp = ccp;
+    this.request = request;
+  }
+
+  @Override
+  public MetaBean metaBean() {
+    return MarginCalcBatchItem.Meta.INSTANCE;
+  }
+
+  @Override
+  public <R> Property<R> property(String propertyName) {
+    return metaBean().<R>metaProperty(propertyName).createProperty(this);
+  }
+
+  @Override
+  public Set<String> propertyNames() {
+    return metaBean().metaPropertyMap().keySet();
+  }
+
+  //-----------------------------------------------------------------------
+  /**
+   * Gets the identifier of the item, chosen by the caller and unique within the batch.
+   * @return the value of the property, not empty
+   */
+  public String getId() {
+    return id;
+  }
+
+  //-----------------------------------------------------------------------
+  /**
+   * Gets the CCP to use.
+   * @return the value of the property, not null
+   */
+  public Ccp getCcp() {
+    return ccp;
+  }
+
+  //-----------------------------------------------------------------------
+  /**
+   * Gets the calculation request.
+   * @return the value of the property, not null
+   */
+  public MarginCalcRequest getRequest() {
+    return request;
+  }
+
+  //-----------------------------------------------------------------------
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (obj != null && obj.getClass() == this.getClass()) {
+      MarginCalcBatchItem other = (MarginCalcBatchItem) obj;
+      return JodaBeanUtils.equal(id, other.id) &&
+          JodaBeanUtils.equal(ccp, other.ccp) &&
+          JodaBeanUtils.equal(request, other.request);
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = getClass().hashCode();
+    hash = hash * 31 + JodaBeanUtils.hashCode(id);
+    hash = hash * 31 + JodaBeanUtils.hashCode(ccp);
+    hash = hash * 31 + JodaBeanUtils.hashCode(request);
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder(128);
+    buf.append("MarginCalcBatchItem{");
+    buf.append("id").append('=').append(id).append(',').append(' ');
+    buf.append("ccp").append('=').append(ccp).append(',').append(' ');
+    buf.append("request").append('=').append(JodaBeanUtils.toString(request));
+    buf.append('}');
+    return buf.toString();
+  }
+
+  //-----------------------------------------------------------------------
+  /**
+   * The meta-bean for {@code MarginCalcBatchItem}.
+   */
+  private static final class Meta extends DirectMetaBean {
+    /**
+     * The singleton instance of the meta-bean.
+     */
+    static final Meta INSTANCE = new Meta();
+
+    /**
+     * The meta-property for the {@code id} property.
+     */
+    private final MetaProperty<String> id = DirectMetaProperty.ofImmutable(
+        this, "id", MarginCalcBatchItem.class, String.class);
+    /**
+     * The meta-property for the {@code ccp} property.
+     */
+    private final MetaProperty<Ccp> ccp = DirectMetaProperty.ofImmutable(
+        this, "ccp", MarginCalcBatchItem.class, Ccp.class);
+    /**
+     * The meta-property for the {@code request} property.
+     */
+    private final MetaProperty<MarginCalcRequest> request = DirectMetaProperty.ofImmutable(
+        this, "request", MarginCalcBatchItem.class, MarginCalcRequest.class);
+    /**
+     * The meta-properties.
+     */
+    private final Map<String, MetaProperty<?>> metaPropertyMap$ = new DirectMetaPropertyMap(
+        this, null,
+        "id",
+        "ccp",
+        "request");
+
+    /**
+     * Restricted constructor.
+     */
+    private Meta() {
+    }
+
+    @Override
+    protected MetaProperty<?> metaPropertyGet(String propertyName) {
+      switch (propertyName.hashCode()) {
+        case 3355:  // id
+          return id;
+        case 98320:  // ccp
+          return ccp;
+        case 1095692943:  // request
+          return request;
+      }
+      return super.metaPropertyGet(propertyName);
+    }
+
+    @Override
+    public BeanBuilder<? extends MarginCalcBatchItem> builder() {
+      return new MarginCalcBatchItem.Builder();
+    }
+
+    @Override
+    public Class<? extends MarginCalcBatchItem> beanType() {
+      return MarginCalcBatchItem.class;
+    }
+
+    @Override
+    public Map<String, MetaProperty<?>> metaPropertyMap() {
+      return metaPropertyMap$;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    protected Object propertyGet(Bean bean, String propertyName, boolean quiet) {
+      switch (propertyName.hashCode()) {
+        case 3355:  // id
+          return ((MarginCalcBatchItem) bean).getId();
+        case 98320:  // ccp
+          return ((MarginCalcBatchItem) bean).getCcp();
+        case 1095692943:  // request
+          return ((MarginCalcBatchItem) bean).getRequest();
+      }
+      return super.propertyGet(bean, propertyName, quiet);
+    }
+
+    @Override
+    protected void propertySet(Bean bean, String propertyName, Object newValue, boolean quiet) {
+      metaProperty(propertyName);
+      if (quiet) {
+        return;
+      }
+      throw new UnsupportedOperationException("Property cannot be written: " + propertyName);
+    }
+
+  }
+
+  //-----------------------------------------------------------------------
+  /**
+   * The bean-builder for {@code MarginCalcBatchItem}.
+   */
+  private static final class Builder extends DirectPrivateBeanBuilder<MarginCalcBatchItem> {
+
+    private String id;
+    private Ccp ccp;
+    private MarginCalcRequest request;
+
+    /**
+     * Restricted constructor.
+     */
+    private Builder() {
+      super(meta());
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public Object get(String propertyName) {
+      switch (propertyName.hashCode()) {
+        case 3355:  // id
+          return id;
+        case 98320:  // ccp
+          return ccp;
+        case 1095692943:  // request
+          return request;
+        default:
+          throw new NoSuchElementException("Unknown property: " + propertyName);
+      }
+    }
+
+    @Override
+    public Builder set(String propertyName, Object newValue) {
+      switch (propertyName.hashCode()) {
+        case 3355:  // id
+          this.id = (String) newValue;
+          break;
+        case 98320:  // ccp
+          this.ccp = (Ccp) newValue;
+          break;
+        case 1095692943:  // request
+          this.request = (MarginCalcRequest) newValue;
+          break;
+        default:
+          throw new NoSuchElementException("Unknown property: " + propertyName);
+      }
+      return this;
+    }
+
+    @Override
+    public MarginCalcBatchItem build() {
+      return new MarginCalcBatchItem(
+          id,
+          ccp,
+          request);
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public String toString() {
+      StringBuilder buf = new StringBuilder(128);
+      buf.append("MarginCalcBatchItem.Builder{");
+      buf.append("id").append('=').append(JodaBeanUtils.toString(id)).append(',').append(' ');
+      buf.append("ccp").append('=').append(JodaBeanUtils.toString(ccp)).append(',').append(' ');
+      buf.append("request").append('=').append(JodaBeanUtils.toString(request));
+      buf.append('}');
+      return buf.toString();
+    }
+
+  }
+
+  ///CLOVER:ON
+  //-------------------------- AUTOGENERATED END --------------------------
+}
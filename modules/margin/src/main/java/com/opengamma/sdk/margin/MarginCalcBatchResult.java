@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.joda.beans.Bean;
+import org.joda.beans.BeanBuilder;
+import org.joda.beans.BeanDefinition;
+import org.joda.beans.ImmutableBean;
+import org.joda.beans.ImmutableValidator;
+import org.joda.beans.JodaBeanUtils;
+import org.joda.beans.MetaBean;
+import org.joda.beans.MetaProperty;
+import org.joda.beans.Property;
+import org.joda.beans.PropertyDefinition;
+import org.joda.beans.impl.direct.DirectMetaBean;
+import org.joda.beans.impl.direct.DirectMetaProperty;
+import org.joda.beans.impl.direct.DirectMetaPropertyMap;
+import org.joda.beans.impl.direct.DirectPrivateBeanBuilder;
+
+/**
+ * The outcome of a single item in a stream of margin calculations.
+ * <p>
+ * Each outcome holds the item that was calculated, and either the result or the failure.
+ */
+@BeanDefinition(builderScope = "private", metaScope = "private")
+public final class MarginCalcBatchResult implements ImmutableBean {
+
+  /**
+   * The item that was calculated.
+   */
+  @PropertyDefinition(validate = "notNull")
+  private final MarginCalcBatchItem item;
+  /**
+   * The result of the calculation, null if the calculation failed.
+   */
+  @PropertyDefinition
+  private final MarginCalcResult result;
+  /**
+   * The failure of the calculation, null if the calculation succeeded.
+   */
+  @PropertyDefinition
+  private final Throwable failure;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance representing a successful calculation.
+   *
+   * @param item  the item that was calculated
+   * @param result  the result of the calculation
+   * @return the instance
+   */
+  public static MarginCalcBatchResult ofResult(MarginCalcBatchItem item, MarginCalcResult result) {
+    return new MarginCalcBatchResult(item, result, null);
+  }
+
+  /**
+   * Obtains an instance representing a failed calculation.
+   *
+   * @param item  the item that was calculated
+   * @param failure  the failure of the calculation
+   * @return the instance
+   */
+  public static MarginCalcBatchResult ofFailure(MarginCalcBatchItem item, Throwable failure) {
+    return new MarginCalcBatchResult(item, null, failure);
+  }
+
+  @ImmutableValidator
+  private void validate() {
+    if ((result == null) == (failure == null)) {
+      throw new IllegalArgumentException("Exactly one of result and failure must be specified");
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Checks if the calculation succeeded.
+   *
+   * @return true if the calculation succeeded
+   */
+  public boolean isSuccess() {
+    return result != null;
+  }
+
+  //------------------------- AUTOGENERATED START -------------------------
+  ///CLOVER:OFF
+  /**
+   * The meta-bean for {@code MarginCalcBatchResult}.
+   * @return the meta-bean, not null
+   */
+  public static MetaBean meta() {
+    return MarginCalcBatchResult.Meta.INSTANCE;
+  }
+
+  static {
+    JodaBeanUtils.registerMetaBean(MarginCalcBatchResult.Meta.INSTANCE);
+  }
+
+  private MarginCalcBatchResult(
+      MarginCalcBatchItem item,
+      MarginCalcResult result,
+      Throwable failure) {
+    JodaBeanUtils.notNull(item, "item");
+    this.item = item;
+    this.result = result;
+    this.failure = failure;
+    validate();
+  }
+
+  @Override
+  public MetaBean metaBean() {
+    return MarginCalcBatchResult.Meta.INSTANCE;
+  }
+
+  @Override
+  public <R> Property<R> property(String propertyName) {
+    return metaBean().<R>metaProperty(propertyName).createProperty(this);
+  }
+
+  @Override
+  public Set<String> propertyNames() {
+    return metaBean().metaPropertyMap().keySet();
+  }
+
+  //-----------------------------------------------------------------------
+  /**
+   * Gets the item that was calculated.
+   * @return the value of the property, not null
+   */
+  public MarginCalcBatchItem getItem() {
+    return item;
+  }
+
+  //-----------------------------------------------------------------------
+  /**
+   * Gets the result of the calculation, null if the calculation failed.
+   * @return the value of the property
+   */
+  public MarginCalcResult getResult() {
+    return result;
+  }
+
+  //-----------------------------------------------------------------------
+  /**
+   * Gets the failure of the calculation, null if the calculation succeeded.
+   * @return the value of the property
+   */
+  public Throwable getFailure() {
+    return failure;
+  }
+
+  //-----------------------------------------------------------------------
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (obj != null && obj.getClass() == this.getClass()) {
+      MarginCalcBatchResult other = (MarginCalcBatchResult) obj;
+      return JodaBeanUtils.equal(item, other.item) &&
+          JodaBeanUtils.equal(result, other.result) &&
+          JodaBeanUtils.equal(failure, other.failure);
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = getClass().hashCode();
+    hash = hash * 31 + JodaBeanUtils.hashCode(item);
+    hash = hash * 31 + JodaBeanUtils.hashCode(result);
+    hash = hash * 31 + JodaBeanUtils.hashCode(failure);
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder(128);
+    buf.append("MarginCalcBatchResult{");
+    buf.append("item").append('=').append(item).append(',').append(' ');
+    buf.append("result").append('=').append(result).append(',').append(' ');
+    buf.append("failure").append('=').append(JodaBeanUtils.toString(failure));
+    buf.append('}');
+    return buf.toString();
+  }
+
+  //-----------------------------------------------------------------------
+  /**
+   * The meta-bean for {@code MarginCalcBatchResult}.
+   */
+  private static final class Meta extends DirectMetaBean {
+    /**
+     * The singleton instance of the meta-bean.
+     */
+    static final Meta INSTANCE = new Meta();
+
+    /**
+     * The meta-property for the {@code item} property.
+     */
+    private final MetaProperty<MarginCalcBatchItem> item = DirectMetaProperty.ofImmutable(
+        this, "item", MarginCalcBatchResult.class, MarginCalcBatchItem.class);
+    /**
+     * The meta-property for the {@code result} property.
+     */
+    private final MetaProperty<MarginCalcResult> result = DirectMetaProperty.ofImmutable(
+        this, "result", MarginCalcBatchResult.class, MarginCalcResult.class);
+    /**
+     * The meta-property for the {@code failure} property.
+     */
+    private final MetaProperty<Throwable> failure = DirectMetaProperty.ofImmutable(
+        this, "failure", MarginCalcBatchResult.class, Throwable.class);
+    /**
+     * The meta-properties.
+     */
+    private final Map<String, MetaProperty<?>> metaPropertyMap$ = new DirectMetaPropertyMap(
+        this, null,
+        "item",
+        "result",
+        "failure");
+
+    /**
+     * Restricted constructor.
+     */
+    private Meta() {
+    }
+
+    @Override
+    protected MetaProperty<?> metaPropertyGet(String propertyName) {
+      switch (propertyName.hashCode()) {
+        case 3242771:  // item
+          return item;
+        case -934426595:  // result
+          return result;
+        case -1086574198:  // failure
+          return failure;
+      }
+      return super.metaPropertyGet(propertyName);
+    }
+
+    @Override
+    public BeanBuilder<? extends MarginCalcBatchResult> builder() {
+      return new MarginCalcBatchResult.Builder();
+    }
+
+    @Override
+    public Class<? extends MarginCalcBatchResult> beanType() {
+      return MarginCalcBatchResult.class;
+    }
+
+    @Override
+    public Map<String, MetaProperty<?>> metaPropertyMap() {
+      return metaPropertyMap$;
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    protected Object propertyGet(Bean bean, String propertyName, boolean quiet) {
+      switch (propertyName.hashCode()) {
+        case 3242771:  // item
+          return ((MarginCalcBatchResult) bean).getItem();
+        case -934426595:  // result
+          return ((MarginCalcBatchResult) bean).getResult();
+        case -1086574198:  // failure
+          return ((MarginCalcBatchResult) bean).getFailure();
+      }
+      return super.propertyGet(bean, propertyName, quiet);
+    }
+
+    @Override
+    protected void propertySet(Bean bean, String propertyName, Object newValue, boolean quiet) {
+      metaProperty(propertyName);
+      if (quiet) {
+        return;
+      }
+      throw new UnsupportedOperationException("Property cannot be written: " + propertyName);
+    }
+
+  }
+
+  //-----------------------------------------------------------------------
+  /**
+   * The bean-builder for {@code MarginCalcBatchResult}.
+   */
+  private static final class Builder extends DirectPrivateBeanBuilder<MarginCalcBatchResult> {
+
+    private MarginCalcBatchItem item;
+    private MarginCalcResult result;
+    private Throwable failure;
+
+    /**
+     * Restricted constructor.
+     */
+    private Builder() {
+      super(meta());
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public Object get(String propertyName) {
+      switch (propertyName.hashCode()) {
+        case 3242771:  // item
+          return item;
+        case -934426595:  // result
+          return result;
+        case -1086574198:  // failure
+          return failure;
+        default:
+          throw new NoSuchElementException("Unknown property: " + propertyName);
+      }
+    }
+
+    @Override
+    public Builder set(String propertyName, Object newValue) {
+      switch (propertyName.hashCode()) {
+        case 3242771:  // item
+          this.item = (MarginCalcBatchItem) newValue;
+          break;
+        case -934426595:  // result
+          this.result = (MarginCalcResult) newValue;
+          break;
+        case -1086574198:  // failure
+          this.failure = (Throwable) newValue;
+          break;
+        default:
+          throw new NoSuchElementException("Unknown property: " + propertyName);
+      }
+      return this;
+    }
+
+    @Override
+    public MarginCalcBatchResult build() {
+      return new MarginCalcBatchResult(
+          item,
+          result,
+          failure);
+    }
+
+    //-----------------------------------------------------------------------
+    @Override
+    public String toString() {
+      StringBuilder buf = new StringBuilder(128);
+      buf.append("MarginCalcBatchResult.Builder{");
+      buf.append("item").append('=').append(JodaBeanUtils.toString(item)).append(',').append(' ');
+      buf.append("result").append('=').append(JodaBeanUtils.toString(result)).append(',').append(' ');
+      buf.append("failure").append('=').append(JodaBeanUtils.toString(failure));
+      buf.append('}');
+      return buf.toString();
+    }
+
+  }
+
+  ///CLOVER:ON
+  //-------------------------- AUTOGENERATED END --------------------------
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import static com.opengamma.sdk.common.ServiceInvoker.MEDIA_JSON;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import com.opengamma.sdk.common.RequestSizeHint;
+import com.opengamma.sdk.margin.PortfolioDataCache.FileKey;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * Request body that streams a margin calculation request as JSON.
+ * <p>
+ * The JSON is written directly to the HTTP request, in the same format as the Joda-Beans JSON writer.
+ * Strings are escaped in runs, with characters that need no escaping encoded in bulk.
+ * Portfolio data that is backed by a file is read in small chunks and escaped on the fly,
+ * thus the whole file is never held in memory.
+ * Large files are memory-mapped, with runs of bytes that need no escaping copied in bulk,
+ * avoiding the cost of reading the file through a heap buffer.
+ * <p>
+ * The file is processed to match {@link PortfolioDataFile#of(java.nio.file.Path)}, where each line
+ * terminator is converted to a newline and the final line terminator is removed.
+ * <p>
+ * If a {@link PortfolioDataCache} is specified, portfolio data that the service has confirmed it holds
+ * is sent as a reference to the hash of the data, in a {@code dataHash} property instead of {@code data}.
+ * The hash of file-backed data that is uploaded is calculated as it is written, and recorded in the cache.
+ * <p>
+ * The length of the JSON is not known until it is written, so a size hint is provided instead,
+ * based on the size of the portfolio data, allowing small requests to be sent uncompressed.
+ */
+final class MarginCalcRequestBody extends RequestBody implements RequestSizeHint {
+
+  /**
+   * The size of the buffer used to read files.
+   */
+  private static final int BUFFER_SIZE = 8192;
+  /**
+   * The file size at or above which the file is memory-mapped.
+   */
+  private static final long MAP_THRESHOLD = 1024 * 1024;
+  /**
+   * The maximum size of each mapped region of a file.
+   */
+  private static final long MAP_REGION_SIZE = 64 * 1024 * 1024;
+  /**
+   * The JSON escape sequences for ASCII characters, null if no escape is needed.
+   */
+  private static final String[] REPLACE = new String[128];
+  static {
+    for (int i = 0; i < 32; i++) {
+      REPLACE[i] = String.format("\\u%04x", i);
+    }
+    REPLACE['\b'] = "\\b";
+    REPLACE['\t'] = "\\t";
+    REPLACE['\n'] = "\\n";
+    REPLACE['\f'] = "\\f";
+    REPLACE['\r'] = "\\r";
+    REPLACE['"'] = "\\\"";
+    REPLACE['\\'] = "\\\\";
+    REPLACE[127] = "\\u007f";
+  }
+
+  /**
+   * The request to write.
+   */
+  private final MarginCalcRequest request;
+  /**
+   * The cache of portfolio data hashes, null if not used.
+   */
+  private final PortfolioDataCache cache;
+  /**
+   * The hash to send instead of each item of portfolio data, null entry if the data is sent.
+   */
+  private final String[] references;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance that always sends the portfolio data.
+   *
+   * @param request  the request to write
+   * @return the request body
+   */
+  static MarginCalcRequestBody of(MarginCalcRequest request) {
+    return new MarginCalcRequestBody(request, null);
+  }
+
+  /**
+   * Obtains an instance that sends a reference to portfolio data that the service holds.
+   * <p>
+   * The decision as to which data to send by reference is made by this method.
+   *
+   * @param request  the request to write
+   * @param cache  the cache of portfolio data hashes
+   * @return the request body
+   */
+  static MarginCalcRequestBody of(MarginCalcRequest request, PortfolioDataCache cache) {
+    return new MarginCalcRequestBody(request, cache);
+  }
+
+  private MarginCalcRequestBody(MarginCalcRequest request, PortfolioDataCache cache) {
+    this.request = request;
+    this.cache = cache;
+    List<PortfolioDataFile> portfolioData = request.getPortfolioData();
+    this.references = new String[portfolioData.size()];
+    if (cache != null) {
+      for (int i = 0; i < references.length; i++) {
+        references[i] = cache.findConfirmedHash(portfolioData.get(i)).orElse(null);
+      }
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the hashes that are sent instead of the portfolio data.
+   *
+   * @return the hashes, empty if all the data is sent
+   */
+  List<String> getReferencedHashes() {
+    List<String> hashes = new ArrayList<>();
+    for (String reference : references) {
+      if (reference != null) {
+        hashes.add(reference);
+      }
+    }
+    return Collections.unmodifiableList(hashes);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the estimated size of the JSON, without reading any files.
+   * <p>
+   * This is the size of the portfolio data that is sent, ignoring escaping, plus a small allowance
+   * for the other properties.
+   *
+   * @return the estimated size in bytes
+   */
+  @Override
+  public long sizeHint() {
+    long size = 256;
+    List<PortfolioDataFile> portfolioData = request.getPortfolioData();
+    for (int i = 0; i < references.length; i++) {
+      PortfolioDataFile file = portfolioData.get(i);
+      size += 32 + file.getName().length();
+      size += references[i] != null ? references[i].length() : file.getDataSize();
+    }
+    return size;
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public MediaType contentType() {
+    return MEDIA_JSON;
+  }
+
+  @Override
+  public void writeTo(BufferedSink sink) throws IOException {
+    sink.writeUtf8("{\"type\":");
+    writeString(sink, request.getType().name());
+    sink.writeUtf8(",\"valuationDate\":");
+    writeString(sink, request.getValuationDate().toString());
+    sink.writeUtf8(",\"applyClientMultiplier\":");
+    sink.writeUtf8(request.isApplyClientMultiplier() ? "true" : "false");
+    sink.writeUtf8(",\"reportingCurrency\":");
+    writeString(sink, request.getReportingCurrency());
+    Optional<String> calculationCurrency = request.getCalculationCurrency();
+    if (calculationCurrency.isPresent()) {
+      sink.writeUtf8(",\"calculationCurrency\":");
+      writeString(sink, calculationCurrency.get());
+    }
+    sink.writeUtf8(",\"portfolioData\":[");
+    List<PortfolioDataFile> portfolioData = request.getPortfolioData();
+    for (int i = 0; i < references.length; i++) {
+      PortfolioDataFile file = portfolioData.get(i);
+      sink.writeUtf8(i == 0 ? "{\"name\":" : ",{\"name\":");
+      writeString(sink, file.getName());
+      Optional<Path> path = file.getFile();
+      if (references[i] != null) {
+        sink.writeUtf8(",\"dataHash\":");
+        writeString(sink, references[i]);
+      } else if (path.isPresent()) {
+        sink.writeUtf8(",\"data\":\"");
+        writeFile(sink, path.get());
+        sink.writeByte('"');
+      } else {
+        sink.writeUtf8(",\"data\":");
+        writeString(sink, file.getData());
+      }
+      sink.writeByte('}');
+    }
+    sink.writeUtf8("]}");
+  }
+
+  //-------------------------------------------------------------------------
+  // writes a JSON string
+  // runs of characters that need no escaping are encoded in bulk, which is the common case for portfolio data
+  private static void writeString(BufferedSink sink, String str) throws IOException {
+    sink.writeByte('"');
+    int length = str.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      char ch = str.charAt(i);
+      String replace;
+      if (ch < 128) {
+        replace = REPLACE[ch];
+      } else if (ch == '\u2028') {
+        replace = "\\u2028";
+      } else if (ch == '\u2029') {
+        replace = "\\u2029";
+      } else {
+        replace = null;
+      }
+      if (replace != null) {
+        if (start < i) {
+          sink.writeUtf8(str, start, i);
+        }
+        sink.writeUtf8(replace);
+        start = i + 1;
+      }
+    }
+    if (start < length) {
+      sink.writeUtf8(str, start, length);
+    }
+    sink.writeByte('"');
+  }
+
+  // writes the content of a UTF-8 file as the content of a JSON string, recording the hash if necessary
+  private void writeFile(BufferedSink sink, Path path) throws IOException {
+    Optional<FileKey> key = (cache != null ? FileKey.of(path) : Optional.empty());
+    FileDataEscaper escaper = new FileDataEscaper(sink, key.isPresent() ? PortfolioDataCache.digest() : null);
+    escapeFile(path, escaper);
+    if (key.isPresent()) {
+      cache.fileHashed(key.get(), PortfolioDataCache.toHash(escaper.digest));
+    }
+  }
+
+  /**
+   * Gets the hash of the content of a file, as it would be sent.
+   * <p>
+   * The file is only read if the cache does not hold the hash of the file in its current state.
+   * The hash matches that of the same content held in memory.
+   *
+   * @param path  the path of the file
+   * @param cache  the cache of file hashes
+   * @return the hash
+   * @throws IOException if the file cannot be read
+   */
+  static String hashFile(Path path, PortfolioDataCache cache) throws IOException {
+    Optional<FileKey> key = FileKey.of(path);
+    Optional<String> known = key.flatMap(cache::findFileHash);
+    if (known.isPresent()) {
+      return known.get();
+    }
+    FileDataEscaper escaper = new FileDataEscaper(Okio.buffer(Okio.blackhole()), PortfolioDataCache.digest());
+    escapeFile(path, escaper);
+    String hash = PortfolioDataCache.toHash(escaper.digest);
+    if (key.isPresent()) {
+      cache.fileHashed(key.get(), hash);
+    }
+    return hash;
+  }
+
+  // passes the content of a file through the escaper
+  private static void escapeFile(Path path, FileDataEscaper escaper) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size >= MAP_THRESHOLD) {
+        // the mapped regions are released when garbage collected
+        for (long position = 0; position < size; position += MAP_REGION_SIZE) {
+          long regionSize = Math.min(MAP_REGION_SIZE, size - position);
+          escaper.write(channel.map(MapMode.READ_ONLY, position, regionSize));
+        }
+      } else {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        while (channel.read(buf) >= 0) {
+          buf.flip();
+          escaper.write(buf);
+          buf.clear();
+        }
+      }
+    }
+    escaper.finish();
+  }
+
+  //-------------------------------------------------------------------------
+  // escapes file content byte by byte, handling sequences that cross buffer boundaries
+  // the digest, if present, is updated with the content after line terminator conversion
+  private static final class FileDataEscaper {
+    private final BufferedSink sink;
+    private final MessageDigest digest;
+    // the buffer used to copy runs of bytes that need no escaping
+    private final byte[] run = new byte[BUFFER_SIZE];
+    // whether a newline has been seen but not yet written, as the final line terminator is removed
+    private boolean pendingNewline;
+    // whether the last byte was a carriage return, which may be followed by a line feed
+    private boolean lastWasCr;
+    // the number of bytes of a UTF-8 encoded U+2028 or U+2029 matched so far
+    private int separatorMatched;
+
+    private FileDataEscaper(BufferedSink sink, MessageDigest digest) {
+      this.sink = sink;
+      this.digest = digest;
+    }
+
+    // writes the remaining bytes in the buffer
+    private void write(ByteBuffer buf) throws IOException {
+      while (buf.hasRemaining()) {
+        if (pendingNewline || lastWasCr || separatorMatched > 0) {
+          write(buf.get() & 0xFF);
+          continue;
+        }
+        int end = buf.position();
+        while (end < buf.limit() && isPlain(buf.get(end) & 0xFF)) {
+          end++;
+        }
+        if (end == buf.position()) {
+          write(buf.get() & 0xFF);
+        } else {
+          writeRun(buf, end - buf.position());
+        }
+      }
+    }
+
+    // copies bytes that need no escaping
+    private void writeRun(ByteBuffer buf, int length) throws IOException {
+      int remaining = length;
+      while (remaining > 0) {
+        int count = Math.min(remaining, run.length);
+        buf.get(run, 0, count);
+        sink.write(run, 0, count);
+        if (digest != null) {
+          digest.update(run, 0, count);
+        }
+        remaining -= count;
+      }
+    }
+
+    // checks if the byte is written as is, when there is no partially processed sequence
+    private static boolean isPlain(int b) {
+      return b >= 0x20 && b != '"' && b != '\\' && b != 0x7F && b != 0xE2;
+    }
+
+    // writes a single byte
+    private void write(int b) throws IOException {
+      if (lastWasCr) {
+        lastWasCr = false;
+        if (b == '\n') {
+          return;
+        }
+      }
+      if (b == '\n' || b == '\r') {
+        flushSeparator();
+        if (pendingNewline) {
+          writeNewline();
+        }
+        pendingNewline = true;
+        lastWasCr = (b == '\r');
+        return;
+      }
+      if (pendingNewline) {
+        writeNewline();
+        pendingNewline = false;
+      }
+      if (digest != null) {
+        digest.update((byte) b);
+      }
+      writeContent(b);
+    }
+
+    // writes a converted line terminator
+    private void writeNewline() throws IOException {
+      sink.writeUtf8("\\n");
+      if (digest != null) {
+        digest.update((byte) '\n');
+      }
+    }
+
+    // writes a byte that is not a line terminator, escaping U+2028 and U+2029 as per the JSON writer
+    private void writeContent(int b) throws IOException {
+      if (separatorMatched == 0) {
+        if (b == 0xE2) {
+          separatorMatched = 1;
+        } else {
+          writeEscaped(b);
+        }
+      } else if (separatorMatched == 1) {
+        if (b == 0x80) {
+          separatorMatched = 2;
+        } else {
+          flushSeparator();
+          writeContent(b);
+        }
+      } else {
+        if (b == 0xA8 || b == 0xA9) {
+          separatorMatched = 0;
+          sink.writeUtf8(b == 0xA8 ? "\\u2028" : "\\u2029");
+        } else {
+          flushSeparator();
+          writeContent(b);
+        }
+      }
+    }
+
+    // writes any partially matched separator bytes
+    private void flushSeparator() throws IOException {
+      if (separatorMatched > 0) {
+        sink.writeByte(0xE2);
+        if (separatorMatched > 1) {
+          sink.writeByte(0x80);
+        }
+        separatorMatched = 0;
+      }
+    }
+
+    // writes a single byte, escaping ASCII as necessary
+    private void writeEscaped(int b) throws IOException {
+      String replace = (b < 128 ? REPLACE[b] : null);
+      if (replace != null) {
+        sink.writeUtf8(replace);
+      } else {
+        sink.writeByte(b);
+      }
+    }
+
+    // completes the output, dropping the final line terminator
+    private void finish() throws IOException {
+      flushSeparator();
+    }
+  }
+
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalDouble;
+
+/**
+ * The result of a margin calculation, held in columns.
+ * <p>
+ * This is an alternative to {@link MarginCalcResult} for results with very many entries.
+ * Rather than holding an object for each portfolio item and margin detail,
+ * the data is held in parallel arrays. Identifiers and descriptions are held in a single
+ * string table, products are dictionary encoded, and values are held as primitive doubles.
+ * Products and margin detail keys are interned, as the same few values recur in every result. Aggregation over the result thus creates no per-element objects.
+ * <p>
+ * The columns are built directly from the response of the service,
+ * see {@link MarginClient#calculateColumnar(Ccp, MarginCalcRequest)}.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public final class MarginCalcResultColumns {
+
+  /**
+   * The status of the calculation.
+   */
+  private final MarginCalcResultStatus status;
+  /**
+   * The type of the calculation.
+   */
+  private final MarginCalcRequestType type;
+  /**
+   * The valuation date.
+   */
+  private final LocalDate valuationDate;
+  /**
+   * The reporting currency.
+   */
+  private final String reportingCurrency;
+  /**
+   * The number of portfolio items.
+   */
+  private final int portfolioItemCount;
+  /**
+   * The identifiers of the portfolio items, concatenated.
+   */
+  private final String portfolioItemIds;
+  /**
+   * The end offset of each identifier in the concatenated identifiers.
+   */
+  private final int[] portfolioItemIdEnds;
+  /**
+   * The descriptions of the portfolio items, concatenated.
+   */
+  private final String portfolioItemDescriptions;
+  /**
+   * The end offset of each description in the concatenated descriptions.
+   */
+  private final int[] portfolioItemDescriptionEnds;
+  /**
+   * The distinct products.
+   */
+  private final List<String> products;
+  /**
+   * The index of the product of each portfolio item.
+   */
+  private final int[] portfolioItemProductCodes;
+  /**
+   * The total margin, NaN if not present.
+   */
+  private final double margin;
+  /**
+   * Whether the margin is present.
+   */
+  private final boolean marginPresent;
+  /**
+   * The keys of the margin details.
+   */
+  private final List<String> marginDetailKeys;
+  /**
+   * The values of the margin details.
+   */
+  private final double[] marginDetailValues;
+  /**
+   * The failures.
+   */
+  private final List<MarginError> failures;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance from a result.
+   *
+   * @param result  the result
+   * @return the columns
+   */
+  public static MarginCalcResultColumns of(MarginCalcResult result) {
+    Objects.requireNonNull(result, "result must not be null");
+    Builder builder = builder();
+    builder.status(result.getStatus());
+    builder.type(result.getType());
+    builder.valuationDate(result.getValuationDate());
+    builder.reportingCurrency(result.getReportingCurrency());
+    for (PortfolioItemSummary item : result.getPortfolioItems()) {
+      builder.portfolioItem(item.getId(), item.getProduct(), item.getDescription());
+    }
+    result.getMargin().ifPresent(margin -> {
+      for (NamedValue detail : margin.getMarginDetails()) {
+        builder.marginDetail(detail.getKey(), detail.getValue());
+      }
+      builder.margin(margin.getMargin());
+    });
+    for (MarginError failure : result.getFailures()) {
+      builder.failure(failure);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns a builder, used by the reader to build the columns as the response is read.
+   *
+   * @return the builder
+   */
+  static Builder builder() {
+    return new Builder();
+  }
+
+  // creates an instance
+  private MarginCalcResultColumns(Builder builder) {
+    this.status = Objects.requireNonNull(builder.status, "status must not be null");
+    this.type = Objects.requireNonNull(builder.type, "type must not be null");
+    this.valuationDate = Objects.requireNonNull(builder.valuationDate, "valuationDate must not be null");
+    this.reportingCurrency = Objects.requireNonNull(builder.reportingCurrency, "reportingCurrency must not be null");
+    this.portfolioItemCount = builder.portfolioItemCount;
+    this.portfolioItemIds = builder.ids.toString();
+    this.portfolioItemIdEnds = Arrays.copyOf(builder.idEnds, builder.portfolioItemCount);
+    this.portfolioItemDescriptions = builder.descriptions.toString();
+    this.portfolioItemDescriptionEnds = Arrays.copyOf(builder.descriptionEnds, builder.portfolioItemCount);
+    this.products = Collections.unmodifiableList(new ArrayList<>(builder.products));
+    this.portfolioItemProductCodes = Arrays.copyOf(builder.productCodes, builder.portfolioItemCount);
+    this.margin = builder.marginPresent ? builder.margin : Double.NaN;
+    this.marginPresent = builder.marginPresent;
+    this.marginDetailKeys = Collections.unmodifiableList(new ArrayList<>(builder.marginDetailKeys));
+    this.marginDetailValues = Arrays.copyOf(builder.marginDetailValues, builder.marginDetailKeys.size());
+    this.failures = Collections.unmodifiableList(new ArrayList<>(builder.failures));
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the status of the calculation.
+   *
+   * @return the status
+   */
+  public MarginCalcResultStatus getStatus() {
+    return status;
+  }
+
+  /**
+   * Gets the type of the calculation.
+   *
+   * @return the type
+   */
+  public MarginCalcRequestType getType() {
+    return type;
+  }
+
+  /**
+   * Gets the valuation date.
+   *
+   * @return the valuation date
+   */
+  public LocalDate getValuationDate() {
+    return valuationDate;
+  }
+
+  /**
+   * Gets the reporting currency.
+   *
+   * @return the reporting currency
+   */
+  public String getReportingCurrency() {
+    return reportingCurrency;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of portfolio items.
+   *
+   * @return the number of portfolio items
+   */
+  public int getPortfolioItemCount() {
+    return portfolioItemCount;
+  }
+
+  /**
+   * Gets the identifier of a portfolio item.
+   *
+   * @param index  the index of the portfolio item
+   * @return the identifier
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public String getPortfolioItemId(int index) {
+    return substring(portfolioItemIds, portfolioItemIdEnds, index);
+  }
+
+  /**
+   * Gets the description of a portfolio item.
+   *
+   * @param index  the index of the portfolio item
+   * @return the description
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public String getPortfolioItemDescription(int index) {
+    return substring(portfolioItemDescriptions, portfolioItemDescriptionEnds, index);
+  }
+
+  /**
+   * Gets the product of a portfolio item.
+   *
+   * @param index  the index of the portfolio item
+   * @return the product
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public String getPortfolioItemProduct(int index) {
+    return products.get(getPortfolioItemProductCode(index));
+  }
+
+  /**
+   * Gets the code of the product of a portfolio item.
+   * <p>
+   * The code is the index of the product in {@link #getProducts()}.
+   * This allows portfolio items to be grouped by product without comparing strings.
+   *
+   * @param index  the index of the portfolio item
+   * @return the product code
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public int getPortfolioItemProductCode(int index) {
+    checkPortfolioItemIndex(index);
+    return portfolioItemProductCodes[index];
+  }
+
+  /**
+   * Gets the distinct products of the portfolio items, in order of first occurrence.
+   *
+   * @return the products, indexed by product code
+   */
+  public List<String> getProducts() {
+    return products;
+  }
+
+  /**
+   * Gets a summary of a portfolio item.
+   * <p>
+   * This creates a new object, thus is less efficient than the other portfolio item methods.
+   *
+   * @param index  the index of the portfolio item
+   * @return the summary
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public PortfolioItemSummary getPortfolioItem(int index) {
+    return PortfolioItemSummary.of(
+        getPortfolioItemId(index), getPortfolioItemProduct(index), getPortfolioItemDescription(index));
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the total margin, empty if the margin has not been calculated.
+   *
+   * @return the margin
+   */
+  public OptionalDouble getMargin() {
+    return marginPresent ? OptionalDouble.of(margin) : OptionalDouble.empty();
+  }
+
+  /**
+   * Gets the number of margin details.
+   *
+   * @return the number of margin details
+   */
+  public int getMarginDetailCount() {
+    return marginDetailValues.length;
+  }
+
+  /**
+   * Gets the key of a margin detail.
+   *
+   * @param index  the index of the margin detail
+   * @return the key
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public String getMarginDetailKey(int index) {
+    return marginDetailKeys.get(index);
+  }
+
+  /**
+   * Gets the value of a margin detail.
+   *
+   * @param index  the index of the margin detail
+   * @return the value
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public double getMarginDetailValue(int index) {
+    return marginDetailValues[index];
+  }
+
+  /**
+   * Gets the values of the margin details.
+   *
+   * @return a copy of the values, in the order of the keys
+   */
+  public double[] getMarginDetailValues() {
+    return marginDetailValues.clone();
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the failures.
+   *
+   * @return the failures
+   */
+  public List<MarginError> getFailures() {
+    return failures;
+  }
+
+  /**
+   * Converts the columns to a result.
+   * <p>
+   * This creates an object for each entry.
+   *
+   * @return the result
+   */
+  public MarginCalcResult toResult() {
+    List<PortfolioItemSummary> portfolioItems = new ArrayList<>(portfolioItemCount);
+    for (int i = 0; i < portfolioItemCount; i++) {
+      portfolioItems.add(getPortfolioItem(i));
+    }
+    MarginSummary marginSummary = null;
+    if (marginPresent) {
+      List<NamedValue> marginDetails = new ArrayList<>(marginDetailValues.length);
+      for (int i = 0; i < marginDetailValues.length; i++) {
+        marginDetails.add(NamedValue.of(marginDetailKeys.get(i), marginDetailValues[i]));
+      }
+      marginSummary = MarginSummary.of(margin, marginDetails);
+    }
+    return MarginCalcResult.of(
+        status, type, valuationDate, reportingCurrency, portfolioItems, marginSummary, failures);
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public String toString() {
+    return "MarginCalcResultColumns[status=" + status + ", type=" + type + ", valuationDate=" + valuationDate +
+        ", reportingCurrency=" + reportingCurrency + ", portfolioItemCount=" + portfolioItemCount +
+        ", margin=" + getMargin() + ", marginDetailCount=" + marginDetailValues.length +
+        ", failureCount=" + failures.size() + "]";
+  }
+
+  // checks the index of a portfolio item
+  private void checkPortfolioItemIndex(int index) {
+    if (index < 0 || index >= portfolioItemCount) {
+      throw new IndexOutOfBoundsException("Invalid portfolio item index: " + index);
+    }
+  }
+
+  // gets an entry from a string table
+  private String substring(String table, int[] ends, int index) {
+    checkPortfolioItemIndex(index);
+    return table.substring(index == 0 ? 0 : ends[index - 1], ends[index]);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Builder for {@code MarginCalcResultColumns}, receiving the result as it is read.
+   */
+  static final class Builder implements MarginCalcResultReader.Receiver {
+
+    private MarginCalcResultStatus status;
+    private MarginCalcRequestType type;
+    private LocalDate valuationDate;
+    private String reportingCurrency;
+    private int portfolioItemCount;
+    private final StringBuilder ids = new StringBuilder();
+    private int[] idEnds = new int[16];
+    private final StringBuilder descriptions = new StringBuilder();
+    private int[] descriptionEnds = new int[16];
+    private final List<String> products = new ArrayList<>();
+    private final Map<String, Integer> productCodeMap = new HashMap<>();
+    private int[] productCodes = new int[16];
+    private double margin;
+    private boolean marginPresent;
+    private final List<String> marginDetailKeys = new ArrayList<>();
+    private double[] marginDetailValues = new double[16];
+    private final List<MarginError> failures = new ArrayList<>();
+
+    // creates an instance
+    private Builder() {
+    }
+
+    @Override
+    public void status(MarginCalcResultStatus status) {
+      this.status = status;
+    }
+
+    @Override
+    public void type(MarginCalcRequestType type) {
+      this.type = type;
+    }
+
+    @Override
+    public void valuationDate(LocalDate valuationDate) {
+      this.valuationDate = valuationDate;
+    }
+
+    @Override
+    public void reportingCurrency(String reportingCurrency) {
+      this.reportingCurrency = reportingCurrency;
+    }
+
+    @Override
+    public void portfolioItem(String id, String product, String description) {
+      Objects.requireNonNull(id, "id must not be null");
+      Objects.requireNonNull(product, "product must not be null");
+      Objects.requireNonNull(description, "description must not be null");
+      if (portfolioItemCount == idEnds.length) {
+        idEnds = Arrays.copyOf(idEnds, portfolioItemCount * 2);
+        descriptionEnds = Arrays.copyOf(descriptionEnds, portfolioItemCount * 2);
+        productCodes = Arrays.copyOf(productCodes, portfolioItemCount * 2);
+      }
+      idEnds[portfolioItemCount] = ids.append(id).length();
+      descriptionEnds[portfolioItemCount] = descriptions.append(description).length();
+      Integer code = productCodeMap.get(product);
+      if (code == null) {
+        code = products.size();
+        products.add(product.intern());
+        productCodeMap.put(product, code);
+      }
+      productCodes[portfolioItemCount] = code;
+      portfolioItemCount++;
+    }
+
+    @Override
+    public void marginDetail(String key, double value) {
+      if (key == null || key.isEmpty()) {
+        throw new IllegalArgumentException("Margin detail key must not be empty");
+      }
+      int size = marginDetailKeys.size();
+      if (size == marginDetailValues.length) {
+        marginDetailValues = Arrays.copyOf(marginDetailValues, size * 2);
+      }
+      marginDetailKeys.add(key.intern());
+      marginDetailValues[size] = value;
+    }
+
+    @Override
+    public void margin(double margin) {
+      this.margin = margin;
+      this.marginPresent = true;
+    }
+
+    @Override
+    public void failure(MarginError failure) {
+      failures.add(failure);
+    }
+
+    /**
+     * Builds the columns.
+     *
+     * @return the columns
+     */
+    MarginCalcResultColumns build() {
+      return new MarginCalcResultColumns(this);
+    }
+  }
+
+}
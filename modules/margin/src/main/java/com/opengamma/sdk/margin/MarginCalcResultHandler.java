@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Handler receiving the portfolio items and failures of a margin calculation as they are read.
+ * <p>
+ * This is used to process a large result without holding the whole result in memory.
+ * The response from the service is parsed incrementally, and each portfolio item and failure
+ * is passed to the handler as soon as it has been read, and is then discarded.
+ * The handler is invoked on the thread reading the response, in the order of the response.
+ *
+ * @see MarginClient#calculate(Ccp, MarginCalcRequest, MarginCalcResultHandler)
+ */
+public interface MarginCalcResultHandler {
+
+  /**
+   * Obtains a handler that passes portfolio items and failures to the specified consumers.
+   *
+   * @param portfolioItemConsumer  the consumer of portfolio items
+   * @param failureConsumer  the consumer of failures
+   * @return the handler
+   */
+  public static MarginCalcResultHandler of(
+      Consumer<PortfolioItemSummary> portfolioItemConsumer,
+      Consumer<MarginError> failureConsumer) {
+
+    Objects.requireNonNull(portfolioItemConsumer, "portfolioItemConsumer must not be null");
+    Objects.requireNonNull(failureConsumer, "failureConsumer must not be null");
+    return new MarginCalcResultHandler() {
+      @Override
+      public void portfolioItem(PortfolioItemSummary item) {
+        portfolioItemConsumer.accept(item);
+      }
+
+      @Override
+      public void failure(MarginError failure) {
+        failureConsumer.accept(failure);
+      }
+    };
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Receives a summary of a portfolio item.
+   *
+   * @param item  the portfolio item
+   */
+  public abstract void portfolioItem(PortfolioItemSummary item);
+
+  /**
+   * Receives a failure.
+   *
+   * @param failure  the failure
+   */
+  public abstract void failure(MarginError failure);
+
+}
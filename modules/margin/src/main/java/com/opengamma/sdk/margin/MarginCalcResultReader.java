@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.opengamma.sdk.common.JsonReader;
+
+/**
+ * Streaming reader of {@link MarginCalcResult}.
+ * <p>
+ * The JSON is read incrementally, with each property passed to a receiver as it is read.
+ * This allows portfolio items and failures to be passed to a handler, or to be stored in columns,
+ * without creating the whole result first.
+ * Unknown properties, including the type metadata of Joda-Beans, are skipped.
+ * <p>
+ * Where the status has been read as pending before the portfolio items and failures,
+ * they are skipped by the streaming methods, as they are incomplete.
+ * When polling, reading can instead stop as soon as the status is read as pending,
+ * which relies on the service writing the status first, as it does.
+ */
+final class MarginCalcResultReader {
+
+  /**
+   * The reader.
+   */
+  private final JsonReader reader;
+  /**
+   * The receiver.
+   */
+  private final Receiver receiver;
+  /**
+   * Whether to stop reading when the status is pending.
+   */
+  private final boolean stopIfPending;
+  /**
+   * Whether to skip the portfolio items and failures when the status is pending.
+   */
+  private final boolean skipIfPending;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Reads the result.
+   *
+   * @param reader  the reader of JSON
+   * @param handler  the handler receiving the portfolio items and failures
+   * @return the result, with empty lists of portfolio items and failures
+   * @throws IOException if the JSON is malformed or cannot be read
+   * @throws RuntimeException if the JSON does not represent a valid result
+   */
+  static MarginCalcResult read(JsonReader reader, MarginCalcResultHandler handler) throws IOException {
+    BeanReceiver receiver = new BeanReceiver(handler);
+    new MarginCalcResultReader(reader, receiver, false, true).readResult();
+    return receiver.build();
+  }
+
+  /**
+   * Reads the whole result.
+   * <p>
+   * This matches the Joda-Beans JSON reader for the format produced by the service.
+   *
+   * @param reader  the reader of JSON
+   * @return the result
+   * @throws IOException if the JSON is malformed or cannot be read
+   * @throws RuntimeException if the JSON does not represent a valid result
+   */
+  static MarginCalcResult read(JsonReader reader) throws IOException {
+    BeanReceiver receiver = new BeanReceiver(null);
+    new MarginCalcResultReader(reader, receiver, false, false).readResult();
+    return receiver.build();
+  }
+
+  /**
+   * Reads the result, unless the calculation is pending.
+   * <p>
+   * When the status is pending, reading stops immediately, and the rest of the JSON is not read.
+   *
+   * @param reader  the reader of JSON
+   * @param handler  the handler receiving the portfolio items and failures
+   * @return the result, with empty lists of portfolio items and failures, null if pending
+   * @throws IOException if the JSON is malformed or cannot be read
+   * @throws RuntimeException if the JSON does not represent a valid result
+   */
+  static MarginCalcResult readUnlessPending(JsonReader reader, MarginCalcResultHandler handler) throws IOException {
+    BeanReceiver receiver = new BeanReceiver(handler);
+    return new MarginCalcResultReader(reader, receiver, true, true).readResult() ? receiver.build() : null;
+  }
+
+  /**
+   * Reads the whole result, unless the calculation is pending.
+   * <p>
+   * When the status is pending, reading stops immediately, and the rest of the JSON is not read.
+   * Otherwise, the result is read in full, including the portfolio items and failures.
+   *
+   * @param reader  the reader of JSON
+   * @return the result, null if pending
+   * @throws IOException if the JSON is malformed or cannot be read
+   * @throws RuntimeException if the JSON does not represent a valid result
+   */
+  static MarginCalcResult readUnlessPending(JsonReader reader) throws IOException {
+    BeanReceiver receiver = new BeanReceiver(null);
+    return new MarginCalcResultReader(reader, receiver, true, true).readResult() ? receiver.build() : null;
+  }
+
+  /**
+   * Reads the whole result into columns, unless the calculation is pending.
+   * <p>
+   * When the status is pending, reading stops immediately, and the rest of the JSON is not read.
+   *
+   * @param reader  the reader of JSON
+   * @return the result, null if pending
+   * @throws IOException if the JSON is malformed or cannot be read
+   * @throws RuntimeException if the JSON does not represent a valid result
+   */
+  static MarginCalcResultColumns readColumnsUnlessPending(JsonReader reader) throws IOException {
+    MarginCalcResultColumns.Builder receiver = MarginCalcResultColumns.builder();
+    return new MarginCalcResultReader(reader, receiver, true, true).readResult() ? receiver.build() : null;
+  }
+
+  /**
+   * Passes the portfolio items and failures of a result that has already been read to a handler.
+   * <p>
+   * This matches the effect of reading the result incrementally with the handler.
+   * If the calculation is pending, the handler is not invoked.
+   *
+   * @param result  the result
+   * @param handler  the handler receiving the portfolio items and failures
+   * @return the result, with empty lists of portfolio items and failures
+   */
+  static MarginCalcResult replay(MarginCalcResult result, MarginCalcResultHandler handler) {
+    if (result.getStatus() != MarginCalcResultStatus.PENDING) {
+      result.getPortfolioItems().forEach(handler::portfolioItem);
+      result.getFailures().forEach(handler::failure);
+    }
+    return MarginCalcResult.of(
+        result.getStatus(),
+        result.getType(),
+        result.getValuationDate(),
+        result.getReportingCurrency(),
+        Collections.emptyList(),
+        result.getMargin().orElse(null),
+        Collections.emptyList());
+  }
+
+  private MarginCalcResultReader(JsonReader reader, Receiver receiver, boolean stopIfPending, boolean skipIfPending) {
+    this.reader = reader;
+    this.receiver = receiver;
+    this.stopIfPending = stopIfPending;
+    this.skipIfPending = skipIfPending;
+  }
+
+  //-------------------------------------------------------------------------
+  // reads the result, returning false if stopped as pending
+  private boolean readResult() throws IOException {
+    MarginCalcResultStatus status = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "status":
+          status = MarginCalcResultStatus.valueOf(reader.nextString());
+          if (stopIfPending && status == MarginCalcResultStatus.PENDING) {
+            return false;
+          }
+          receiver.status(status);
+          break;
+        case "type":
+          receiver.type(MarginCalcRequestType.valueOf(reader.nextString()));
+          break;
+        case "valuationDate":
+          receiver.valuationDate(LocalDate.parse(reader.nextString()));
+          break;
+        case "reportingCurrency":
+          receiver.reportingCurrency(reader.nextString());
+          break;
+        case "portfolioItems":
+          if (skipIfPending && status == MarginCalcResultStatus.PENDING) {
+            reader.skipValue();
+          } else {
+            readPortfolioItems();
+          }
+          break;
+        case "margin":
+          readMargin();
+          break;
+        case "failures":
+          if (skipIfPending && status == MarginCalcResultStatus.PENDING) {
+            reader.skipValue();
+          } else {
+            readFailures();
+          }
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    return true;
+  }
+
+  // reads the portfolio items, passing each to the receiver
+  private void readPortfolioItems() throws IOException {
+    reader.beginArray();
+    while (reader.hasNext()) {
+      String id = null;
+      String product = null;
+      String description = null;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "id":
+            id = reader.nextString();
+            break;
+          case "product":
+            product = reader.nextString();
+            break;
+          case "description":
+            description = reader.nextString();
+            break;
+          default:
+            reader.skipValue();
+            break;
+        }
+      }
+      reader.endObject();
+      receiver.portfolioItem(id, product, description);
+    }
+    reader.endArray();
+  }
+
+  // reads the failures, passing each to the receiver
+  private void readFailures() throws IOException {
+    reader.beginArray();
+    while (reader.hasNext()) {
+      String reason = null;
+      String message = null;
+      String type = null;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "reason":
+            reason = reader.nextString();
+            break;
+          case "message":
+            message = reader.nextString();
+            break;
+          case "type":
+            type = reader.nextStringOrNull();
+            break;
+          default:
+            reader.skipValue();
+            break;
+        }
+      }
+      reader.endObject();
+      receiver.failure(MarginError.of(reason, message, type));
+    }
+    reader.endArray();
+  }
+
+  // reads the margin, passing the details to the receiver before the total
+  private void readMargin() throws IOException {
+    if (reader.peek() == JsonReader.Token.NULL) {
+      reader.nextNull();
+      return;
+    }
+    double margin = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "margin":
+          margin = reader.nextDouble();
+          break;
+        case "marginDetails":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            readNamedValue();
+          }
+          reader.endArray();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    receiver.margin(margin);
+  }
+
+  // reads a named value, passing it to the receiver
+  private void readNamedValue() throws IOException {
+    String key = null;
+    double value = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "key":
+          key = reader.nextString();
+          break;
+        case "value":
+          value = reader.nextDouble();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    receiver.marginDetail(key, value);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Receiver of the properties of the result, in the order they are read.
+   */
+  interface Receiver {
+
+    /**
+     * Receives the status.
+     *
+     * @param status  the status
+     */
+    public abstract void status(MarginCalcResultStatus status);
+
+    /**
+     * Receives the type.
+     *
+     * @param type  the type
+     */
+    public abstract void type(MarginCalcRequestType type);
+
+    /**
+     * Receives the valuation date.
+     *
+     * @param valuationDate  the valuation date
+     */
+    public abstract void valuationDate(LocalDate valuationDate);
+
+    /**
+     * Receives the reporting currency.
+     *
+     * @param reportingCurrency  the reporting currency
+     */
+    public abstract void reportingCurrency(String reportingCurrency);
+
+    /**
+     * Receives a portfolio item.
+     *
+     * @param id  the identifier
+     * @param product  the product
+     * @param description  the description
+     */
+    public abstract void portfolioItem(String id, String product, String description);
+
+    /**
+     * Receives a detail of the margin, before the total margin.
+     *
+     * @param key  the key
+     * @param value  the value
+     */
+    public abstract void marginDetail(String key, double value);
+
+    /**
+     * Receives the total margin, after the details.
+     *
+     * @param margin  the margin
+     */
+    public abstract void margin(double margin);
+
+    /**
+     * Receives a failure.
+     *
+     * @param failure  the failure
+     */
+    public abstract void failure(MarginError failure);
+  }
+
+  //-------------------------------------------------------------------------
+  // receiver building the bean, passing portfolio items and failures to the handler if there is one
+  private static final class BeanReceiver implements Receiver {
+    private final MarginCalcResultHandler handler;
+    private final List<PortfolioItemSummary> portfolioItems = new ArrayList<>();
+    private final List<MarginError> failures = new ArrayList<>();
+    private final List<NamedValue> marginDetails = new ArrayList<>();
+    private MarginCalcResultStatus status;
+    private MarginCalcRequestType type;
+    private LocalDate valuationDate;
+    private String reportingCurrency;
+    private MarginSummary margin;
+
+    private BeanReceiver(MarginCalcResultHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void status(MarginCalcResultStatus status) {
+      this.status = status;
+    }
+
+    @Override
+    public void type(MarginCalcRequestType type) {
+      this.type = type;
+    }
+
+    @Override
+    public void valuationDate(LocalDate valuationDate) {
+      this.valuationDate = valuationDate;
+    }
+
+    @Override
+    public void reportingCurrency(String reportingCurrency) {
+      this.reportingCurrency = reportingCurrency;
+    }
+
+    @Override
+    public void portfolioItem(String id, String product, String description) {
+      PortfolioItemSummary item = PortfolioItemSummary.of(id, product, description);
+      if (handler != null) {
+        handler.portfolioItem(item);
+      } else {
+        portfolioItems.add(item);
+      }
+    }
+
+    @Override
+    public void marginDetail(String key, double value) {
+      marginDetails.add(NamedValue.of(key, value));
+    }
+
+    @Override
+    public void margin(double margin) {
+      this.margin = MarginSummary.of(margin, marginDetails);
+    }
+
+    @Override
+    public void failure(MarginError failure) {
+      if (handler != null) {
+        handler.failure(failure);
+      } else {
+        failures.add(failure);
+      }
+    }
+
+    private MarginCalcResult build() {
+      return MarginCalcResult.of(
+          status,
+          type,
+          valuationDate,
+          reportingCurrency,
+          handler != null ? Collections.emptyList() : portfolioItems,
+          margin,
+          handler != null ? Collections.emptyList() : failures);
+    }
+  }
+
+}
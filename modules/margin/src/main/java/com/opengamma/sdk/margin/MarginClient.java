@@ -5,7 +5,12 @@
  */
 package com.opengamma.sdk.margin;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import com.opengamma.sdk.common.ServiceInvoker;
 
@@ -26,6 +31,35 @@ public interface MarginClient {
     return InvokerMarginClient.of(invoker);
   }
 
+  /**
+   * Obtains an instance, specifying the strategy used to poll for results.
+   * <p>
+   * The {@link ServiceInvoker} provides authentication.
+   * By default, the {@linkplain PollingStrategy#adaptive() adaptive} strategy is used.
+   * 
+   * @param invoker  the service invoker
+   * @param pollingStrategy  the strategy used to decide when to poll for results
+   * @return the client
+   */
+  public static MarginClient of(ServiceInvoker invoker, PollingStrategy pollingStrategy) {
+    return InvokerMarginClient.of(invoker, pollingStrategy);
+  }
+
+  /**
+   * Obtains an instance that returns cached results where possible.
+   * <p>
+   * The calculate methods return a cached result if the same request has been calculated
+   * for the same CCP and the result has not expired. Otherwise, the underlying client is used
+   * and the result is stored in the cache. All other methods call the underlying client.
+   *
+   * @param client  the underlying client
+   * @param cache  the cache of results
+   * @return the client
+   */
+  public static MarginClient cached(MarginClient client, MarginResultCache cache) {
+    return CachingMarginClient.of(client, cache);
+  }
+
   //-------------------------------------------------------------------------
   /**
    * Lists the available CCPs.
@@ -34,8 +68,26 @@ public interface MarginClient {
    */
   public abstract CcpsResult listCcps();
 
+  /**
+   * Lists the available CCPs, returning a copy that is refreshed periodically in the background.
+   * <p>
+   * The CCPs are fetched from the service on first use, and then revalidated periodically in the background.
+   * Subsequent calls return the latest known CCPs without calling the service, thus the result may be
+   * up to five minutes out of date. Use {@link #listCcps()} to call the service.
+   * <p>
+   * The default implementation calls {@link #listCcps()}.
+   * 
+   * @return the list of available CCPs
+   */
+  public default CcpsResult listCcpsCached() {
+    return listCcps();
+  }
+
   /**
    * Creates a margin calculation task.
+   * <p>
+   * Where the service has confirmed that it holds a copy of some portfolio data,
+   * a reference to the data is sent instead of the data itself.
    * 
    * @param ccp  the CCP to use
    * @param request  the calculation request
@@ -53,6 +105,27 @@ public interface MarginClient {
    */
   public abstract MarginCalcResult getCalculation(Ccp ccp, String calcId);
 
+  /**
+   * Gets the result of a margin calculation task, streaming the portfolio items and failures to a handler.
+   * <p>
+   * The response is parsed incrementally, without holding the response text or the lists in memory.
+   * Each portfolio item and failure is passed to the handler as it is read.
+   * The returned result has empty lists of portfolio items and failures.
+   * If the calculation is pending, the handler is not invoked.
+   * <p>
+   * The default implementation gets the whole result and then passes the portfolio items and failures to the handler.
+   *
+   * @param ccp  the CCP to use
+   * @param calcId  the calculation identifier
+   * @param handler  the handler receiving the portfolio items and failures
+   * @return the calculation result, without portfolio items or failures
+   * @throws IllegalArgumentException if the calculation is not found
+   */
+  public default MarginCalcResult getCalculation(Ccp ccp, String calcId, MarginCalcResultHandler handler) {
+    Objects.requireNonNull(handler, "handler must not be null");
+    return MarginCalcResultReader.replay(getCalculation(ccp, calcId), handler);
+  }
+
   /**
    * Deletes a margin calculation task.
    *
@@ -72,8 +145,49 @@ public interface MarginClient {
    */
   public abstract MarginCalcResult calculate(Ccp ccp, MarginCalcRequest request);
 
+  /**
+   * High-level call to submit a portfolio for parsing, validation and IM calculation,
+   * streaming the portfolio items and failures to a handler.
+   * <p>
+   * This is suitable for very large portfolios, as the result is parsed incrementally,
+   * as per {@link #getCalculation(Ccp, String, MarginCalcResultHandler)}.
+   * The returned result has empty lists of portfolio items and failures.
+   * <p>
+   * The default implementation calculates the whole result and then passes the portfolio items
+   * and failures to the handler.
+   * 
+   * @param ccp  the CCP to use
+   * @param request  the calculation request
+   * @param handler  the handler receiving the portfolio items and failures
+   * @return the result of the calculation, without portfolio items or failures
+   */
+  public default MarginCalcResult calculate(Ccp ccp, MarginCalcRequest request, MarginCalcResultHandler handler) {
+    Objects.requireNonNull(handler, "handler must not be null");
+    return MarginCalcResultReader.replay(calculate(ccp, request), handler);
+  }
+
+  /**
+   * High-level call to submit a portfolio for parsing, validation and IM calculation,
+   * returning the result in columns.
+   * <p>
+   * The result is read directly from the response into columns, without creating an object
+   * for each portfolio item or margin detail. This is suitable for aggregating very large results.
+   * <p>
+   * The default implementation calculates the whole result and then converts it to columns.
+   * 
+   * @param ccp  the CCP to use
+   * @param request  the calculation request
+   * @return the detailed result of the calculation, in columns
+   */
+  public default MarginCalcResultColumns calculateColumnar(Ccp ccp, MarginCalcRequest request) {
+    return MarginCalcResultColumns.of(calculate(ccp, request));
+  }
+
   /**
    * High-level call to submit a portfolio for parsing, validation and IM calculation.
+   * <p>
+   * The calculation is submitted, polled and cleaned up using asynchronous HTTP calls.
+   * No thread is held while waiting for the service, thus many calculations may be in flight at once.
    * 
    * @param ccp  the CCP to use
    * @param request  the calculation request
@@ -81,4 +195,50 @@ public interface MarginClient {
    */
   public abstract CompletableFuture<MarginCalcResult> calculateAsync(Ccp ccp, MarginCalcRequest request);
 
+  /**
+   * High-level call to submit a batch of portfolios for parsing, validation and IM calculation.
+   * <p>
+   * Each item is submitted as per {@link #calculateAsync(Ccp, MarginCalcRequest)}, with at most
+   * {@code maxConcurrency} calculations in flight at any one time.
+   * The result of each item is expressed via a separate future, keyed by the item identifier.
+   * A failure of one item completes that future exceptionally and does not affect other items.
+   * 
+   * @param items  the items to calculate, with unique identifiers
+   * @param maxConcurrency  the maximum number of calculations in flight, at least one
+   * @return the detailed result of each calculation, keyed by item identifier, in the order of the items
+   * @throws IllegalArgumentException if the identifiers are not unique
+   */
+  public default Map<String, CompletableFuture<MarginCalcResult>> calculateBatch(
+      List<MarginCalcBatchItem> items,
+      int maxConcurrency) {
+
+    return BatchCalculator.submit(this, items, maxConcurrency);
+  }
+
+  /**
+   * High-level call to submit a stream of portfolios for parsing, validation and IM calculation.
+   * <p>
+   * Each item is submitted as per {@link #calculateAsync(Ccp, MarginCalcRequest)}.
+   * Items are pulled from the source lazily as results are consumed, such that at most
+   * {@code maxConcurrency} items are started but not yet consumed at any one time.
+   * A consumer that stops pulling results thus stops new items being pulled and submitted,
+   * bounding both the load on the service and the memory used, however large the source.
+   * <p>
+   * Results are returned in the order that calculations complete. A failure of one item
+   * is returned as a failed result and does not affect other items.
+   * The source is only accessed by the thread consuming the stream, when the stream is consumed.
+   * Closing the stream cancels the calculations in flight.
+   * 
+   * @param items  the source of items to calculate
+   * @param maxConcurrency  the maximum number of calculations started but not yet consumed, at least one
+   * @return the stream of results, in order of completion
+   * @throws IllegalArgumentException if the concurrency is invalid
+   */
+  public default Stream<MarginCalcBatchResult> calculateStream(
+      Iterator<MarginCalcBatchItem> items,
+      int maxConcurrency) {
+
+    return StreamCalculator.stream(this, items, maxConcurrency);
+  }
+
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.opengamma.sdk.common.JsonBeanDecoder;
+import com.opengamma.sdk.common.JsonReader;
+
+import okio.BufferedSource;
+
+/**
+ * Hand-written decoders of the responses of the margin service.
+ * <p>
+ * Each decoder dispatches on the property name, skipping unknown properties,
+ * and falls back to the Joda-Beans JSON reader if the JSON is not as expected.
+ * <p>
+ * The results of polling a calculation are read directly from the response, stopping at the status
+ * when the calculation is pending, and building columns without creating the result beans.
+ * These are not buffered, and thus have no fallback.
+ */
+final class MarginDecoders {
+
+  /**
+   * The decoder of the available CCPs.
+   */
+  static final JsonBeanDecoder<CcpsResult> CCPS_RESULT =
+      JsonBeanDecoder.of(CcpsResult.class, MarginDecoders::decodeCcpsResult);
+  /**
+   * The decoder of the result of a calculation.
+   */
+  static final JsonBeanDecoder<MarginCalcResult> MARGIN_CALC_RESULT =
+      JsonBeanDecoder.of(MarginCalcResult.class, MarginCalcResultReader::read);
+  /**
+   * The decoder of an error.
+   */
+  static final JsonBeanDecoder<ErrorMessage> ERROR_MESSAGE =
+      JsonBeanDecoder.of(ErrorMessage.class, MarginDecoders::decodeErrorMessage);
+
+  // restricted constructor
+  private MarginDecoders() {
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Decodes the result of polling a calculation, unless it is pending.
+   * <p>
+   * The source is read directly, stopping at the status if the calculation is pending.
+   *
+   * @param source  the source of JSON
+   * @return the result, null if pending
+   * @throws IOException if the JSON is malformed or cannot be read
+   * @throws RuntimeException if the JSON does not represent a valid result
+   */
+  static MarginCalcResult decodeResultUnlessPending(BufferedSource source) throws IOException {
+    return MarginCalcResultReader.readUnlessPending(JsonReader.of(source));
+  }
+
+  /**
+   * Decodes the result of polling a calculation into columns, unless it is pending.
+   * <p>
+   * The source is read directly, stopping at the status if the calculation is pending.
+   *
+   * @param source  the source of JSON
+   * @return the result, null if pending
+   * @throws IOException if the JSON is malformed or cannot be read
+   * @throws RuntimeException if the JSON does not represent a valid result
+   */
+  static MarginCalcResultColumns decodeColumnsUnlessPending(BufferedSource source) throws IOException {
+    return MarginCalcResultReader.readColumnsUnlessPending(JsonReader.of(source));
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Decodes the available CCPs.
+   *
+   * @param reader  the reader of JSON
+   * @return the CCPs
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  static CcpsResult decodeCcpsResult(JsonReader reader) throws IOException {
+    List<CcpInfo> ccps = new ArrayList<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "ccps":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            ccps.add(decodeCcpInfo(reader));
+          }
+          reader.endArray();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    return CcpsResult.of(ccps);
+  }
+
+  // decodes a CCP
+  private static CcpInfo decodeCcpInfo(JsonReader reader) throws IOException {
+    Ccp name = null;
+    URI uri = null;
+    List<LocalDate> valuationDates = new ArrayList<>();
+    String defaultCurrency = null;
+    List<String> reportingCurrencies = new ArrayList<>();
+    List<String> calculationCurrencies = new ArrayList<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "name":
+          name = Ccp.of(reader.nextString());
+          break;
+        case "uri":
+          uri = URI.create(reader.nextString());
+          break;
+        case "valuationDates":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            valuationDates.add(LocalDate.parse(reader.nextString()));
+          }
+          reader.endArray();
+          break;
+        case "defaultCurrency":
+          defaultCurrency = reader.nextString();
+          break;
+        case "reportingCurrencies":
+          decodeStrings(reader, reportingCurrencies);
+          break;
+        case "calculationCurrencies":
+          decodeStrings(reader, calculationCurrencies);
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    return CcpInfo.of(name, uri, valuationDates, defaultCurrency, reportingCurrencies, calculationCurrencies);
+  }
+
+  /**
+   * Decodes an error.
+   *
+   * @param reader  the reader of JSON
+   * @return the error
+   * @throws IOException if the JSON is malformed or cannot be read
+   */
+  static ErrorMessage decodeErrorMessage(JsonReader reader) throws IOException {
+    int status = 0;
+    String reason = null;
+    String message = null;
+    String type = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "status":
+          status = reader.nextInt();
+          break;
+        case "reason":
+          reason = reader.nextStringOrNull();
+          break;
+        case "message":
+          message = reader.nextStringOrNull();
+          break;
+        case "type":
+          type = reader.nextStringOrNull();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    return ErrorMessage.of(status, reason, message, type);
+  }
+
+  // decodes a list of strings
+  private static void decodeStrings(JsonReader reader, List<String> list) throws IOException {
+    reader.beginArray();
+    while (reader.hasNext()) {
+      list.add(reader.nextString());
+    }
+    reader.endArray();
+  }
+
+}
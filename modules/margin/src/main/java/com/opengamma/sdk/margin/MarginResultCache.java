@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.beans.ser.JodaBeanSer;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.HashingSink;
+import okio.Okio;
+
+/**
+ * Cache of margin calculation results.
+ * <p>
+ * The result of a calculation depends only on the CCP and the request, including the content
+ * of the portfolio data. Where the same request is calculated again, the cached result can be
+ * returned without calling the service. Use {@link MarginClient#cached(MarginClient, MarginResultCache)}
+ * to obtain a client that uses the cache.
+ * <p>
+ * Each result is keyed by a SHA-256 fingerprint of the CCP, the request properties and the hash of
+ * each portfolio data file. The hash of file-backed data is remembered for as long as the file is
+ * unchanged, thus a file is only read to calculate a key when it is new or has changed.
+ * Results expire once the time-to-live has passed, and the least recently used results are evicted
+ * once the maximum size is reached. Only completed results are cached.
+ * <p>
+ * If a directory is specified, results are also stored on disk, allowing them to be shared between
+ * processes and to survive a restart. Results on disk are subject to both the time-to-live and the maximum size.
+ * Whenever a result is written, expired results are deleted and the oldest results are deleted
+ * until the maximum size is respected.
+ * Failure to read or write the disk is treated as a cache miss.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class MarginResultCache {
+
+  /**
+   * The file suffix for results on disk.
+   */
+  private static final String SUFFIX = ".json";
+  /**
+   * The maximum number of file hashes to remember.
+   */
+  private static final int MAX_FILE_HASHES = 1000;
+
+  /**
+   * The maximum number of results, in memory and on disk.
+   */
+  private final int maxSize;
+  /**
+   * The time-to-live, in milliseconds.
+   */
+  private final long timeToLive;
+  /**
+   * The directory to store results in, null if not stored on disk.
+   */
+  private final Path directory;
+  /**
+   * The clock.
+   */
+  private final Clock clock;
+  /**
+   * The results in memory, guarded by this.
+   */
+  private final Map<String, CachedResult> results;
+  /**
+   * The hashes of file-backed portfolio data.
+   */
+  private final PortfolioDataCache fileHashes = PortfolioDataCache.of(MAX_FILE_HASHES);
+  /**
+   * The number of hits.
+   */
+  private final AtomicLong hits = new AtomicLong();
+  /**
+   * The number of misses.
+   */
+  private final AtomicLong misses = new AtomicLong();
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance that stores results in memory.
+   *
+   * @param maxSize  the maximum number of results to store
+   * @param timeToLive  the time that a result is stored for
+   * @return the cache
+   * @throws IllegalArgumentException if the size or time-to-live is not positive
+   */
+  public static MarginResultCache of(int maxSize, Duration timeToLive) {
+    return new MarginResultCache(maxSize, timeToLive, null, Clock.systemUTC());
+  }
+
+  /**
+   * Obtains an instance that stores results in memory and on disk.
+   * <p>
+   * The directory is created if necessary.
+   *
+   * @param maxSize  the maximum number of results to store, in memory and on disk
+   * @param timeToLive  the time that a result is stored for
+   * @param directory  the directory to store results in
+   * @return the cache
+   * @throws IllegalArgumentException if the size or time-to-live is not positive
+   * @throws UncheckedIOException if the directory cannot be created
+   */
+  public static MarginResultCache of(int maxSize, Duration timeToLive, Path directory) {
+    Objects.requireNonNull(directory, "directory must not be null");
+    return new MarginResultCache(maxSize, timeToLive, directory, Clock.systemUTC());
+  }
+
+  // obtains an instance with a specific clock
+  static MarginResultCache of(int maxSize, Duration timeToLive, Path directory, Clock clock) {
+    return new MarginResultCache(maxSize, timeToLive, directory, clock);
+  }
+
+  private MarginResultCache(int maxSize, Duration timeToLive, Path directory, Clock clock) {
+    Objects.requireNonNull(timeToLive, "timeToLive must not be null");
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Maximum size must be positive");
+    }
+    if (timeToLive.isNegative() || timeToLive.isZero()) {
+      throw new IllegalArgumentException("Time-to-live must be positive");
+    }
+    this.maxSize = maxSize;
+    this.timeToLive = timeToLive.toMillis();
+    this.directory = directory;
+    this.clock = clock;
+    this.results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+        return size() > MarginResultCache.this.maxSize;
+      }
+    };
+    if (directory != null) {
+      try {
+        Files.createDirectories(directory);
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of times a result was found in the cache.
+   *
+   * @return the number of hits
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of times a result was not found in the cache.
+   *
+   * @return the number of misses
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Gets the number of results currently held in memory, including any that have expired.
+   *
+   * @return the number of results in memory
+   */
+  public synchronized int size() {
+    return results.size();
+  }
+
+  /**
+   * Removes all results from the cache, including those on disk.
+   * <p>
+   * The hit and miss counts are not reset.
+   */
+  public void clear() {
+    synchronized (this) {
+      results.clear();
+    }
+    if (directory != null) {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+        for (Path file : files) {
+          Files.deleteIfExists(file);
+        }
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Calculates the key of a calculation.
+   * <p>
+   * File-backed portfolio data is only read if the file is new or has changed.
+   *
+   * @param ccp  the CCP
+   * @param request  the calculation request
+   * @return the key
+   */
+  String key(Ccp ccp, MarginCalcRequest request) {
+    HashingSink hashingSink = HashingSink.sha256(Okio.blackhole());
+    try (BufferedSink sink = Okio.buffer(hashingSink)) {
+      writeField(sink, ccp.name());
+      writeField(sink, request.getType().name());
+      writeField(sink, request.getValuationDate().toString());
+      writeField(sink, Boolean.toString(request.isApplyClientMultiplier()));
+      writeField(sink, request.getReportingCurrency());
+      writeField(sink, request.getCalculationCurrency().orElse(""));
+      for (PortfolioDataFile data : request.getPortfolioData()) {
+        Optional<Path> file = data.getFile();
+        String hash = file.isPresent() ?
+            MarginCalcRequestBody.hashFile(file.get(), fileHashes) :
+            PortfolioDataCache.hash(data.getData());
+        writeField(sink, data.getName());
+        writeField(sink, hash);
+      }
+      sink.flush();
+      return hashingSink.hash().hex();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Finds a result, recording a hit or miss.
+   *
+   * @param key  the key
+   * @return the result, empty if not found
+   */
+  Optional<MarginCalcResult> find(String key) {
+    long now = clock.millis();
+    CachedResult entry;
+    synchronized (this) {
+      entry = results.get(key);
+      if (entry != null && entry.expiry <= now) {
+        results.remove(key);
+        entry = null;
+      }
+    }
+    if (entry == null && directory != null) {
+      entry = readFile(key, now);
+      if (entry != null) {
+        synchronized (this) {
+          results.put(key, entry);
+        }
+      }
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      return Optional.empty();
+    }
+    hits.incrementAndGet();
+    return Optional.of(entry.result);
+  }
+
+  /**
+   * Stores a result, if it is completed.
+   *
+   * @param key  the key
+   * @param result  the result
+   */
+  void put(String key, MarginCalcResult result) {
+    if (result.getStatus() != MarginCalcResultStatus.COMPLETED) {
+      return;
+    }
+    long now = clock.millis();
+    synchronized (this) {
+      results.put(key, new CachedResult(result, now + timeToLive));
+    }
+    if (directory != null) {
+      writeFile(key, result, now);
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // writes a field of the key, terminated such that adjacent fields cannot be confused
+  private static void writeField(BufferedSink sink, String value) throws IOException {
+    sink.writeUtf8(value);
+    sink.writeByte(0);
+  }
+
+  // reads a result from disk, null if not found or expired
+  private CachedResult readFile(String key, long now) {
+    Path file = directory.resolve(key + SUFFIX);
+    try {
+      if (!Files.isRegularFile(file)) {
+        return null;
+      }
+      long expiry = Files.getLastModifiedTime(file).toMillis() + timeToLive;
+      if (expiry <= now) {
+        Files.deleteIfExists(file);
+        return null;
+      }
+      try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+        return new CachedResult(MarginDecoders.MARGIN_CALC_RESULT.decode(source), expiry);
+      }
+    } catch (IOException | RuntimeException ex) {
+      // treat an unreadable file as a miss
+      return null;
+    }
+  }
+
+  // writes a result to disk, replacing the file atomically
+  // the modification time of the file is used to determine when it expires
+  private void writeFile(String key, MarginCalcResult result, long now) {
+    Path file = directory.resolve(key + SUFFIX);
+    try {
+      Path temp = Files.createTempFile(directory, key, ".tmp");
+      try {
+        String json = JodaBeanSer.COMPACT.jsonWriter().write(result, false);
+        Files.write(temp, json.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(temp, FileTime.fromMillis(now));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+      sweep(now);
+    } catch (IOException | RuntimeException ex) {
+      // the result remains cached in memory
+    }
+  }
+
+  // deletes expired results from disk, then the oldest results until the maximum size is respected
+  // other processes may share the directory, thus files that have already gone are ignored
+  private void sweep(long now) throws IOException {
+    List<Path> files = new ArrayList<>();
+    Map<Path, Long> modified = new HashMap<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path file : stream) {
+        try {
+          long lastModified = Files.getLastModifiedTime(file).toMillis();
+          if (lastModified + timeToLive <= now) {
+            Files.deleteIfExists(file);
+          } else {
+            files.add(file);
+            modified.put(file, lastModified);
+          }
+        } catch (NoSuchFileException ex) {
+          // deleted by another process
+        }
+      }
+    }
+    if (files.size() > maxSize) {
+      files.sort(Comparator.comparing(modified::get));
+      for (Path file : files.subList(0, files.size() - maxSize)) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // a cached result
+  private static final class CachedResult {
+    private final MarginCalcResult result;
+    private final long expiry;
+
+    private CachedResult(MarginCalcResult result, long expiry) {
+      this.result = result;
+      this.expiry = expiry;
+    }
+  }
+
+}
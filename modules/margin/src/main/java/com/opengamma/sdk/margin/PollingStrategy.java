@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.time.Duration;
+
+/**
+ * Strategy used to decide when to poll the margin service for the result of a calculation.
+ * <p>
+ * The strategy is consulted by {@link MarginClient#calculate(Ccp, MarginCalcRequest)}
+ * and {@link MarginClient#calculateAsync(Ccp, MarginCalcRequest)}.
+ * Implementations must be thread-safe, as they are shared by all calculations of a client.
+ */
+public interface PollingStrategy {
+
+  /**
+   * Obtains a strategy that polls at a fixed interval.
+   *
+   * @param interval  the interval between polls
+   * @return the strategy
+   */
+  public static PollingStrategy fixed(Duration interval) {
+    return FixedPollingStrategy.of(interval);
+  }
+
+  /**
+   * Obtains a strategy that learns the expected time to complete from previous calculations.
+   * <p>
+   * The time taken is tracked separately for each CCP, calculation type and portfolio size.
+   * The first poll is made shortly before the predicted completion time,
+   * with later polls backing off exponentially, with jitter.
+   * Until there is history, the first poll is made after 500ms.
+   *
+   * @return the strategy
+   */
+  public static PollingStrategy adaptive() {
+    return AdaptivePollingStrategy.of();
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the delay before the first poll.
+   *
+   * @param ccp  the CCP
+   * @param request  the calculation request
+   * @return the delay before the first poll
+   */
+  public abstract Duration initialDelay(Ccp ccp, MarginCalcRequest request);
+
+  /**
+   * Gets the delay before the next poll, when the calculation is still pending.
+   *
+   * @param ccp  the CCP
+   * @param request  the calculation request
+   * @param pollCount  the number of polls made so far, one or greater
+   * @param elapsed  the time elapsed since the calculation was created
+   * @return the delay before the next poll
+   */
+  public abstract Duration nextDelay(Ccp ccp, MarginCalcRequest request, int pollCount, Duration elapsed);
+
+  /**
+   * Records that a calculation has completed.
+   * <p>
+   * This allows the strategy to learn from the time taken.
+   *
+   * @param ccp  the CCP
+   * @param request  the calculation request
+   * @param elapsed  the time elapsed between the calculation being created and the result being received
+   */
+  public abstract void completed(Ccp ccp, MarginCalcRequest request, Duration elapsed);
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Cache of the content hashes of portfolio data that the service has confirmed it holds.
+ * <p>
+ * Portfolio data is identified by the SHA-256 hash of its UTF-8 encoded content.
+ * When the service confirms that it has stored data with a given hash, subsequent requests
+ * containing the same data can refer to it by hash rather than uploading it again.
+ * <p>
+ * The hash of in-memory data is calculated when needed. The hash of file-backed data is
+ * calculated while the file is uploaded, and is remembered for as long as the file is unchanged.
+ * Both the confirmed hashes and the file hashes are held in least-recently-used maps of bounded size.
+ * <p>
+ * This class is thread-safe.
+ */
+final class PortfolioDataCache {
+
+  /**
+   * The hash algorithm.
+   */
+  private static final String ALGORITHM = "SHA-256";
+  /**
+   * The number of characters of in-memory data hashed at a time.
+   */
+  private static final int CHUNK_SIZE = 4096;
+  /**
+   * The hex digits.
+   */
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * The hashes confirmed by the service, guarded by this.
+   */
+  private final Map<String, Boolean> confirmed;
+  /**
+   * The hashes of files, guarded by this.
+   */
+  private final Map<FileKey, String> fileHashes;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Obtains an instance.
+   *
+   * @param maxSize  the maximum number of hashes to remember
+   * @return the cache
+   */
+  static PortfolioDataCache of(int maxSize) {
+    return new PortfolioDataCache(maxSize);
+  }
+
+  private PortfolioDataCache(int maxSize) {
+    this.confirmed = lruMap(maxSize);
+    this.fileHashes = lruMap(maxSize);
+  }
+
+  // creates a map that evicts the least recently used entry when full
+  private static <K, V> Map<K, V> lruMap(int maxSize) {
+    return new LinkedHashMap<K, V>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Finds the hash of the portfolio data, if the service has confirmed it holds the data.
+   * <p>
+   * This calculates the hash of in-memory data, but never reads files.
+   * No hash is calculated if the service has not confirmed that it holds any data.
+   *
+   * @param data  the portfolio data
+   * @return the hash, empty if the data must be uploaded
+   */
+  Optional<String> findConfirmedHash(PortfolioDataFile data) {
+    synchronized (this) {
+      if (confirmed.isEmpty()) {
+        return Optional.empty();
+      }
+    }
+    Optional<Path> file = data.getFile();
+    String hash;
+    if (file.isPresent()) {
+      Optional<FileKey> key = FileKey.of(file.get());
+      synchronized (this) {
+        hash = key.map(fileHashes::get).orElse(null);
+      }
+    } else {
+      hash = hash(data.getData());
+    }
+    synchronized (this) {
+      return hash != null && confirmed.get(hash) != null ? Optional.of(hash) : Optional.empty();
+    }
+  }
+
+  /**
+   * Finds the hash of a file, if it has been calculated since the file last changed.
+   *
+   * @param key  the key of the file
+   * @return the hash, empty if not known
+   */
+  synchronized Optional<String> findFileHash(FileKey key) {
+    return Optional.ofNullable(fileHashes.get(key));
+  }
+
+  /**
+   * Records the hash of a file, calculated while it was read.
+   *
+   * @param key  the key of the file, obtained before it was read
+   * @param hash  the hash of the content
+   */
+  synchronized void fileHashed(FileKey key, String hash) {
+    fileHashes.put(key, hash);
+  }
+
+  /**
+   * Records that the service holds data with the specified hashes.
+   *
+   * @param hashes  the hashes
+   */
+  synchronized void confirmed(Collection<String> hashes) {
+    for (String hash : hashes) {
+      confirmed.put(hash, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Records that the service no longer holds data with the specified hashes.
+   *
+   * @param hashes  the hashes
+   */
+  synchronized void evict(Collection<String> hashes) {
+    confirmed.keySet().removeAll(hashes);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Creates a digest to calculate a hash.
+   *
+   * @return the digest
+   */
+  static MessageDigest digest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Converts a completed digest to a hash.
+   *
+   * @param digest  the digest
+   * @return the hash, as lower-case hex
+   */
+  static String toHash(MessageDigest digest) {
+    byte[] bytes = digest.digest();
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+    }
+    return new String(chars);
+  }
+
+  // calculates the hash of a string, encoding it in chunks to avoid copying large data
+  static String hash(String data) {
+    MessageDigest digest = digest();
+    int start = 0;
+    while (start < data.length()) {
+      int end = Math.min(start + CHUNK_SIZE, data.length());
+      if (end < data.length() && Character.isHighSurrogate(data.charAt(end - 1))) {
+        end++;
+      }
+      digest.update(data.substring(start, end).getBytes(StandardCharsets.UTF_8));
+      start = end;
+    }
+    return toHash(digest);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Identifies the state of a file, such that a change to the file is detected.
+   */
+  static final class FileKey {
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+
+    /**
+     * Obtains the key of a file.
+     *
+     * @param path  the path of the file
+     * @return the key, empty if the file attributes cannot be read
+     */
+    static Optional<FileKey> of(Path path) {
+      try {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return Optional.of(new FileKey(path.toAbsolutePath(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+      } catch (IOException | SecurityException ex) {
+        return Optional.empty();
+      }
+    }
+
+    private FileKey(Path path, long size, long lastModified) {
+      this.path = path;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (obj instanceof FileKey) {
+        FileKey other = (FileKey) obj;
+        return path.equals(other.path) && size == other.size && lastModified == other.lastModified;
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, size, lastModified);
+    }
+  }
+
+}
@@ -13,12 +13,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import org.joda.beans.Bean;
 import org.joda.beans.BeanBuilder;
 import org.joda.beans.BeanDefinition;
 import org.joda.beans.ImmutableBean;
+import org.joda.beans.ImmutableConstructor;
 import org.joda.beans.JodaBeanUtils;
 import org.joda.beans.MetaBean;
 import org.joda.beans.MetaProperty;
@@ -42,9 +45,15 @@ public final class PortfolioDataFile implements ImmutableBean {
   private final String name;
   /**
    * The portfolio data.
+   * <p>
+   * This is null if the data is to be streamed from a file.
    */
-  @PropertyDefinition(validate = "notNull")
+  @PropertyDefinition(validate = "notNull", get = "manual")
   private final String data;
+  /**
+   * The file to stream the data from, null if the data is held in memory.
+   */
+  private final Path file;
 
   //-------------------------------------------------------------------------
   /**
@@ -65,72 +74,83 @@ public final class PortfolioDataFile implements ImmutableBean {
    * @return the instance
    */
   public static PortfolioDataFile of(Path path) {
-    try {
-      String data = Files.lines(path, StandardCharsets.UTF_8).collect(joining("\n"));
-      return new PortfolioDataFile(path.getFileName().toString(), data);
-    } catch (IOException ex) {
-      throw new IllegalStateException(
-          "IOException processing file: " + path.getFileName().toString() + ": " + ex.getMessage(), ex);
-    }
+    return new PortfolioDataFile(path.getFileName().toString(), readFile(path));
   }
 
-  //------------------------- AUTOGENERATED START -------------------------
-  ///CLOVER:OFF
   /**
-   * The meta-bean for {@code PortfolioDataFile}.
-   * @return the meta-bean, not null
+   * Obtains an instance that streams the data from a file.
+   * <p>
+   * Unlike {@link #of(Path)}, the file is not read into memory when this method is called.
+   * Instead, the data is streamed directly from the file when the request is sent to the service,
+   * thus memory usage is independent of the size of the file.
+   * The file must be encoded in UTF-8 and must not change until the request has been sent.
+   * 
+   * @param path  the file
+   * @return the instance
+   * @throws IllegalArgumentException if the file does not exist
    */
-  public static MetaBean meta() {
-    return PortfolioDataFile.Meta.INSTANCE;
-  }
-
-  static {
-    JodaBeanUtils.registerMetaBean(PortfolioDataFile.Meta.INSTANCE);
+  public static PortfolioDataFile ofStreaming(Path path) {
+    if (!Files.isRegularFile(path)) {
+      throw new IllegalArgumentException("File not found: " + path);
+    }
+    return new PortfolioDataFile(path.getFileName().toString(), path);
   }
 
-  private PortfolioDataFile(
-      String name,
-      String data) {
+  @ImmutableConstructor
+  private PortfolioDataFile(String name, String data) {
     JodaBeanUtils.notNull(name, "name");
     JodaBeanUtils.notNull(data, "data");
     this.name = name;
     this.data = data;
+    this.file = null;
   }
 
-  @Override
-  public MetaBean metaBean() {
-    return PortfolioDataFile.Meta.INSTANCE;
-  }
-
-  @Override
-  public <R> Property<R> property(String propertyName) {
-    return metaBean().<R>metaProperty(propertyName).createProperty(this);
+  private PortfolioDataFile(String name, Path file) {
+    this.name = name;
+    this.data = null;
+    this.file = file;
   }
 
-  @Override
-  public Set<String> propertyNames() {
-    return metaBean().metaPropertyMap().keySet();
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the portfolio data.
+   * <p>
+   * If the data is streamed from a file, the file is read by this method.
+   * 
+   * @return the value of the property, not null
+   */
+  public String getData() {
+    return (file != null ? readFile(file) : data);
   }
 
-  //-----------------------------------------------------------------------
   /**
-   * Gets the portfolio name.
-   * @return the value of the property, not null
+   * Gets the file that the data is streamed from.
+   * 
+   * @return the file, empty if the data is held in memory
    */
-  public String getName() {
-    return name;
+  Optional<Path> getFile() {
+    return Optional.ofNullable(file);
   }
 
-  //-----------------------------------------------------------------------
   /**
-   * Gets the portfolio data.
-   * @return the value of the property, not null
+   * Gets the size of the data, without reading a file.
+   * <p>
+   * This is the number of characters for data held in memory and the number of bytes for a file.
+   * 
+   * @return the size of the data
    */
-  public String getData() {
-    return data;
+  long getDataSize() {
+    if (file == null) {
+      return data.length();
+    }
+    try {
+      return Files.size(file);
+    } catch (IOException ex) {
+      return 0;
+    }
   }
 
-  //-----------------------------------------------------------------------
+  //-------------------------------------------------------------------------
   @Override
   public boolean equals(Object obj) {
     if (obj == this) {
@@ -139,7 +159,8 @@ public final class PortfolioDataFile implements ImmutableBean {
     if (obj != null && obj.getClass() == this.getClass()) {
       PortfolioDataFile other = (PortfolioDataFile) obj;
       return JodaBeanUtils.equal(name, other.name) &&
-          JodaBeanUtils.equal(data, other.data);
+          JodaBeanUtils.equal(data, other.data) &&
+          JodaBeanUtils.equal(file, other.file);
     }
     return false;
   }
@@ -149,6 +170,7 @@ public final class PortfolioDataFile implements ImmutableBean {
     int hash = getClass().hashCode();
     hash = hash * 31 + JodaBeanUtils.hashCode(name);
     hash = hash * 31 + JodaBeanUtils.hashCode(data);
+    hash = hash * 31 + JodaBeanUtils.hashCode(file);
     return hash;
   }
 
@@ -157,11 +179,63 @@ public final class PortfolioDataFile implements ImmutableBean {
     StringBuilder buf = new StringBuilder(96);
     buf.append("PortfolioDataFile{");
     buf.append("name").append('=').append(name).append(',').append(' ');
-    buf.append("data").append('=').append(JodaBeanUtils.toString(data));
+    if (file != null) {
+      buf.append("file").append('=').append(file);
+    } else {
+      buf.append("data").append('=').append(JodaBeanUtils.toString(data));
+    }
     buf.append('}');
     return buf.toString();
   }
 
+  // reads the file, matching the format of the data when the file is read into memory
+  private static String readFile(Path path) {
+    try (Stream<String> lines = Files.lines(path, StandardCharsets.UTF_8)) {
+      return lines.collect(joining("\n"));
+    } catch (IOException ex) {
+      throw new IllegalStateException(
+          "IOException processing file: " + path.getFileName().toString() + ": " + ex.getMessage(), ex);
+    }
+  }
+
+  //------------------------- AUTOGENERATED START -------------------------
+  ///CLOVER:OFF
+  /**
+   * The meta-bean for {@code PortfolioDataFile}.
+   * @return the meta-bean, not null
+   */
+  public static MetaBean meta() {
+    return PortfolioDataFile.Meta.INSTANCE;
+  }
+
+  static {
+    JodaBeanUtils.registerMetaBean(PortfolioDataFile.Meta.INSTANCE);
+  }
+
+  @Override
+  public MetaBean metaBean() {
+    return PortfolioDataFile.Meta.INSTANCE;
+  }
+
+  @Override
+  public <R> Property<R> property(String propertyName) {
+    return metaBean().<R>metaProperty(propertyName).createProperty(this);
+  }
+
+  @Override
+  public Set<String> propertyNames() {
+    return metaBean().metaPropertyMap().keySet();
+  }
+
+  //-----------------------------------------------------------------------
+  /**
+   * Gets the portfolio name.
+   * @return the value of the property, not null
+   */
+  public String getName() {
+    return name;
+  }
+
   //-----------------------------------------------------------------------
   /**
    * The meta-bean for {@code PortfolioDataFile}.
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Calculates a stream of margin calculations with bounded concurrency and backpressure.
+ * <p>
+ * Items are pulled from the source only when there is capacity, which is when fewer than
+ * {@code maxConcurrency} items have been started but not yet consumed. Thus, a consumer that stops
+ * pulling results stops new calculations being submitted, and at most {@code maxConcurrency}
+ * requests and results are held in memory at any one time, regardless of the size of the source.
+ * <p>
+ * The source is only accessed by the thread consuming the results.
+ * Results are returned in the order that the calculations complete.
+ */
+final class StreamCalculator implements Iterator<MarginCalcBatchResult> {
+
+  /**
+   * The client used to perform each calculation.
+   */
+  private final MarginClient client;
+  /**
+   * The source of items.
+   */
+  private final Iterator<MarginCalcBatchItem> source;
+  /**
+   * The maximum number of items started but not yet consumed.
+   */
+  private final int maxConcurrency;
+  /**
+   * The completed calculations, waiting to be consumed.
+   */
+  private final BlockingQueue<MarginCalcBatchResult> completed = new LinkedBlockingQueue<>();
+  /**
+   * The calculations in flight, cancelled if the stream is closed.
+   */
+  private final Set<CompletableFuture<MarginCalcResult>> inFlight = ConcurrentHashMap.newKeySet();
+  /**
+   * The number of items started but not yet consumed, only accessed by the consuming thread.
+   */
+  private int outstanding;
+  /**
+   * Whether the stream has been closed.
+   */
+  private volatile boolean closed;
+
+  //-------------------------------------------------------------------------
+  /**
+   * Creates the stream of results.
+   *
+   * @param client  the client used to perform each calculation
+   * @param source  the source of items
+   * @param maxConcurrency  the maximum number of calculations in flight
+   * @return the stream of results, in order of completion
+   * @throws IllegalArgumentException if the concurrency is invalid
+   */
+  static Stream<MarginCalcBatchResult> stream(
+      MarginClient client,
+      Iterator<MarginCalcBatchItem> source,
+      int maxConcurrency) {
+
+    StreamCalculator calculator = new StreamCalculator(client, source, maxConcurrency);
+    Spliterator<MarginCalcBatchResult> spliterator =
+        Spliterators.spliteratorUnknownSize(calculator, Spliterator.NONNULL);
+    return StreamSupport.stream(spliterator, false).onClose(calculator::close);
+  }
+
+  private StreamCalculator(MarginClient client, Iterator<MarginCalcBatchItem> source, int maxConcurrency) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("maxConcurrency must be at least one: " + maxConcurrency);
+    }
+    this.client = client;
+    this.source = Objects.requireNonNull(source, "source must not be null");
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public boolean hasNext() {
+    fill();
+    return outstanding > 0;
+  }
+
+  @Override
+  public MarginCalcBatchResult next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    try {
+      MarginCalcBatchResult result = completed.take();
+      outstanding--;
+      return result;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for margin calculation", ex);
+    }
+  }
+
+  // starts items from the source until the concurrency limit is reached
+  private void fill() {
+    while (!closed && outstanding < maxConcurrency && source.hasNext()) {
+      MarginCalcBatchItem item = source.next();
+      outstanding++;
+      start(item);
+    }
+  }
+
+  // starts a single item, isolating any failure to that item
+  private void start(MarginCalcBatchItem item) {
+    CompletableFuture<MarginCalcResult> calc = calculateAsync(item);
+    inFlight.add(calc);
+    calc.whenComplete((result, ex) -> {
+      inFlight.remove(calc);
+      completed.add(ex != null ? MarginCalcBatchResult.ofFailure(item, ex) : MarginCalcBatchResult.ofResult(item, result));
+    });
+  }
+
+  // starts the calculation, capturing any immediate failure in the future
+  private CompletableFuture<MarginCalcResult> calculateAsync(MarginCalcBatchItem item) {
+    try {
+      return client.calculateAsync(item.getCcp(), item.getRequest());
+    } catch (RuntimeException ex) {
+      CompletableFuture<MarginCalcResult> failed = new CompletableFuture<>();
+      failed.completeExceptionally(ex);
+      return failed;
+    }
+  }
+
+  // stops pulling from the source and cancels the calculations in flight
+  private void close() {
+    closed = true;
+    inFlight.forEach(calc -> calc.cancel(false));
+  }
+
+}
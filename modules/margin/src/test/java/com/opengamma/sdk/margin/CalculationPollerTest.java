@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test {@link CalculationPoller}.
+ */
+@Test
+public class CalculationPollerTest {
+
+  private static final LocalDate VAL_DATE = LocalDate.of(2017, 6, 1);
+  private static final MarginCalcRequest REQUEST =
+      MarginCalcRequest.of(VAL_DATE, "GBP", Collections.emptyList(), MarginCalcRequestType.STANDARD, false);
+  private static final PollingStrategy STRATEGY = PollingStrategy.fixed(Duration.ofMillis(1));
+  // the fetcher completes with null while pending
+  private static final MarginCalcResult PENDING = null;
+  private static final MarginCalcResult COMPLETED = MarginCalcResult.of(
+      MarginCalcResultStatus.COMPLETED,
+      MarginCalcRequestType.STANDARD,
+      VAL_DATE,
+      "GBP",
+      Collections.emptyList(),
+      null,
+      Collections.emptyList());
+
+  private ScheduledExecutorService executor;
+
+  @BeforeMethod
+  public void setUp() {
+    executor = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  //-------------------------------------------------------------------------
+  public void test_pollsAllUntilComplete() {
+    // each calculation is pending for its first two polls
+    Map<String, AtomicInteger> polls = new ConcurrentHashMap<>();
+    CalculationPoller poller = new CalculationPoller(executor, (ccp, calcId) -> {
+      int count = polls.computeIfAbsent(calcId, id -> new AtomicInteger()).incrementAndGet();
+      return CompletableFuture.completedFuture(count > 2 ? COMPLETED : PENDING);
+    }, STRATEGY, 1, 2);
+
+    Instant timeout = Instant.now().plusSeconds(60);
+    List<CompletableFuture<MarginCalcResult>> futures = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      CompletableFuture<MarginCalcResult> future = new CompletableFuture<>();
+      poller.register(i % 2 == 0 ? Ccp.LCH : Ccp.CME, "calc" + i, REQUEST, timeout, future);
+      futures.add(future);
+    }
+    for (CompletableFuture<MarginCalcResult> future : futures) {
+      assertEquals(future.join().getStatus(), MarginCalcResultStatus.COMPLETED);
+    }
+    assertEquals(polls.size(), 10);
+    for (AtomicInteger count : polls.values()) {
+      assertEquals(count.get(), 3);
+    }
+  }
+
+  public void test_fetchFailure() {
+    CalculationPoller poller = new CalculationPoller(executor, (ccp, calcId) -> {
+      CompletableFuture<MarginCalcResult> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new IllegalStateException("Error"));
+      return failed;
+    }, STRATEGY, 1, 2);
+
+    CompletableFuture<MarginCalcResult> future = new CompletableFuture<>();
+    poller.register(Ccp.LCH, "calc", REQUEST, Instant.now().plusSeconds(60), future);
+    assertThrows(CompletionException.class, () -> future.join());
+  }
+
+  public void test_timeout() {
+    CalculationPoller poller =
+        new CalculationPoller(executor, (ccp, calcId) -> CompletableFuture.completedFuture(PENDING), STRATEGY, 1, 2);
+
+    CompletableFuture<MarginCalcResult> future = new CompletableFuture<>();
+    poller.register(Ccp.LCH, "calc", REQUEST, Instant.now(), future);
+    assertThrows(CompletionException.class, () -> future.join());
+  }
+
+  public void test_cancelStopsPolling() throws Exception {
+    AtomicInteger polls = new AtomicInteger();
+    CalculationPoller poller = new CalculationPoller(executor, (ccp, calcId) -> {
+      polls.incrementAndGet();
+      return CompletableFuture.completedFuture(PENDING);
+    }, STRATEGY, 1, 2);
+
+    CompletableFuture<MarginCalcResult> future = new CompletableFuture<>();
+    future.cancel(false);
+    poller.register(Ccp.LCH, "calc", REQUEST, Instant.now().plusSeconds(60), future);
+    Thread.sleep(50);
+    assertEquals(polls.get(), 0);
+    assertTrue(future.isCancelled());
+  }
+
+}
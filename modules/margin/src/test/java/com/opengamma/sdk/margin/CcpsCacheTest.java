@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test {@link CcpsCache}.
+ */
+@Test
+public class CcpsCacheTest {
+
+  private static final CcpsResult CCPS = CcpsResult.of(Collections.emptyList());
+
+  public void test_refresh_cancelledWhenUnused() throws Exception {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+    executor.setRemoveOnCancelPolicy(true);
+    AtomicInteger fetches = new AtomicInteger();
+    try {
+      CcpsCache cache = new CcpsCache(
+          executor,
+          current -> {
+            fetches.incrementAndGet();
+            return CompletableFuture.completedFuture(new CcpsCache.Snapshot(CCPS, null, null));
+          },
+          Duration.ofMillis(10));
+      assertEquals(cache.get(), CCPS);
+      long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+      while (fetches.get() < 2 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertTrue(fetches.get() >= 2);
+      cache = null;
+
+      // the refresh task cancels itself once the cache has been garbage collected
+      while (isScheduled(executor) && System.nanoTime() < deadline) {
+        System.gc();
+        Thread.sleep(20);
+      }
+      assertFalse(isScheduled(executor));
+      int count = fetches.get();
+      Thread.sleep(100);
+      assertEquals(fetches.get(), count);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // checks if a task is queued or running
+  private static boolean isScheduled(ScheduledThreadPoolExecutor executor) {
+    return !executor.getQueue().isEmpty() || executor.getActiveCount() > 0;
+  }
+
+}
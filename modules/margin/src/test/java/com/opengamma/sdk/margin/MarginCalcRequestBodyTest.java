@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import org.joda.beans.ser.JodaBeanSer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import okio.Buffer;
+
+/**
+ * Test {@link MarginCalcRequestBody}.
+ */
+@Test
+public class MarginCalcRequestBodyTest {
+
+  private static final LocalDate VAL_DATE = LocalDate.of(2017, 6, 1);
+
+  private Path dir;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("margin");
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  //-------------------------------------------------------------------------
+  @DataProvider(name = "content")
+  public static Object[][] data_content() {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      large.append("Trade,\"").append(i).append("\",\u2028\u00e9\u20ac\r\n");
+    }
+    return new Object[][] {
+        {""},
+        {"a"},
+        {"a\n"},
+        {"a\n\n"},
+        {"\n"},
+        {"\r\n\r\n"},
+        {"a\r\nb\rc\n\rd\r"},
+        {"quote\" backslash\\ tab\t control\u0001 delete\u007f"},
+        {"separators\u2028\u2029 partial\u2020 \u00e2\u0080"},
+        {"unicode \u00e9 \u20ac \ud83d\ude00"},
+        {large.toString()},
+    };
+  }
+
+  @Test(dataProvider = "content")
+  public void test_streamingMatchesInMemory(String content) throws IOException {
+    Path file = dir.resolve("trades.txt");
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+
+    PortfolioDataFile streaming = PortfolioDataFile.ofStreaming(file);
+    PortfolioDataFile inMemory = PortfolioDataFile.of(file);
+    assertEquals(streaming.getName(), "trades.txt");
+    assertEquals(streaming.getData(), inMemory.getData());
+
+    MarginCalcRequest request = MarginCalcRequest.of(VAL_DATE, "GBP", Arrays.asList(streaming, inMemory));
+    MarginCalcRequest expected = MarginCalcRequest.of(VAL_DATE, "GBP", Arrays.asList(inMemory, inMemory));
+    assertEquals(write(request), JodaBeanSer.COMPACT.jsonWriter().write(expected, false));
+  }
+
+  public void test_streamingMatchesInMemory_mapped() throws IOException {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      large.append("Trade,").append(i).append(",\"GBP\",\u2029\u00e9\\\r\n");
+    }
+    test_streamingMatchesInMemory(large.toString());
+  }
+
+  public void test_fileHash() throws IOException {
+    Path file = dir.resolve("trades.txt");
+    Files.write(file, "a,b\r\nc,\u2028d\r\n".getBytes(StandardCharsets.UTF_8));
+    PortfolioDataFile streaming = PortfolioDataFile.ofStreaming(file);
+    PortfolioDataFile inMemory = PortfolioDataFile.of(file);
+    String hash = PortfolioDataCache.hash(inMemory.getData());
+    MarginCalcRequest request = MarginCalcRequest.of(VAL_DATE, "GBP", Arrays.asList(streaming, inMemory));
+
+    // the hash of file-backed data is only known once it has been uploaded
+    PortfolioDataCache cache = PortfolioDataCache.of(10);
+    cache.confirmed(Collections.singletonList(hash));
+    MarginCalcRequestBody body1 = MarginCalcRequestBody.of(request, cache);
+    assertEquals(body1.getReferencedHashes(), Collections.singletonList(hash));
+    String json1 = write(body1);
+    assertTrue(json1.contains("\"data\":"));
+    assertTrue(json1.contains("\"dataHash\":"));
+
+    MarginCalcRequestBody body2 = MarginCalcRequestBody.of(request, cache);
+    assertEquals(body2.getReferencedHashes(), Arrays.asList(hash, hash));
+    assertFalse(write(body2).contains("\"data\":"));
+
+    cache.evict(Collections.singletonList(hash));
+    assertEquals(MarginCalcRequestBody.of(request, cache).getReferencedHashes(), Collections.emptyList());
+  }
+
+  @DataProvider(name = "strings")
+  public static Object[][] data_strings() {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      large.append("Trade,").append(i).append(",\"GBP\",\u00e9\u20ac\ud83d\ude00\n");
+    }
+    return new Object[][] {
+        {""},
+        {"plain"},
+        {"\"starts and ends with escape\\"},
+        {"\"\"\\\\\n\r\t\b\f"},
+        {"control\u0000\u0001\u001f delete\u007f"},
+        {"\u2028separators\u2029"},
+        {"unicode \u00e9 \u20ac \ud83d\ude00 \u0080\u07ff\u0800\uffff"},
+        {"\ud83d\ude00\"\ud83d\ude00"},
+        {large.toString()},
+    };
+  }
+
+  @Test(dataProvider = "strings")
+  public void test_stringsMatchJodaBytes(String str) throws IOException {
+    MarginCalcRequest request = MarginCalcRequest.builder()
+        .type(MarginCalcRequestType.STANDARD)
+        .valuationDate(VAL_DATE)
+        .reportingCurrency(str)
+        .calculationCurrency(str)
+        .portfolioData(Collections.singletonList(PortfolioDataFile.of(str, str)))
+        .build();
+    Buffer buffer = new Buffer();
+    MarginCalcRequestBody.of(request).writeTo(buffer);
+    byte[] expected = JodaBeanSer.COMPACT.jsonWriter().write(request, false).getBytes(StandardCharsets.UTF_8);
+    assertEquals(buffer.readByteArray(), expected);
+  }
+
+  public void test_allProperties() throws IOException {
+    MarginCalcRequest request = MarginCalcRequest.builder()
+        .type(MarginCalcRequestType.FULL)
+        .valuationDate(VAL_DATE)
+        .applyClientMultiplier(true)
+        .reportingCurrency("GBP")
+        .calculationCurrency("USD")
+        .portfolioData(Collections.singletonList(PortfolioDataFile.of("a \"name\"", "data")))
+        .build();
+    assertEquals(write(request), JodaBeanSer.COMPACT.jsonWriter().write(request, false));
+  }
+
+  public void test_portfolioDataFile() throws IOException {
+    Path file = dir.resolve("trades.txt");
+    Files.write(file, "a,b\nc,d\n".getBytes(StandardCharsets.UTF_8));
+
+    PortfolioDataFile streaming = PortfolioDataFile.ofStreaming(file);
+    assertEquals(streaming.getFile().get(), file);
+    assertEquals(streaming.getDataSize(), 8);
+    assertEquals(streaming, PortfolioDataFile.ofStreaming(file));
+    assertFalse(streaming.equals(PortfolioDataFile.of(file)));
+    assertEquals(streaming.toString(), "PortfolioDataFile{name=trades.txt, file=" + file + "}");
+    assertFalse(PortfolioDataFile.of(file).getFile().isPresent());
+    assertThrows(IllegalArgumentException.class, () -> PortfolioDataFile.ofStreaming(dir.resolve("missing.txt")));
+  }
+
+  //-------------------------------------------------------------------------
+  private static String write(MarginCalcRequest request) throws IOException {
+    return write(MarginCalcRequestBody.of(request));
+  }
+
+  private static String write(MarginCalcRequestBody body) throws IOException {
+    Buffer buffer = new Buffer();
+    body.writeTo(buffer);
+    return buffer.readUtf8();
+  }
+
+}
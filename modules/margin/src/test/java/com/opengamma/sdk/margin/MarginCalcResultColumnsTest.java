@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertThrows;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.OptionalDouble;
+
+import org.joda.beans.ser.JodaBeanSer;
+import org.testng.annotations.Test;
+
+import com.opengamma.sdk.common.JsonReader;
+
+import okio.Buffer;
+
+/**
+ * Test {@link MarginCalcResultColumns}.
+ */
+@Test
+public class MarginCalcResultColumnsTest {
+
+  private static final MarginCalcResult RESULT = MarginCalcResult.of(
+      MarginCalcResultStatus.COMPLETED,
+      MarginCalcRequestType.FULL,
+      LocalDate.of(2017, 6, 1),
+      "GBP",
+      Arrays.asList(
+          PortfolioItemSummary.of("1", "SWAP", "MySwap"),
+          PortfolioItemSummary.of("22", "FRA", ""),
+          PortfolioItemSummary.of("", "SWAP", "Other \u00e9")),
+      MarginSummary.of(125d, Arrays.asList(NamedValue.of("Base", 100d), NamedValue.of("Add-on", 25d))),
+      Collections.singletonList(MarginError.of("Invalid", "Bad trade", "PARSE")));
+
+  //-------------------------------------------------------------------------
+  public void test_of() {
+    MarginCalcResultColumns test = MarginCalcResultColumns.of(RESULT);
+    assertEquals(test.getStatus(), MarginCalcResultStatus.COMPLETED);
+    assertEquals(test.getType(), MarginCalcRequestType.FULL);
+    assertEquals(test.getValuationDate(), LocalDate.of(2017, 6, 1));
+    assertEquals(test.getReportingCurrency(), "GBP");
+    assertEquals(test.getPortfolioItemCount(), 3);
+    assertEquals(test.getPortfolioItemId(0), "1");
+    assertEquals(test.getPortfolioItemId(1), "22");
+    assertEquals(test.getPortfolioItemId(2), "");
+    assertEquals(test.getPortfolioItemDescription(1), "");
+    assertEquals(test.getPortfolioItemDescription(2), "Other \u00e9");
+    assertEquals(test.getProducts(), Arrays.asList("SWAP", "FRA"));
+    assertEquals(test.getPortfolioItemProductCode(0), 0);
+    assertEquals(test.getPortfolioItemProductCode(1), 1);
+    assertEquals(test.getPortfolioItemProductCode(2), 0);
+    assertEquals(test.getPortfolioItemProduct(2), "SWAP");
+    assertEquals(test.getPortfolioItem(0), RESULT.getPortfolioItems().get(0));
+    assertEquals(test.getMargin(), OptionalDouble.of(125d));
+    assertEquals(test.getMarginDetailCount(), 2);
+    assertEquals(test.getMarginDetailKey(1), "Add-on");
+    assertEquals(test.getMarginDetailValue(1), 25d);
+    assertEquals(test.getMarginDetailValues(), new double[] {100d, 25d});
+    assertEquals(test.getFailures(), RESULT.getFailures());
+    assertEquals(test.toResult(), RESULT);
+  }
+
+  public void test_of_noMargin() {
+    MarginCalcResult result = MarginCalcResult.of(
+        MarginCalcResultStatus.COMPLETED,
+        MarginCalcRequestType.STANDARD,
+        LocalDate.of(2017, 6, 1),
+        "GBP",
+        Collections.emptyList(),
+        null,
+        Collections.emptyList());
+    MarginCalcResultColumns test = MarginCalcResultColumns.of(result);
+    assertEquals(test.getPortfolioItemCount(), 0);
+    assertFalse(test.getMargin().isPresent());
+    assertEquals(test.getMarginDetailCount(), 0);
+    assertEquals(test.toResult(), result);
+    assertThrows(IndexOutOfBoundsException.class, () -> test.getPortfolioItemId(0));
+  }
+
+  public void test_read() throws Exception {
+    for (String json : Arrays.asList(
+        JodaBeanSer.COMPACT.jsonWriter().write(RESULT),
+        JodaBeanSer.PRETTY.simpleJsonWriter().write(RESULT))) {
+      MarginCalcResultColumns test =
+          MarginCalcResultReader.readColumnsUnlessPending(JsonReader.of(new Buffer().writeUtf8(json)));
+      assertEquals(test.toResult(), RESULT);
+    }
+  }
+
+  public void test_read_manyItems() throws Exception {
+    PortfolioItemSummary[] items = new PortfolioItemSummary[1000];
+    for (int i = 0; i < items.length; i++) {
+      items[i] = PortfolioItemSummary.of("T" + i, i % 3 == 0 ? "SWAP" : "FRA", "Trade " + i);
+    }
+    MarginCalcResult result = MarginCalcResult.of(
+        RESULT.getStatus(),
+        RESULT.getType(),
+        RESULT.getValuationDate(),
+        RESULT.getReportingCurrency(),
+        Arrays.asList(items),
+        RESULT.getMargin().orElse(null),
+        RESULT.getFailures());
+    String json = JodaBeanSer.COMPACT.jsonWriter().write(result);
+    MarginCalcResultColumns test =
+        MarginCalcResultReader.readColumnsUnlessPending(JsonReader.of(new Buffer().writeUtf8(json)));
+    assertEquals(test.getPortfolioItemCount(), 1000);
+    assertEquals(test.getProducts(), Arrays.asList("SWAP", "FRA"));
+    assertEquals(test.getPortfolioItemId(999), "T999");
+    assertEquals(test.toResult(), result);
+  }
+
+}
@@ -7,23 +7,39 @@ package com.opengamma.sdk.margin;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
 
 import java.io.IOException;
 import java.net.URI;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.joda.beans.ser.JodaBeanSer;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.opengamma.sdk.common.RetryPolicy;
 import com.opengamma.sdk.common.ServiceInvoker;
 import com.opengamma.sdk.common.auth.Credentials;
 
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.GzipSource;
+import okio.Okio;
 
 /**
  * Test.
@@ -87,6 +103,9 @@ public class MarginClientTest {
     server.enqueue(new MockResponse()
         .setHeader("Content-Type", "application/xml")
         .setBody(RESPONSE_LIST_CCPS));
+    server.enqueue(new MockResponse()
+        .setHeader("Content-Type", "application/xml")
+        .setBody(RESPONSE_LIST_CCPS));
 
     // call server
     ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, server.url("/"), new TestingAuthClient());
@@ -98,6 +117,43 @@ public class MarginClientTest {
     assertEquals(ccps.findCcp(Ccp.LCH).get().getName(), Ccp.LCH);
     assertEquals(ccps.getCcp(Ccp.LCH).getName(), Ccp.LCH);
     assertEquals(ccps.getCcp(Ccp.LCH).getLatestValuationDate(), VAL_DATE);
+
+    // each call is made to the service
+    assertEquals(client.listCcps(), ccps);
+    assertEquals(server.getRequestCount(), 2);
+  }
+
+  public void test_listCcpsCached() throws Exception {
+    server.enqueue(new MockResponse()
+        .setHeader("ETag", "\"v1\"")
+        .setBody(RESPONSE_LIST_CCPS));
+    server.enqueue(new MockResponse()
+        .setResponseCode(304));
+    server.enqueue(new MockResponse()
+        .setHeader("Last-Modified", "Thu, 01 Jun 2017 12:00:00 GMT")
+        .setBody(RESPONSE_LIST_CCPS));
+    server.enqueue(new MockResponse()
+        .setResponseCode(304));
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, server.url("/"), new TestingAuthClient());
+    InvokerMarginClient client = InvokerMarginClient.of(invoker);
+
+    CcpsResult ccps = client.listCcpsCached();
+    assertEquals(client.listCcpsCached(), ccps);
+    assertEquals(server.getRequestCount(), 1);
+    assertEquals(server.takeRequest().getHeader("If-None-Match"), null);
+
+    // revalidation uses the entity tag, or last modified date if no entity tag
+    assertEquals(client.refreshCcps().join(), ccps);
+    assertEquals(server.takeRequest().getHeader("If-None-Match"), "\"v1\"");
+    assertEquals(client.refreshCcps().join(), ccps);
+    assertEquals(server.takeRequest().getHeader("If-None-Match"), "\"v1\"");
+    assertEquals(client.refreshCcps().join(), ccps);
+    RecordedRequest request = server.takeRequest();
+    assertEquals(request.getHeader("If-None-Match"), null);
+    assertEquals(request.getHeader("If-Modified-Since"), "Thu, 01 Jun 2017 12:00:00 GMT");
+    assertEquals(client.listCcpsCached().getCcp(Ccp.LCH).getLatestValuationDate(), VAL_DATE);
   }
 
   public void test_listCcps_fail() throws Exception {
@@ -138,6 +194,236 @@ public class MarginClientTest {
     assertEquals(result.getValuationDate(), VAL_DATE);
   }
 
+  public void test_calculate_pendingReadsOnlyStatus() throws Exception {
+    server.enqueue(new MockResponse()
+        .setResponseCode(202)
+        .setHeader("Location", server.url("/ccps/lch/calculations/789"))
+        .setBody(RESPONSE_CALC_POST));
+    // the remainder of a pending response is not read, so is not parsed
+    server.enqueue(new MockResponse()
+        .setBody("{\"status\":\"PENDING\",\"portfolioItems\":[{\"id\":?"));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_CALC_GET_COMPLETE));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_DELETE));
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, server.url("/"), new TestingAuthClient());
+    MarginClient client = MarginClient.of(invoker);
+
+    MarginCalcResult result = client.calculate(Ccp.LCH, REQUEST);
+    MarginCalcResult expected = JodaBeanSer.COMPACT.jsonReader().read(RESPONSE_CALC_GET_COMPLETE, MarginCalcResult.class);
+    assertEquals(result, expected);
+    assertEquals(server.getRequestCount(), 4);
+  }
+
+  public void test_calculateColumnar() throws Exception {
+    server.enqueue(new MockResponse()
+        .setResponseCode(202)
+        .setHeader("Location", server.url("/ccps/lch/calculations/789"))
+        .setBody(RESPONSE_CALC_POST));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_CALC_GET_PENDING));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_CALC_GET_COMPLETE));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_DELETE));
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, server.url("/"), new TestingAuthClient());
+    MarginClient client = MarginClient.of(invoker);
+
+    MarginCalcResultColumns result = client.calculateColumnar(Ccp.LCH, REQUEST);
+    assertEquals(result.getStatus(), MarginCalcResultStatus.COMPLETED);
+    assertEquals(result.getPortfolioItemCount(), 1);
+    assertEquals(result.getPortfolioItemId(0), "1");
+    assertEquals(result.getPortfolioItemProduct(0), "SWAP");
+    assertEquals(result.getMargin().getAsDouble(), 125d);
+    assertEquals(result.toResult(), JodaBeanSer.COMPACT.jsonReader().read(RESPONSE_CALC_GET_COMPLETE, MarginCalcResult.class));
+  }
+
+  public void test_calculate_handler() throws Exception {
+    MarginCalcResult full = MarginCalcResult.of(
+        MarginCalcResultStatus.COMPLETED,
+        MarginCalcRequestType.FULL,
+        VAL_DATE,
+        "GBP",
+        Arrays.asList(
+            PortfolioItemSummary.of("1", "SWAP", "My \"Swap\"\n\u00e9"),
+            PortfolioItemSummary.of("2", "FRA", "MyFra")),
+        MarginSummary.of(125d, Arrays.asList(NamedValue.of("Base", 100d), NamedValue.of("Add-on", 25d))),
+        Collections.singletonList(MarginError.of("Invalid", "Bad trade", "PARSE")));
+    server.enqueue(new MockResponse()
+        .setResponseCode(202)
+        .setHeader("Location", server.url("/ccps/lch/calculations/789"))
+        .setBody(RESPONSE_CALC_POST));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_CALC_GET_PENDING));
+    server.enqueue(new MockResponse()
+        .setBody(JodaBeanSer.COMPACT.jsonWriter().write(full)));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_DELETE));
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, server.url("/"), new TestingAuthClient());
+    MarginClient client = MarginClient.of(invoker);
+
+    List<PortfolioItemSummary> items = new ArrayList<>();
+    List<MarginError> failures = new ArrayList<>();
+    MarginCalcResult result = client.calculate(Ccp.LCH, REQUEST, MarginCalcResultHandler.of(items::add, failures::add));
+    assertEquals(result.getStatus(), MarginCalcResultStatus.COMPLETED);
+    assertEquals(result.getType(), MarginCalcRequestType.FULL);
+    assertEquals(result.getValuationDate(), VAL_DATE);
+    assertEquals(result.getReportingCurrency(), "GBP");
+    assertEquals(result.getMargin(), full.getMargin());
+    assertEquals(result.getPortfolioItems(), Collections.emptyList());
+    assertEquals(result.getFailures(), Collections.emptyList());
+    assertEquals(items, full.getPortfolioItems());
+    assertEquals(failures, full.getFailures());
+  }
+
+  public void test_calculate_compressed() throws Exception {
+    server.enqueue(new MockResponse()
+        .setResponseCode(202)
+        .setHeader("Location", server.url("/ccps/lch/calculations/789"))
+        .setBody(RESPONSE_CALC_POST));
+    server.enqueue(new MockResponse()
+        .setHeader("Content-Type", "application/xml")
+        .setBody(RESPONSE_CALC_GET_COMPLETE));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_DELETE));
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(new TestingAuthClient())
+        .requestCompression(0)
+        .build();
+    MarginClient client = MarginClient.of(invoker, PollingStrategy.fixed(Duration.ofMillis(1)));
+
+    MarginCalcResult result = client.calculate(Ccp.LCH, REQUEST);
+    assertEquals(result.getStatus(), MarginCalcResultStatus.COMPLETED);
+
+    RecordedRequest post = server.takeRequest();
+    assertEquals(post.getHeader("Content-Encoding"), "gzip");
+    String json = Okio.buffer(new GzipSource(post.getBody())).readUtf8();
+    assertEquals(json, JodaBeanSer.COMPACT.jsonWriter().write(REQUEST, false));
+    RecordedRequest get = server.takeRequest();
+    assertEquals(get.getHeader("Content-Encoding"), null);
+  }
+
+  public void test_calculate_belowCompressionThreshold() throws Exception {
+    server.enqueue(new MockResponse()
+        .setResponseCode(202)
+        .setHeader("Location", server.url("/ccps/lch/calculations/789"))
+        .setBody(RESPONSE_CALC_POST));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_CALC_GET_COMPLETE));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_DELETE));
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(new TestingAuthClient())
+        .requestCompression(64 * 1024)
+        .build();
+    MarginClient client = MarginClient.of(invoker, PollingStrategy.fixed(Duration.ofMillis(1)));
+    client.calculate(Ccp.LCH, REQUEST);
+
+    // the streamed body has no length, but its size hint is below the threshold
+    RecordedRequest post = server.takeRequest();
+    assertEquals(post.getHeader("Content-Encoding"), null);
+    assertEquals(post.getBody().readUtf8(), JodaBeanSer.COMPACT.jsonWriter().write(REQUEST, false));
+  }
+
+  public void test_calculate_createNotRetriedByDefault() throws Exception {
+    server.enqueue(new MockResponse()
+        .setResponseCode(503)
+        .setBody(RESPONSE_ERROR));
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(new TestingAuthClient())
+        .build();
+    MarginClient client = MarginClient.of(invoker, PollingStrategy.fixed(Duration.ofMillis(1)));
+
+    // the calculation might have been created, so the request is not repeated
+    assertThrows(IllegalStateException.class, () -> client.calculate(Ccp.LCH, REQUEST));
+    assertEquals(server.getRequestCount(), 1);
+  }
+
+  public void test_calculate_retried() throws Exception {
+    server.enqueue(new MockResponse()
+        .setResponseCode(503));
+    server.enqueue(new MockResponse()
+        .setResponseCode(202)
+        .setHeader("Location", server.url("/ccps/lch/calculations/789"))
+        .setBody(RESPONSE_CALC_POST));
+    server.enqueue(new MockResponse()
+        .setResponseCode(503));
+    server.enqueue(new MockResponse()
+        .setHeader("Content-Type", "application/xml")
+        .setBody(RESPONSE_CALC_GET_COMPLETE));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_DELETE));
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.builder(CREDENTIALS)
+        .serviceUrl(server.url("/"))
+        .authClient(new TestingAuthClient())
+        .retryPolicy(RetryPolicy.builder().backoff(Duration.ofMillis(1), 1).retryIdempotencyKeyed(true).build())
+        .build();
+    MarginClient client = MarginClient.of(invoker, PollingStrategy.fixed(Duration.ofMillis(1)));
+
+    MarginCalcResult result = client.calculate(Ccp.LCH, REQUEST);
+    assertEquals(result.getStatus(), MarginCalcResultStatus.COMPLETED);
+
+    // the create request is retried with the same idempotency key
+    String key = server.takeRequest().getHeader(RetryPolicy.IDEMPOTENCY_KEY_HEADER);
+    assertTrue(key != null && !key.isEmpty());
+    assertEquals(server.takeRequest().getHeader(RetryPolicy.IDEMPOTENCY_KEY_HEADER), key);
+    assertEquals(server.takeRequest().getMethod(), "GET");
+    assertEquals(server.takeRequest().getMethod(), "GET");
+    assertEquals(server.takeRequest().getMethod(), "DELETE");
+  }
+
+  public void test_createCalculation_storedData() throws Exception {
+    PortfolioDataFile data = PortfolioDataFile.of("trades.txt", "a,b\nc,d");
+    String hash = PortfolioDataCache.hash(data.getData());
+    MarginCalcRequest request = MarginCalcRequest.of(
+        VAL_DATE, "GBP", Collections.singletonList(data), MarginCalcRequestType.STANDARD, false);
+    server.enqueue(new MockResponse()
+        .setResponseCode(202)
+        .setHeader("Location", server.url("/ccps/lch/calculations/1"))
+        .setHeader("Portfolio-Data-Stored", hash));
+    server.enqueue(new MockResponse()
+        .setResponseCode(202)
+        .setHeader("Location", server.url("/ccps/lch/calculations/2")));
+    server.enqueue(new MockResponse()
+        .setResponseCode(412));
+    server.enqueue(new MockResponse()
+        .setResponseCode(202)
+        .setHeader("Location", server.url("/ccps/lch/calculations/3")));
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, server.url("/"), new TestingAuthClient());
+    MarginClient client = MarginClient.of(invoker);
+
+    // first upload sends the data, second sends a reference
+    assertEquals(client.createCalculation(Ccp.LCH, request), "1");
+    assertEquals(server.takeRequest().getBody().readUtf8(), JodaBeanSer.COMPACT.jsonWriter().write(request, false));
+    assertEquals(client.createCalculation(Ccp.LCH, request), "2");
+    String referenceBody = server.takeRequest().getBody().readUtf8();
+    assertTrue(referenceBody.contains("{\"name\":\"trades.txt\",\"dataHash\":\"" + hash + "\"}"), referenceBody);
+
+    // service no longer holds the data, so it is sent again
+    assertEquals(client.createCalculation(Ccp.LCH, request), "3");
+    assertTrue(server.takeRequest().getBody().readUtf8().contains("dataHash"));
+    assertEquals(server.takeRequest().getBody().readUtf8(), JodaBeanSer.COMPACT.jsonWriter().write(request, false));
+  }
+
   public void test_calculate_postFail() throws Exception {
     server.enqueue(new MockResponse()
         .setResponseCode(500)
@@ -229,4 +515,144 @@ public class MarginClientTest {
     assertEquals(result.getValuationDate(), VAL_DATE);
   }
 
+  public void test_calculateAsync_postFail() throws Exception {
+    server.enqueue(new MockResponse()
+        .setResponseCode(500)
+        .setHeader("Content-Type", "application/xml")
+        .setBody(RESPONSE_ERROR));
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, server.url("/"), new TestingAuthClient());
+    MarginClient client = MarginClient.of(invoker);
+
+    CompletableFuture<MarginCalcResult> future = client.calculateAsync(Ccp.LCH, REQUEST);
+    assertThrows(CompletionException.class, () -> future.join());
+  }
+
+  public void test_calculateAsync_getFail() throws Exception {
+    server.enqueue(new MockResponse()
+        .setResponseCode(202)
+        .setHeader("Location", server.url("/ccps/lch/calculations/789"))
+        .setBody(RESPONSE_CALC_POST));
+    server.enqueue(new MockResponse()
+        .setResponseCode(500)
+        .setHeader("Content-Type", "application/xml")
+        .setBody(RESPONSE_ERROR));
+    server.enqueue(new MockResponse()
+        .setBody(RESPONSE_DELETE));
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, server.url("/"), new TestingAuthClient());
+    MarginClient client = MarginClient.of(invoker);
+
+    CompletableFuture<MarginCalcResult> future = client.calculateAsync(Ccp.LCH, REQUEST);
+    assertThrows(CompletionException.class, () -> future.join());
+  }
+
+  //-------------------------------------------------------------------------
+  public void test_calculateBatch() throws Exception {
+    AtomicInteger calcIds = new AtomicInteger();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        if (request.getPath().startsWith("/margin/v1/ccps/cme")) {
+          return new MockResponse()
+              .setResponseCode(500)
+              .setHeader("Content-Type", "application/xml")
+              .setBody(RESPONSE_ERROR);
+        }
+        switch (request.getMethod()) {
+          case "POST":
+            return new MockResponse()
+                .setResponseCode(202)
+                .setHeader("Location", server.url("/ccps/lch/calculations/" + calcIds.incrementAndGet()))
+                .setBody(RESPONSE_CALC_POST);
+          case "GET":
+            return new MockResponse()
+                .setHeader("Content-Type", "application/xml")
+                .setBody(RESPONSE_CALC_GET_COMPLETE);
+          default:
+            return new MockResponse()
+                .setBody(RESPONSE_DELETE);
+        }
+      }
+    });
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, server.url("/"), new TestingAuthClient());
+    MarginClient client = MarginClient.of(invoker);
+
+    List<MarginCalcBatchItem> items = Arrays.asList(
+        MarginCalcBatchItem.of("A", Ccp.LCH, REQUEST),
+        MarginCalcBatchItem.of("B", Ccp.CME, REQUEST),
+        MarginCalcBatchItem.of("C", Ccp.LCH, REQUEST));
+    Map<String, CompletableFuture<MarginCalcResult>> results = client.calculateBatch(items, 2);
+    assertEquals(new ArrayList<>(results.keySet()), Arrays.asList("A", "B", "C"));
+    assertEquals(results.get("A").join().getStatus(), MarginCalcResultStatus.COMPLETED);
+    assertThrows(CompletionException.class, () -> results.get("B").join());
+    assertEquals(results.get("C").join().getStatus(), MarginCalcResultStatus.COMPLETED);
+    assertEquals(calcIds.get(), 2);
+  }
+
+  public void test_calculateBatch_duplicateId() throws Exception {
+    ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, server.url("/"), new TestingAuthClient());
+    MarginClient client = MarginClient.of(invoker);
+
+    List<MarginCalcBatchItem> items = Arrays.asList(
+        MarginCalcBatchItem.of("A", Ccp.LCH, REQUEST),
+        MarginCalcBatchItem.of("A", Ccp.CME, REQUEST));
+    assertThrows(IllegalArgumentException.class, () -> client.calculateBatch(items, 2));
+    assertThrows(IllegalArgumentException.class, () -> client.calculateBatch(items.subList(0, 1), 0));
+  }
+
+  public void test_calculateStream() throws Exception {
+    AtomicInteger calcIds = new AtomicInteger();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        if (request.getPath().startsWith("/margin/v1/ccps/cme")) {
+          return new MockResponse()
+              .setResponseCode(500)
+              .setHeader("Content-Type", "application/xml")
+              .setBody(RESPONSE_ERROR);
+        }
+        switch (request.getMethod()) {
+          case "POST":
+            return new MockResponse()
+                .setResponseCode(202)
+                .setHeader("Location", server.url("/ccps/lch/calculations/" + calcIds.incrementAndGet()))
+                .setBody(RESPONSE_CALC_POST);
+          case "GET":
+            return new MockResponse()
+                .setHeader("Content-Type", "application/xml")
+                .setBody(RESPONSE_CALC_GET_COMPLETE);
+          default:
+            return new MockResponse()
+                .setBody(RESPONSE_DELETE);
+        }
+      }
+    });
+
+    // call server
+    ServiceInvoker invoker = ServiceInvoker.of(CREDENTIALS, server.url("/"), new TestingAuthClient());
+    MarginClient client = MarginClient.of(invoker);
+
+    // a large source, of which only the consumed part plus the concurrency limit is pulled
+    AtomicInteger pulled = new AtomicInteger();
+    Iterator<MarginCalcBatchItem> source = Stream.iterate(0, i -> i + 1)
+        .map(i -> MarginCalcBatchItem.of(Integer.toString(i), i == 1 ? Ccp.CME : Ccp.LCH, REQUEST))
+        .peek(item -> pulled.incrementAndGet())
+        .iterator();
+    try (Stream<MarginCalcBatchResult> stream = client.calculateStream(source, 2)) {
+      List<MarginCalcBatchResult> results = stream.limit(4).collect(Collectors.toList());
+      assertEquals(results.size(), 4);
+      assertEquals(results.stream().filter(MarginCalcBatchResult::isSuccess).count(), 3);
+      MarginCalcBatchResult failed = results.stream().filter(r -> !r.isSuccess()).findFirst().get();
+      assertEquals(failed.getItem().getId(), "1");
+      assertEquals(failed.getResult(), null);
+      assertTrue(pulled.get() >= 4 && pulled.get() <= 6);
+    }
+    assertThrows(IllegalArgumentException.class, () -> client.calculateStream(source, 0));
+  }
+
 }
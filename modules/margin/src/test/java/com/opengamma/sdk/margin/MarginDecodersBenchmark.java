@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.joda.beans.Bean;
+import org.joda.beans.ser.JodaBeanSer;
+
+import com.opengamma.sdk.common.JsonBeanDecoder;
+
+import okio.Buffer;
+
+/**
+ * Benchmark of {@link MarginDecoders} against Joda-Beans deserialization.
+ * <p>
+ * This is not a test and is not run by the build, as the class name does not match the test pattern.
+ * Run the main method from the IDE, or after {@code mvn test-compile} with the test classpath.
+ * The payloads are those used by {@code MarginClientTest}, plus a large synthetic result.
+ */
+public final class MarginDecodersBenchmark {
+
+  private static final LocalDate VAL_DATE = LocalDate.of(2017, 6, 1);
+  private static final int WARMUP_ROUNDS = 3;
+  private static final int TIMED_ROUNDS = 5;
+
+  // the decoded object, retained so the work cannot be eliminated
+  private static volatile Object blackhole;
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args  ignored
+   */
+  public static void main(String[] args) {
+    String ccps = JodaBeanSer.PRETTY.simpleJsonWriter().write(
+        CcpsResult.of(Collections.singletonList(
+            CcpInfo.of(
+                Ccp.LCH,
+                URI.create("/ccps/lch"),
+                Collections.singletonList(VAL_DATE),
+                "GBP",
+                Collections.singletonList("GBP"),
+                Collections.singletonList("GBP")))));
+    String pending = JodaBeanSer.PRETTY.simpleJsonWriter().write(
+        MarginCalcResult.of(
+            MarginCalcResultStatus.PENDING,
+            MarginCalcRequestType.STANDARD,
+            VAL_DATE,
+            "GBP",
+            Collections.emptyList(),
+            null,
+            Collections.emptyList()));
+    String complete = JodaBeanSer.PRETTY.simpleJsonWriter().write(
+        MarginCalcResult.of(
+            MarginCalcResultStatus.COMPLETED,
+            MarginCalcRequestType.STANDARD,
+            VAL_DATE,
+            "GBP",
+            Collections.singletonList(PortfolioItemSummary.of("1", "SWAP", "MySwap")),
+            MarginSummary.of(125d, Collections.emptyList()),
+            Collections.emptyList()));
+    String error = JodaBeanSer.PRETTY.simpleJsonWriter().write(ErrorMessage.of(500, "Error", "Error"));
+    String large = JodaBeanSer.COMPACT.jsonWriter().write(largeResult(200_000, 1000));
+
+    run("ccps", ccps, MarginDecoders.CCPS_RESULT, CcpsResult.class, 200_000);
+    run("complete", complete, MarginDecoders.MARGIN_CALC_RESULT, MarginCalcResult.class, 200_000);
+    run("error", error, MarginDecoders.ERROR_MESSAGE, ErrorMessage.class, 200_000);
+    run("large", large, MarginDecoders.MARGIN_CALC_RESULT, MarginCalcResult.class, 10);
+    runPoll("poll-pending", pending, 200_000);
+    runPoll("poll-complete", complete, 200_000);
+    runPoll("poll-large", large, 10);
+  }
+
+  //-------------------------------------------------------------------------
+  // creates a completed result with the specified number of portfolio items and margin details
+  private static MarginCalcResult largeResult(int itemCount, int detailCount) {
+    List<PortfolioItemSummary> items = new ArrayList<>();
+    for (int i = 0; i < itemCount; i++) {
+      items.add(PortfolioItemSummary.of("trade-" + i, i % 3 == 0 ? "SWAP" : "FRA", "Trade number " + i + " \"quoted\""));
+    }
+    List<NamedValue> details = new ArrayList<>();
+    for (int i = 0; i < detailCount; i++) {
+      details.add(NamedValue.of("detail-" + i, i * 1.5d));
+    }
+    return MarginCalcResult.of(
+        MarginCalcResultStatus.COMPLETED,
+        MarginCalcRequestType.FULL,
+        VAL_DATE,
+        "GBP",
+        items,
+        MarginSummary.of(1_000_000d, details),
+        Collections.emptyList());
+  }
+
+  // compares the decoder to Joda-Beans
+  private static <T extends Bean> void run(String name, String json, JsonBeanDecoder<T> decoder, Class<T> type, int count) {
+    double joda = time(() -> JodaBeanSer.COMPACT.jsonReader().read(json, type), count);
+    double decoded = time(() -> decoder.decode(json), count);
+    report(name, json, joda, decoded);
+  }
+
+  // compares the poll path, which skips pending results, to Joda-Beans
+  private static void runPoll(String name, String json, int count) {
+    double joda = time(() -> {
+      MarginCalcResult result = JodaBeanSer.COMPACT.jsonReader().read(json, MarginCalcResult.class);
+      return result.getStatus() == MarginCalcResultStatus.PENDING ? null : result;
+    }, count);
+    double decoded = time(() -> {
+      try {
+        return MarginDecoders.decodeResultUnlessPending(new Buffer().writeUtf8(json));
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }, count);
+    report(name, json, joda, decoded);
+  }
+
+  // returns the best time of the timed rounds, in microseconds per operation
+  private static double time(Supplier<Object> operation, int count) {
+    for (int round = 0; round < WARMUP_ROUNDS; round++) {
+      for (int i = 0; i < count; i++) {
+        blackhole = operation.get();
+      }
+    }
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < TIMED_ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        blackhole = operation.get();
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best / 1000d / count;
+  }
+
+  // prints the result
+  private static void report(String name, String json, double joda, double decoded) {
+    System.out.printf(
+        "%-14s %10d bytes  joda %12.1f us  decoder %12.1f us  speedup %.1fx%n",
+        name, json.length(), joda, decoded, joda / decoded);
+  }
+
+  private MarginDecodersBenchmark() {
+  }
+
+}
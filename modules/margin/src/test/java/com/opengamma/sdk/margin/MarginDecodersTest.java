@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.beans.Bean;
+import org.joda.beans.ser.JodaBeanSer;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.opengamma.sdk.common.JsonBeanDecoder;
+import com.opengamma.sdk.common.JsonBeanDecoder.Decoder;
+import com.opengamma.sdk.common.JsonReader;
+
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Test {@link MarginDecoders}.
+ */
+@Test
+public class MarginDecodersTest {
+
+  private static final LocalDate VAL_DATE = LocalDate.of(2017, 6, 1);
+
+  @DataProvider(name = "beans")
+  public static Object[][] data_beans() {
+    return new Object[][] {
+        {MarginDecoders.CCPS_RESULT, (Decoder<CcpsResult>) MarginDecoders::decodeCcpsResult, CcpsResult.of(Arrays.asList(
+            CcpInfo.of(
+                Ccp.LCH,
+                URI.create("http://localhost/lch"),
+                Arrays.asList(VAL_DATE, VAL_DATE.plusDays(1)),
+                "GBP",
+                Arrays.asList("GBP", "USD"),
+                Collections.emptyList()),
+            CcpInfo.of(
+                Ccp.EUREX,
+                URI.create("http://localhost/eurex"),
+                Collections.emptyList(),
+                "EUR",
+                Collections.singletonList("EUR"),
+                Collections.singletonList("EUR"))))},
+        {MarginDecoders.CCPS_RESULT, (Decoder<CcpsResult>) MarginDecoders::decodeCcpsResult, CcpsResult.of(Collections.emptyList())},
+        {MarginDecoders.MARGIN_CALC_RESULT, (Decoder<MarginCalcResult>) MarginCalcResultReader::read, MarginCalcResult.of(
+            MarginCalcResultStatus.COMPLETED,
+            MarginCalcRequestType.FULL,
+            VAL_DATE,
+            "GBP",
+            Arrays.asList(
+                PortfolioItemSummary.of("1", "SWAP", "My \"Swap\"\n\u00e9"),
+                PortfolioItemSummary.of("2", "FRA", "")),
+            MarginSummary.of(125.5d, Collections.singletonList(NamedValue.of("Base", -1e-3))),
+            Collections.singletonList(MarginError.of("Invalid", "Bad", null)))},
+        {MarginDecoders.MARGIN_CALC_RESULT, (Decoder<MarginCalcResult>) MarginCalcResultReader::read, MarginCalcResult.of(
+            MarginCalcResultStatus.PENDING,
+            MarginCalcRequestType.STANDARD,
+            VAL_DATE,
+            "GBP",
+            Collections.singletonList(PortfolioItemSummary.of("1", "SWAP", "MySwap")),
+            null,
+            Collections.emptyList())},
+        {MarginDecoders.ERROR_MESSAGE, (Decoder<ErrorMessage>) MarginDecoders::decodeErrorMessage, ErrorMessage.of(500, "Error", "Message", "java.lang.Exception")},
+        {MarginDecoders.ERROR_MESSAGE, (Decoder<ErrorMessage>) MarginDecoders::decodeErrorMessage, ErrorMessage.of(404, "Not found", "")},
+    };
+  }
+
+  @Test(dataProvider = "beans")
+  public <T extends Bean> void test_matchesJoda(JsonBeanDecoder<T> decoder, Decoder<T> handWritten, T bean)
+      throws IOException {
+    String compact = JodaBeanSer.COMPACT.jsonWriter().write(bean);
+    String simple = JodaBeanSer.PRETTY.simpleJsonWriter().write(bean);
+    // the hand-written decoder handles both formats without the fallback
+    assertEquals(handWritten.decode(JsonReader.of(new Buffer().writeUtf8(compact))), bean);
+    assertEquals(handWritten.decode(JsonReader.of(new Buffer().writeUtf8(simple))), bean);
+    assertEquals(decoder.decode(compact), bean);
+    assertEquals(decoder.decode(simple), bean);
+    assertEquals(decoder.decode(compact), JodaBeanSer.COMPACT.jsonReader().read(compact, bean.getClass()));
+  }
+
+  //-------------------------------------------------------------------------
+  public void test_decodeUnlessPending() throws IOException {
+    MarginCalcResult pending = result(MarginCalcResultStatus.PENDING, null);
+    MarginCalcResult completed = result(MarginCalcResultStatus.COMPLETED, MarginSummary.of(12.5d, Collections.emptyList()));
+    String pendingJson = JodaBeanSer.COMPACT.jsonWriter().write(pending);
+    String completedJson = JodaBeanSer.COMPACT.jsonWriter().write(completed);
+
+    assertNull(MarginDecoders.decodeResultUnlessPending(new Buffer().writeUtf8(pendingJson)));
+    assertNull(MarginDecoders.decodeColumnsUnlessPending(new Buffer().writeUtf8(pendingJson)));
+    assertEquals(MarginDecoders.decodeResultUnlessPending(new Buffer().writeUtf8(completedJson)), completed);
+    assertEquals(MarginDecoders.decodeColumnsUnlessPending(new Buffer().writeUtf8(completedJson)).toResult(), completed);
+  }
+
+  public void test_decodeUnlessPending_stopsAtStatus() throws IOException {
+    List<PortfolioItemSummary> items = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      items.add(PortfolioItemSummary.of("trade-" + i, "SWAP", "Trade " + i));
+    }
+    MarginCalcResult pending = MarginCalcResult.of(
+        MarginCalcResultStatus.PENDING,
+        MarginCalcRequestType.STANDARD,
+        VAL_DATE,
+        "GBP",
+        items,
+        null,
+        Collections.emptyList());
+    Buffer body = new Buffer().writeUtf8(JodaBeanSer.COMPACT.jsonWriter().write(pending));
+    long size = body.size();
+    assertTrue(size > 100_000);
+
+    AtomicLong read = new AtomicLong();
+    Source counting = new ForwardingSource(body) {
+      @Override
+      public long read(Buffer sink, long byteCount) throws IOException {
+        long count = super.read(sink, byteCount);
+        read.addAndGet(Math.max(count, 0));
+        return count;
+      }
+    };
+    assertNull(MarginDecoders.decodeResultUnlessPending(Okio.buffer(counting)));
+    // at most a single segment is read beyond the status
+    assertTrue(read.get() <= 8192, "Read " + read.get() + " of " + size + " bytes");
+    assertEquals(body.size(), size - read.get());
+  }
+
+  public void test_replay() {
+    MarginCalcResult completed = MarginCalcResult.of(
+        MarginCalcResultStatus.COMPLETED,
+        MarginCalcRequestType.STANDARD,
+        VAL_DATE,
+        "GBP",
+        Collections.singletonList(PortfolioItemSummary.of("1", "SWAP", "MySwap")),
+        MarginSummary.of(12.5d, Collections.emptyList()),
+        Collections.singletonList(MarginError.of("Bad", "Bad trade", "PARSING")));
+    List<PortfolioItemSummary> items = new ArrayList<>();
+    List<MarginError> failures = new ArrayList<>();
+    MarginCalcResultHandler handler = MarginCalcResultHandler.of(items::add, failures::add);
+
+    MarginCalcResult test = MarginCalcResultReader.replay(completed, handler);
+    assertEquals(test.getMargin(), completed.getMargin());
+    assertEquals(test.getPortfolioItems(), Collections.emptyList());
+    assertEquals(test.getFailures(), Collections.emptyList());
+    assertEquals(items, completed.getPortfolioItems());
+    assertEquals(failures, completed.getFailures());
+
+    // the handler is not invoked if pending
+    items.clear();
+    MarginCalcResult pending = result(MarginCalcResultStatus.PENDING, null);
+    assertEquals(MarginCalcResultReader.replay(pending, handler).getStatus(), MarginCalcResultStatus.PENDING);
+    assertEquals(items, Collections.emptyList());
+  }
+
+  //-------------------------------------------------------------------------
+  private static MarginCalcResult result(MarginCalcResultStatus status, MarginSummary margin) {
+    return MarginCalcResult.of(
+        status,
+        MarginCalcRequestType.STANDARD,
+        VAL_DATE,
+        "GBP",
+        Collections.singletonList(PortfolioItemSummary.of("1", "SWAP", "MySwap")),
+        margin,
+        Collections.emptyList());
+  }
+
+}
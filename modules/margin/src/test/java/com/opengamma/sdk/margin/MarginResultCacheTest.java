@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test {@link MarginResultCache}.
+ */
+@Test
+public class MarginResultCacheTest {
+
+  private static final LocalDate VAL_DATE = LocalDate.of(2017, 6, 1);
+  private static final MarginCalcRequest REQUEST = request("a,b\nc,d");
+  private static final MarginCalcResult PENDING = result(MarginCalcResultStatus.PENDING);
+  private static final MarginCalcResult COMPLETED = result(MarginCalcResultStatus.COMPLETED);
+
+  private Path dir;
+  private MutableClock clock;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("margin");
+    clock = new MutableClock();
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  //-------------------------------------------------------------------------
+  public void test_of() {
+    assertThrows(IllegalArgumentException.class, () -> MarginResultCache.of(0, Duration.ofHours(1)));
+    assertThrows(IllegalArgumentException.class, () -> MarginResultCache.of(10, Duration.ZERO));
+    assertThrows(NullPointerException.class, () -> MarginResultCache.of(10, Duration.ofHours(1), null));
+  }
+
+  public void test_key() throws IOException {
+    MarginResultCache test = MarginResultCache.of(10, Duration.ofHours(1));
+    Path file = dir.resolve("trades.txt");
+    Files.write(file, "a,b\r\nc,d\r\n".getBytes(StandardCharsets.UTF_8));
+    MarginCalcRequest streaming = MarginCalcRequest.of(
+        VAL_DATE, "GBP", Collections.singletonList(PortfolioDataFile.ofStreaming(file)));
+
+    assertEquals(test.key(Ccp.LCH, REQUEST), test.key(Ccp.LCH, request("a,b\nc,d")));
+    assertEquals(test.key(Ccp.LCH, REQUEST), test.key(Ccp.LCH, streaming));
+    assertNotEquals(test.key(Ccp.LCH, REQUEST), test.key(Ccp.CME, REQUEST));
+    assertNotEquals(test.key(Ccp.LCH, REQUEST), test.key(Ccp.LCH, request("a,b\nc,e")));
+  }
+
+  public void test_key_fileHashRemembered() throws IOException {
+    MarginResultCache test = MarginResultCache.of(10, Duration.ofHours(1));
+    Path file = dir.resolve("trades.txt");
+    Files.write(file, "a,b\nc,d".getBytes(StandardCharsets.UTF_8));
+    FileTime modified = Files.getLastModifiedTime(file);
+    MarginCalcRequest streaming = MarginCalcRequest.of(
+        VAL_DATE, "GBP", Collections.singletonList(PortfolioDataFile.ofStreaming(file)));
+    String key = test.key(Ccp.LCH, streaming);
+
+    // the file is not read again while its size and modification time are unchanged
+    Files.write(file, "a,b\nc,e".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, modified);
+    assertEquals(test.key(Ccp.LCH, streaming), key);
+    Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 1000));
+    assertEquals(test.key(Ccp.LCH, streaming), test.key(Ccp.LCH, request("a,b\nc,e")));
+  }
+
+  public void test_findPut() {
+    MarginResultCache test = MarginResultCache.of(2, Duration.ofHours(1), null, clock);
+    assertFalse(test.find("a").isPresent());
+    test.put("a", COMPLETED);
+    test.put("p", PENDING);
+    assertEquals(test.find("a").get(), COMPLETED);
+    assertFalse(test.find("p").isPresent());
+    assertEquals(test.getHitCount(), 1);
+    assertEquals(test.getMissCount(), 2);
+
+    // least recently used is evicted
+    test.put("b", COMPLETED);
+    test.find("a");
+    test.put("c", COMPLETED);
+    assertEquals(test.size(), 2);
+    assertTrue(test.find("a").isPresent());
+    assertFalse(test.find("b").isPresent());
+
+    // expiry
+    clock.advance(Duration.ofMinutes(59));
+    assertTrue(test.find("a").isPresent());
+    clock.advance(Duration.ofMinutes(1));
+    assertFalse(test.find("a").isPresent());
+    assertEquals(test.size(), 1);
+
+    test.clear();
+    assertEquals(test.size(), 0);
+  }
+
+  public void test_disk() {
+    MarginResultCache test1 = MarginResultCache.of(2, Duration.ofHours(1), dir, clock);
+    test1.put("a", COMPLETED);
+    test1.put("b", COMPLETED);
+
+    // shared with other instances
+    assertEquals(test1.size(), 2);
+    assertEquals(test1.find("a").get(), COMPLETED);
+    MarginResultCache test2 = MarginResultCache.of(10, Duration.ofHours(1), dir, clock);
+    assertEquals(test2.find("b").get(), COMPLETED);
+
+    clock.advance(Duration.ofHours(1));
+    MarginResultCache test3 = MarginResultCache.of(10, Duration.ofHours(1), dir, clock);
+    assertFalse(test3.find("a").isPresent());
+    test2.clear();
+    assertFalse(Files.exists(dir.resolve("b.json")));
+  }
+
+  public void test_disk_sweep() {
+    MarginResultCache test = MarginResultCache.of(2, Duration.ofHours(1), dir, clock);
+    test.put("a", COMPLETED);
+    clock.advance(Duration.ofMinutes(1));
+    test.put("b", COMPLETED);
+    clock.advance(Duration.ofMinutes(1));
+    test.put("c", COMPLETED);
+
+    // the oldest result is deleted once the maximum size is exceeded
+    assertFalse(Files.exists(dir.resolve("a.json")));
+    assertTrue(Files.exists(dir.resolve("b.json")));
+    assertTrue(Files.exists(dir.resolve("c.json")));
+
+    // expired results are deleted when a result is written
+    clock.advance(Duration.ofMinutes(59));
+    test.put("d", COMPLETED);
+    assertFalse(Files.exists(dir.resolve("b.json")));
+    assertTrue(Files.exists(dir.resolve("c.json")));
+    assertTrue(Files.exists(dir.resolve("d.json")));
+  }
+
+  //-------------------------------------------------------------------------
+  public void test_cachedClient() {
+    CountingClient underlying = new CountingClient();
+    MarginResultCache cache = MarginResultCache.of(10, Duration.ofHours(1));
+    MarginClient test = MarginClient.cached(underlying, cache);
+
+    assertEquals(test.calculate(Ccp.LCH, REQUEST), COMPLETED);
+    assertEquals(test.calculate(Ccp.LCH, request("a,b\nc,d")), COMPLETED);
+    assertEquals(test.calculateAsync(Ccp.LCH, REQUEST).join(), COMPLETED);
+    assertEquals(underlying.calculations.get(), 1);
+    assertEquals(test.calculateAsync(Ccp.CME, REQUEST).join(), COMPLETED);
+    assertEquals(test.calculate(Ccp.CME, REQUEST), COMPLETED);
+    assertEquals(underlying.calculations.get(), 2);
+    assertEquals(cache.getHitCount(), 3);
+    assertEquals(cache.getMissCount(), 2);
+  }
+
+  public void test_cachedClient_defaultMethods() {
+    // the underlying client only implements the methods that have no default
+    CountingClient underlying = new CountingClient();
+    MarginResultCache cache = MarginResultCache.of(10, Duration.ofHours(1));
+    MarginClient test = MarginClient.cached(underlying, cache);
+
+    assertEquals(test.calculateColumnar(Ccp.LCH, REQUEST).toResult(), COMPLETED);
+    assertEquals(underlying.calculations.get(), 1);
+    assertEquals(test.calculateBatch(Collections.singletonList(MarginCalcBatchItem.of("1", Ccp.LCH, REQUEST)), 1)
+        .get("1").join(), COMPLETED);
+    assertEquals(underlying.calculations.get(), 2);
+    List<PortfolioItemSummary> items = new ArrayList<>();
+    MarginCalcResultHandler handler = MarginCalcResultHandler.of(items::add, failure -> { });
+    assertEquals(test.calculate(Ccp.LCH, REQUEST, handler), COMPLETED);
+    assertEquals(underlying.calculations.get(), 3);
+  }
+
+  //-------------------------------------------------------------------------
+  private static MarginCalcRequest request(String data) {
+    return MarginCalcRequest.of(VAL_DATE, "GBP", Collections.singletonList(PortfolioDataFile.of("trades.txt", data)));
+  }
+
+  private static MarginCalcResult result(MarginCalcResultStatus status) {
+    return MarginCalcResult.of(
+        status,
+        MarginCalcRequestType.STANDARD,
+        VAL_DATE,
+        "GBP",
+        Collections.emptyList(),
+        null,
+        Collections.emptyList());
+  }
+
+  // a clock that can be moved forward
+  private static final class MutableClock extends Clock {
+    private volatile Instant instant = Instant.now();
+
+    private void advance(Duration duration) {
+      instant = instant.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+  }
+
+  // a client that counts calculations
+  private static final class CountingClient implements MarginClient {
+    private final AtomicInteger calculations = new AtomicInteger();
+
+    @Override
+    public CcpsResult listCcps() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String createCalculation(Ccp ccp, MarginCalcRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MarginCalcResult getCalculation(Ccp ccp, String calcId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void deleteCalculation(Ccp ccp, String calcId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MarginCalcResult calculate(Ccp ccp, MarginCalcRequest request) {
+      calculations.incrementAndGet();
+      return COMPLETED;
+    }
+
+    @Override
+    public CompletableFuture<MarginCalcResult> calculateAsync(Ccp ccp, MarginCalcRequest request) {
+      return CompletableFuture.completedFuture(calculate(ccp, request));
+    }
+  }
+
+}
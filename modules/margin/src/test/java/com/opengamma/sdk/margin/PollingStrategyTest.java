@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.sdk.margin;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test {@link PollingStrategy}.
+ */
+@Test
+public class PollingStrategyTest {
+
+  private static final LocalDate VAL_DATE = LocalDate.of(2017, 6, 1);
+  private static final MarginCalcRequest SMALL = MarginCalcRequest.of(
+      VAL_DATE,
+      "GBP",
+      Collections.singletonList(PortfolioDataFile.of("small.txt", "1234")),
+      MarginCalcRequestType.FULL,
+      false);
+  private static final MarginCalcRequest LARGE = MarginCalcRequest.of(
+      VAL_DATE,
+      "GBP",
+      Collections.singletonList(PortfolioDataFile.of("large.txt", new String(new char[100_000]))),
+      MarginCalcRequestType.FULL,
+      false);
+
+  public void test_fixed() {
+    PollingStrategy test = PollingStrategy.fixed(Duration.ofMillis(200));
+    assertEquals(test.initialDelay(Ccp.LCH, SMALL), Duration.ofMillis(200));
+    assertEquals(test.nextDelay(Ccp.LCH, SMALL, 5, Duration.ofSeconds(1)), Duration.ofMillis(200));
+    assertThrows(IllegalArgumentException.class, () -> PollingStrategy.fixed(Duration.ofMillis(-1)));
+  }
+
+  public void test_adaptive_noHistory() {
+    PollingStrategy test = PollingStrategy.adaptive();
+    assertEquals(test.initialDelay(Ccp.LCH, SMALL), Duration.ofMillis(500));
+    long next = test.nextDelay(Ccp.LCH, SMALL, 1, Duration.ofMillis(500)).toMillis();
+    assertTrue(next >= 400 && next <= 500, "Delay: " + next);
+  }
+
+  public void test_adaptive_learns() {
+    PollingStrategy test = PollingStrategy.adaptive();
+    test.completed(Ccp.LCH, LARGE, Duration.ofSeconds(60));
+
+    // first poll shortly before expected completion
+    assertEquals(test.initialDelay(Ccp.LCH, LARGE), Duration.ofSeconds(54));
+    // back off exponentially from a fraction of the expected time, with jitter
+    long next1 = test.nextDelay(Ccp.LCH, LARGE, 1, Duration.ofSeconds(54)).toMillis();
+    assertTrue(next1 >= 4_800 && next1 <= 6_000, "Delay: " + next1);
+    long next5 = test.nextDelay(Ccp.LCH, LARGE, 5, Duration.ofSeconds(80)).toMillis();
+    assertTrue(next5 >= 8_000 && next5 <= 10_000, "Delay: " + next5);
+
+    // history is separate for other CCPs and sizes
+    assertEquals(test.initialDelay(Ccp.CME, LARGE), Duration.ofMillis(500));
+    assertEquals(test.initialDelay(Ccp.LCH, SMALL), Duration.ofMillis(500));
+
+    // moving average of observations
+    test.completed(Ccp.LCH, LARGE, Duration.ofSeconds(40));
+    assertEquals(test.initialDelay(Ccp.LCH, LARGE), Duration.ofMillis(48_600));
+  }
+
+}